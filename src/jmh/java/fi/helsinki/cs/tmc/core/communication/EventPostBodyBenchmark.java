@@ -0,0 +1,51 @@
+package fi.helsinki.cs.tmc.core.communication;
+
+import fi.helsinki.cs.tmc.core.communication.http.StreamingGzipEntity;
+import fi.helsinki.cs.tmc.snapshots.BenchmarkEvents;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import com.google.common.io.ByteStreams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Serializing and compressing a batch of snapshot events the way they are uploaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EventPostBodyBenchmark {
+
+    @Param({"500", "5000"})
+    public int events;
+
+    @Param({"" + Deflater.BEST_SPEED, "" + Deflater.DEFAULT_COMPRESSION})
+    public int compressionLevel;
+
+    private List<LoggableEvent> batch;
+
+    @Setup
+    public void setUp() {
+        batch = BenchmarkEvents.textChanges(events);
+    }
+
+    @Benchmark
+    public long eventListToPostBody() throws IOException {
+        StreamingGzipEntity entity =
+                TmcServerCommunicationTaskFactory.eventListToPostBody(batch, compressionLevel);
+        entity.writeTo(ByteStreams.nullOutputStream());
+        return entity.getBytesWritten();
+    }
+}
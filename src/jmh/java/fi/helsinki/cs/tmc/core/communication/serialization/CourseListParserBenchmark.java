@@ -0,0 +1,46 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.utils.TestUtils;
+
+import com.google.gson.JsonParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the course list in {@code src/test/resources/json/courses.json}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CourseListParserBenchmark {
+
+    private final CourseListParser parser = new CourseListParser();
+    private String json;
+
+    @Setup
+    public void setUp() throws IOException {
+        // The fixture wraps the list in an object like the v7 API; the parser takes the list
+        json =
+                new JsonParser()
+                        .parse(TestUtils.readJsonFile(getClass(), "courses.json"))
+                        .getAsJsonObject()
+                        .get("courses")
+                        .toString();
+    }
+
+    @Benchmark
+    public List<Course> parseFromJson() {
+        return parser.parseFromJson(json);
+    }
+}
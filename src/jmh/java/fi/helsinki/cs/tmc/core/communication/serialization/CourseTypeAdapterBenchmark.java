@@ -0,0 +1,57 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.utils.TestUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the course list in {@code src/test/resources/json/courses.json} with the
+ * hand-written course and exercise adapters compared to Gson's reflective adapters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CourseTypeAdapterBenchmark {
+
+    private final Gson reflective =
+            new GsonBuilder()
+                    .registerTypeAdapter(Date.class, new CustomDateDeserializer())
+                    .create();
+    private final Gson adapters = GsonRegistry.serverResponses();
+    private String json;
+
+    @Setup
+    public void setUp() throws IOException {
+        json =
+                new JsonParser()
+                        .parse(TestUtils.readJsonFile(getClass(), "courses.json"))
+                        .getAsJsonObject()
+                        .get("courses")
+                        .toString();
+    }
+
+    @Benchmark
+    public Course[] reflective() {
+        return reflective.fromJson(json, Course[].class);
+    }
+
+    @Benchmark
+    public Course[] adapters() {
+        return adapters.fromJson(json, Course[].class);
+    }
+}
@@ -0,0 +1,42 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
+import fi.helsinki.cs.tmc.core.utils.TestUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing submission results in {@code src/test/resources/json}, from a plain success
+ * to ones with checkstyle and valgrind output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SubmissionResultParserBenchmark {
+
+    @Param({"successfulSubmission.json", "checkstyleFailed.json", "valgrindFailed.json"})
+    public String fixture;
+
+    private final SubmissionResultParser parser = new SubmissionResultParser();
+    private String json;
+
+    @Setup
+    public void setUp() throws IOException {
+        json = TestUtils.readJsonFile(getClass(), fixture);
+    }
+
+    @Benchmark
+    public SubmissionResult parseFromJson() {
+        return parser.parseFromJson(json);
+    }
+}
@@ -0,0 +1,41 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot events shaped like the ones the IDE plugins record while a student types.
+ */
+public final class BenchmarkEvents {
+
+    private static final String[] FILES = {
+        "src/Main.java", "src/Calculator.java", "test/CalculatorTest.java", "src/Utils.java"
+    };
+
+    private BenchmarkEvents() {}
+
+    /**
+     * Returns {@code count} text change events spread over a few exercises and files.
+     */
+    public static List<LoggableEvent> textChanges(int count) {
+        List<LoggableEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(textChange(i));
+        }
+        return events;
+    }
+
+    public static LoggableEvent textChange(int i) {
+        String file = FILES[i % FILES.length];
+        String data =
+                "{\"file\":\"" + file + "\",\"patches\":\"@@ -" + (i % 200) + ",7 +"
+                        + (i % 200) + ",8 @@\\n     int sum = 0;\\n+    sum += values[" + i
+                        + "];\\n     return sum;\\n\",\"full_document\":false}";
+        return new LoggableEvent(
+                "benchmark-course",
+                "exercise-" + (i % 8),
+                "text_insert",
+                data.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,76 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import com.google.common.io.Resources;
+
+import name.fraser.neil.plaintext.DiffMatchPatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diffing a source file against itself after a typical edit, as {@link EventDiffer}
+ * does for every text change. The file is a test of the local test course, repeated
+ * to get larger files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiffBenchmark {
+
+    private static final String SOURCE =
+            "local-test-course/halfdoneExercise/test/MuuttujatTest.java";
+
+    @Param({"1", "20"})
+    public int copies;
+
+    @Param({"keystroke", "line", "block"})
+    public String edit;
+
+    private final DiffMatchPatch diffMatchPatch = new DiffMatchPatch();
+    private String before;
+    private String after;
+
+    @Setup
+    public void setUp() throws IOException {
+        String file = Resources.toString(Resources.getResource(SOURCE), StandardCharsets.UTF_8);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < copies; i++) {
+            text.append(file);
+        }
+        before = text.toString();
+
+        int middle = before.indexOf('\n', before.length() / 2) + 1;
+        switch (edit) {
+            case "keystroke":
+                after = before.substring(0, middle) + ";" + before.substring(middle);
+                break;
+            case "line":
+                after = before.substring(0, middle)
+                        + "        assertTrue(out.contains(\"Muuttujat\"));\n"
+                        + before.substring(middle);
+                break;
+            default:
+                int end = Math.min(before.length(), middle + 400);
+                after = before.substring(0, middle)
+                        + before.substring(middle, end).toUpperCase()
+                        + before.substring(end);
+                break;
+        }
+    }
+
+    @Benchmark
+    public LinkedList<DiffMatchPatch.Diff> diffMain() {
+        return diffMatchPatch.diff_main(before, after);
+    }
+}
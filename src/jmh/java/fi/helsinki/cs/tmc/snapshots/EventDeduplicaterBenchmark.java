@@ -0,0 +1,64 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deduplicating events of many keys, half of which repeat the previous data of their
+ * key, from several threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventDeduplicaterBenchmark {
+
+    private static final int EVENTS = 4096;
+
+    @Param({"16", "8192"})
+    public int keys;
+
+    private LoggableEvent[] events;
+    private EventDeduplicater deduplicater;
+
+    @Setup
+    public void setUp() {
+        events = new LoggableEvent[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            // Every other event of a key carries the same data as the one before it
+            String data = "{\"file\":\"src/Main.java\",\"selection\":" + (i / 2) + "}";
+            events[i] = new LoggableEvent(
+                    "benchmark-course",
+                    "exercise-" + (i % keys),
+                    "selection_change",
+                    data.getBytes(StandardCharsets.UTF_8));
+        }
+        deduplicater = new EventDeduplicater(new EventReceiver() {
+            @Override
+            public void receiveEvent(LoggableEvent event) {}
+
+            @Override
+            public void close() {}
+        });
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void receiveEvent(Cursor cursor) {
+        deduplicater.receiveEvent(events[cursor.next++ & (EVENTS - 1)]);
+    }
+}
@@ -0,0 +1,65 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utils.MockSettings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Events arriving from several threads at once, as when the IDE records edits in
+ * many files while a test run is logged. Sending and saving are pushed out of the
+ * measurement; only handing the event to the buffer is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventSendBufferBenchmark {
+
+    private static final long NEVER = TimeUnit.DAYS.toMillis(1);
+
+    private Path directory;
+    private EventSendBuffer buffer;
+    private List<LoggableEvent> events;
+
+    @Setup
+    public void setUp() throws IOException {
+        TmcSettingsHolder.set(new MockSettings());
+        directory = Files.createTempDirectory("tmc-benchmark-events");
+        buffer = new EventSendBuffer(new EventStore(directory));
+        buffer.setSendingInterval(NEVER);
+        buffer.setSavingInterval(NEVER);
+        buffer.setAutosendThreshold(Integer.MAX_VALUE);
+        events = BenchmarkEvents.textChanges(1024);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        buffer.close();
+        Benchmarks.deleteRecursively(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void receiveEvent(Cursor cursor) {
+        buffer.receiveEvent(events.get(cursor.next++ & 1023));
+    }
+}
@@ -0,0 +1,81 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading a full queue of 64k events, and the periodic save after one more
+ * event was queued.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EventStoreBenchmark {
+
+    private static final int EVENTS = 64 * 1024;
+
+    private Path directory;
+    private Path savedDirectory;
+    private LoggableEvent[] events;
+    private LoggableEvent[] eventsWithOneMore;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<LoggableEvent> list = BenchmarkEvents.textChanges(EVENTS + 1);
+        eventsWithOneMore = list.toArray(new LoggableEvent[EVENTS + 1]);
+        events = list.subList(0, EVENTS).toArray(new LoggableEvent[EVENTS]);
+
+        directory = Files.createTempDirectory("tmc-benchmark-store");
+        savedDirectory = Files.createTempDirectory("tmc-benchmark-saved-store");
+        new EventStore(savedDirectory).save(events);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Benchmarks.deleteRecursively(directory);
+        Benchmarks.deleteRecursively(savedDirectory);
+    }
+
+    @Benchmark
+    public EventStore saveAll() throws IOException {
+        // A new store rewrites everything on its first save
+        EventStore store = new EventStore(directory);
+        store.save(events);
+        return store;
+    }
+
+    @State(Scope.Thread)
+    public static class SavedStore {
+        EventStore store;
+
+        @Setup(Level.Invocation)
+        public void setUp(EventStoreBenchmark benchmark) throws IOException {
+            store = new EventStore(benchmark.directory);
+            store.save(benchmark.events);
+        }
+    }
+
+    @Benchmark
+    public EventStore saveOneMore(SavedStore saved) throws IOException {
+        saved.store.save(eventsWithOneMore);
+        return saved.store;
+    }
+
+    @Benchmark
+    public LoggableEvent[] load() throws IOException {
+        return new EventStore(savedDirectory).load();
+    }
+}
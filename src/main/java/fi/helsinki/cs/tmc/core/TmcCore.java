@@ -19,7 +19,9 @@ import fi.helsinki.cs.tmc.core.commands.SendFeedback;
 import fi.helsinki.cs.tmc.core.commands.SendSnapshotEvents;
 import fi.helsinki.cs.tmc.core.commands.Submit;
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory.SubmissionResponse;
+import fi.helsinki.cs.tmc.core.communication.http.HttpClientPool;
 import fi.helsinki.cs.tmc.core.communication.oauth2.Oauth;
+import fi.helsinki.cs.tmc.core.communication.submission.SubmissionResultWaiter;
 import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
@@ -28,9 +30,17 @@ import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.domain.Review;
 import fi.helsinki.cs.tmc.core.domain.submission.FeedbackAnswer;
 import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
+import fi.helsinki.cs.tmc.core.holders.HttpClientPoolHolder;
+import fi.helsinki.cs.tmc.core.holders.MetricsHolder;
+import fi.helsinki.cs.tmc.core.holders.TmcExecutorsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcLangsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.metrics.InMemoryMetricsRegistry;
+import fi.helsinki.cs.tmc.core.metrics.MeasuredCallable;
+import fi.helsinki.cs.tmc.core.metrics.MetricsRegistry;
+import fi.helsinki.cs.tmc.core.utilities.CommandFuture;
 import fi.helsinki.cs.tmc.core.utilities.ExceptionTrackingCallable;
+import fi.helsinki.cs.tmc.core.utilities.TmcExecutors;
 import fi.helsinki.cs.tmc.core.utilities.TmcServerAddressNormalizer;
 import fi.helsinki.cs.tmc.langs.abstraction.ValidationResult;
 import fi.helsinki.cs.tmc.langs.domain.RunResult;
@@ -38,6 +48,9 @@ import fi.helsinki.cs.tmc.langs.util.TaskExecutor;
 import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
 
 import com.google.common.annotations.Beta;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.http.pool.PoolStats;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +58,10 @@ import org.slf4j.LoggerFactory;
 import java.net.URI;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class TmcCore {
@@ -53,6 +70,8 @@ public class TmcCore {
 
     private static TmcCore instance;
 
+    private final ExecutorService executor;
+
     // Singleton
     @Beta
     public static TmcCore get() {
@@ -73,113 +92,214 @@ public class TmcCore {
 
     // TODO: remember to remind to instantiate Settings and Langs holders...
     @Beta
-    public TmcCore() {}
+    public TmcCore() {
+        this.executor = newDefaultExecutor();
+    }
 
     public TmcCore(TmcSettings settings, TaskExecutor tmcLangs) {
+        this(settings, tmcLangs, newDefaultExecutor());
+    }
+
+    /**
+     * Creates a core that runs the commands given to {@link #executeAsync} on
+     * {@code executor}.
+     */
+    public TmcCore(TmcSettings settings, TaskExecutor tmcLangs, ExecutorService executor) {
+        this.executor = executor;
         TmcSettingsHolder.set(settings);
         TmcLangsHolder.set(tmcLangs);
+        HttpClientPoolHolder.set(new HttpClientPool(settings));
+        TmcExecutorsHolder.set(new TmcExecutors(settings));
         TmcServerAddressNormalizer normalizer = new TmcServerAddressNormalizer();
         normalizer.normalize();
         normalizer.selectOrganizationAndCourse();
     }
 
+    private static ExecutorService newDefaultExecutor() {
+        return Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("tmc-core-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    /**
+     * Runs a command created by this core asynchronously on the core's executor.
+     *
+     * <p>Cancelling the returned future stops the command: its thread is interrupted and
+     * HTTP requests it has in flight are aborted. Commands can be chained with the
+     * usual {@link CompletableFuture} methods, for example
+     * {@code executeAsync(downloadOrUpdateExercises(...)).thenCompose(exercises ->
+     * executeAsync(runTests(...)))}.
+     */
+    public <T> CompletableFuture<T> executeAsync(Callable<T> command) {
+        CommandFuture<T> future = new CommandFuture<>(command);
+        executor.execute(future);
+        return future;
+    }
+
+    /**
+     * Returns the number of leased, idle and pending connections in the shared HTTP pool.
+     */
+    public PoolStats getHttpPoolStats() {
+        return HttpClientPoolHolder.get().getTotalStats();
+    }
+
+    /**
+     * Returns the registry that commands, HTTP requests, exercise zips and snapshot
+     * batches record their metrics in, so that the metrics can be read back.
+     *
+     * @throws IllegalStateException if a registry that keeps no metrics in memory was
+     *     installed with {@link MetricsHolder#set}; read the metrics from that one
+     */
+    public InMemoryMetricsRegistry getMetrics() {
+        MetricsRegistry registry = MetricsHolder.get();
+        if (!(registry instanceof InMemoryMetricsRegistry)) {
+            throw new IllegalStateException(
+                    "Metrics are recorded in " + registry + ", they cannot be read back here");
+        }
+        return (InMemoryMetricsRegistry) registry;
+    }
+
+    /**
+     * Returns the pool sizes, active tasks and queue depths of the background pools.
+     */
+    public List<TmcExecutors.Stats> getExecutorStats() {
+        return TmcExecutorsHolder.get().getStats();
+    }
+
+    /**
+     * Stops the command executor and the background pools, waiting up to
+     * {@code timeoutMillis} in total for running tasks to finish. Tasks still running
+     * after that are interrupted.
+     *
+     * @return whether all tasks finished in time
+     */
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        executor.shutdown();
+        boolean terminated = executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (!terminated) {
+            executor.shutdownNow();
+        }
+        long remaining = Math.max(0, deadline - System.currentTimeMillis());
+        return TmcExecutorsHolder.get().shutdown(remaining) && terminated;
+    }
+
+    /**
+     * Wraps a command so that its crashes are reported and its calls are measured.
+     */
+    private static <T> Callable<T> tracked(Callable<T> command) {
+        return new ExceptionTrackingCallable<>(new MeasuredCallable<>(command));
+    }
+
     public Callable<List<Organization>> getOrganizations(ProgressObserver observer) {
         logger.info("Creating new GetOrganizations command");
-        return new GetOrganizations(observer);
+        return new MeasuredCallable<>(new GetOrganizations(observer));
     }
 
     public Callable<Void> authenticate(ProgressObserver observer, String password) {
         logger.info("Creating new AuthenticateUser command");
-        return new AuthenticateUser(observer, password, Oauth.getInstance());
+        return new MeasuredCallable<>(
+                new AuthenticateUser(observer, password, Oauth.getInstance()));
     }
 
     public Callable<Void> sendDiagnostics(
             ProgressObserver observer) {
         logger.info("Creating new SendDiagnostics command");
-        return new SendDiagnostics(observer);
+        return new MeasuredCallable<>(new SendDiagnostics(observer));
     }
 
     public Callable<List<Exercise>> downloadOrUpdateExercises(
             ProgressObserver observer, List<Exercise> exercises) {
         logger.info("Creating new DownloadOrUpdateExercises command");
-        return new ExceptionTrackingCallable<>(new DownloadOrUpdateExercises(observer, exercises));
+        return tracked(new DownloadOrUpdateExercises(observer, exercises));
     }
 
     // TODO: returns new course.
     public Callable<Course> getCourseDetails(ProgressObserver observer, Course course) {
         logger.info("Creating new GetCourseDetails command");
-        return new ExceptionTrackingCallable<>(new GetCourseDetails(observer, course));
+        return tracked(new GetCourseDetails(observer, course));
     }
 
     public Callable<List<Course>> listCourses(ProgressObserver observer) {
         logger.info("Creating new ListCourses command");
-        return new ExceptionTrackingCallable<>(new ListCourses(observer));
+        return tracked(new ListCourses(observer));
     }
 
     public Callable<URI> pasteWithComment(
             ProgressObserver observer, Exercise exercise, String message) {
         logger.info("Creating new PasteWithComment command");
-        return new ExceptionTrackingCallable<>(new PasteWithComment(observer, exercise, message));
+        return tracked(new PasteWithComment(observer, exercise, message));
     }
 
     public Callable<ValidationResult> runCheckStyle(ProgressObserver observer, Exercise exercise) {
         logger.info("Creating new RunCheckStyle command");
-        return new ExceptionTrackingCallable<>(new RunCheckStyle(observer, exercise));
+        return tracked(new RunCheckStyle(observer, exercise));
     }
 
     public Callable<RunResult> runTests(ProgressObserver observer, Exercise exercise) {
         logger.info("Creating new RunTests command");
-        return new ExceptionTrackingCallable<>(new RunTests(observer, exercise));
+        return tracked(new RunTests(observer, exercise));
     }
 
     public Callable<Boolean> sendFeedback(
             ProgressObserver observer, List<FeedbackAnswer> answers, URI feedbackUri) {
         logger.info("Creating new SendFeedback command");
-        return new ExceptionTrackingCallable<>(new SendFeedback(observer, answers, feedbackUri));
+        return tracked(new SendFeedback(observer, answers, feedbackUri));
     }
 
     public Callable<Void> sendSnapshotEvents(
             final ProgressObserver observer, final Course currentCourse, final List<LoggableEvent> events) {
         logger.info("Creating new SendSnapshotEvents command");
-        return new ExceptionTrackingCallable<>(new SendSnapshotEvents(observer, currentCourse, events));
+        return tracked(new SendSnapshotEvents(observer, currentCourse, events));
 
     }
 
     public Callable<SubmissionResult> submit(ProgressObserver observer, Exercise exercise) {
         logger.info("Creating new Submit command");
-        return new ExceptionTrackingCallable<>(new Submit(observer, exercise));
+        return tracked(new Submit(observer, exercise));
     }
 
     public Callable<SubmissionResult> submit(ProgressObserver observer, Exercise exercise, Consumer<SubmissionResponse> initialSubmissionResult) {
         logger.info("Creating new Submit command");
-        return new ExceptionTrackingCallable<>(new Submit(observer, exercise, initialSubmissionResult));
+        return tracked(new Submit(observer, exercise, initialSubmissionResult));
+    }
+
+    public Callable<SubmissionResult> submit(
+            ProgressObserver observer,
+            Exercise exercise,
+            Consumer<SubmissionResponse> initialSubmissionResult,
+            SubmissionResultWaiter resultWaiter) {
+        logger.info("Creating new Submit command");
+        return tracked(new Submit(observer, exercise, initialSubmissionResult, resultWaiter));
     }
 
     public Callable<GetUpdatableExercises.UpdateResult> getExerciseUpdates(
             ProgressObserver observer, Course course) {
         logger.info("Creating new GetUpdatableExercises command");
-        return new ExceptionTrackingCallable<>(new GetUpdatableExercises(observer, course));
+        return tracked(new GetUpdatableExercises(observer, course));
     }
 
     public Callable<Void> markReviewAsRead(ProgressObserver observer, Review review) {
         logger.info("Creating new MarkReviewAsRead command");
-        return new ExceptionTrackingCallable<>(new MarkReviewAsRead(observer, review));
+        return tracked(new MarkReviewAsRead(observer, review));
     }
 
     public Callable<List<Review>> getUnreadReviews(ProgressObserver observer, Course course) {
         logger.info("Creating new GetUnreadReviews command");
-        return new ExceptionTrackingCallable<>(new GetUnreadReviews(observer, course));
+        return tracked(new GetUnreadReviews(observer, course));
     }
 
     public Callable<SubmissionResponse> requestCodeReview(
             ProgressObserver observer, Exercise exercise, String messageForReviewer) {
         logger.info("Creating new RequestCodeReview command");
-        return new ExceptionTrackingCallable<>(new RequestCodeReview(observer, exercise, messageForReviewer));
+        return tracked(new RequestCodeReview(observer, exercise, messageForReviewer));
     }
 
     public Callable<Exercise> downloadModelSolution(ProgressObserver observer, Exercise exercise) {
         logger.info("Creating new DownloadModelSolution command");
-        return new ExceptionTrackingCallable<>(new DownloadModelSolution(observer, exercise));
+        return tracked(new DownloadModelSolution(observer, exercise));
     }
 
     /**
@@ -189,6 +309,6 @@ public class TmcCore {
      */
     public Callable<Void> downloadCompletedExercises(ProgressObserver observer) {
         logger.info("Creating new DownloadCompletedExercises command");
-        return new ExceptionTrackingCallable<>(new DownloadCompletedExercises(observer));
+        return tracked(new DownloadCompletedExercises(observer));
     }
 }
@@ -6,8 +6,10 @@ import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.exceptions.ConnectionFailedException;
 import fi.helsinki.cs.tmc.core.exceptions.NotLoggedInException;
 import fi.helsinki.cs.tmc.core.exceptions.TmcCoreException;
+import fi.helsinki.cs.tmc.core.holders.MetricsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcLangsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.metrics.Span;
 import fi.helsinki.cs.tmc.langs.domain.NoLanguagePluginFoundException;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -48,12 +50,21 @@ abstract class AbstractSubmissionCommand<T> extends Command<T> {
         checkInterrupt();
         logger.info("Submitting project from path {}", projectPath);
 
+        Span span = MetricsHolder.get().startSpan("exercise.compress");
         try {
             zippedProject = TmcLangsHolder.get().compressProject(projectPath);
+            if (zippedProject != null) {
+                MetricsHolder.get()
+                        .histogram("exercise.compress.bytes")
+                        .record(zippedProject.length);
+            }
         } catch (IOException | NoLanguagePluginFoundException ex) {
+            span.fail(ex);
             informObserver(1, "Failed to package submission.");
             logger.warn("Failed to compress project", ex);
             throw new TmcCoreException("Failed to compress project", ex);
+        } finally {
+            span.end();
         }
 
         extraParams.put("error_msg_locale", TmcSettingsHolder.get().getLocale().toString());
@@ -5,6 +5,7 @@ import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.exceptions.TmcInterruptionException;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utilities.CancellationScope;
 
 import com.google.common.base.Preconditions;
 import org.slf4j.Logger;
@@ -96,8 +97,13 @@ public abstract class Command<E> implements Callable<E> {
         informObserver(percent, message);
     }
 
+    /**
+     * Throws if the thread was interrupted or the {@link CancellationScope} the command
+     * runs in was cancelled.
+     */
     protected void checkInterrupt() throws TmcInterruptionException {
-        if (Thread.currentThread().isInterrupted()) {
+        CancellationScope scope = CancellationScope.current();
+        if (Thread.currentThread().isInterrupted() || (scope != null && scope.isCancelled())) {
             logger.info("Noticed interruption, throwing TmcInterruptionException");
             throw new TmcInterruptionException();
         }
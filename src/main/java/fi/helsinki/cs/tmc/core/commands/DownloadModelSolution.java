@@ -9,7 +9,7 @@ import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.Callable;
+import java.nio.file.Path;
 
 public class DownloadModelSolution extends ExerciseDownloadingCommand<Exercise> {
 
@@ -36,13 +36,7 @@ public class DownloadModelSolution extends ExerciseDownloadingCommand<Exercise>
 
         logger.info("Downloading model solution for exercise {}", exercise);
 
-        Callable<byte[]> downloadingExerciseSolutionZipTask
-                = tmcServerCommunicationTaskFactory
-                    .getDownloadingExerciseSolutionZipTask(exercise);
-        byte[] zip = downloadingExerciseSolutionZipTask.call();
-
-        checkInterrupt();
-
+        Path zip = downloadSolution(exercise);
         extractSolution(zip, exercise, progress);
         return exercise;
     }
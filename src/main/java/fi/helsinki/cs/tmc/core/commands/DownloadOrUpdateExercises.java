@@ -4,33 +4,48 @@ import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.domain.Progress;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
-import fi.helsinki.cs.tmc.core.exceptions.ExerciseDownloadFailedException;
-import fi.helsinki.cs.tmc.core.exceptions.ExtractingExericeFailedException;
 import fi.helsinki.cs.tmc.core.exceptions.TmcCoreException;
 import fi.helsinki.cs.tmc.core.exceptions.TmcInterruptionException;
-import fi.helsinki.cs.tmc.core.holders.TmcLangsHolder;
-import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.holders.TmcExecutorsHolder;
+import fi.helsinki.cs.tmc.core.utilities.CancellationScope;
 
 import com.google.common.annotations.VisibleForTesting;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A {@link Command} for downloading exercises.
+ *
+ * <p>Exercises are downloaded concurrently by a few download workers on the shared
+ * network pool, which hand the zips over to the calling thread for extraction. The
+ * workers run in a {@link CancellationScope} of their own that is cancelled along with
+ * the command's, so cancelling the command aborts their downloads too.
  */
 public class DownloadOrUpdateExercises extends ExerciseDownloadingCommand<List<Exercise>> {
 
     private static final Logger logger
             = LoggerFactory.getLogger(DownloadOrUpdateExercises.class);
 
+    private static final long DOWNLOAD_POLL_INTERVAL_MILLIS = 100;
+
     private List<Exercise> exercises;
 
     public DownloadOrUpdateExercises(ProgressObserver observer, List<Exercise> exercises) {
@@ -49,9 +64,6 @@ public class DownloadOrUpdateExercises extends ExerciseDownloadingCommand<List<E
 
     @Override
     public List<Exercise> call() throws TmcInterruptionException {
-        List<Exercise> successfullyDownloaded = new ArrayList<>();
-
-
         logger.info("Downloading/updating {} exercises", exercises.size());
 
         /*
@@ -61,41 +73,252 @@ public class DownloadOrUpdateExercises extends ExerciseDownloadingCommand<List<E
          * 3) done
          */
         Progress progress = new Progress(exercises.size() * 3.0);
-        for (Exercise exercise : exercises) {
 
-            //TODO: Multi-thread?
+        int downloadThreads =
+                Math.max(1, Math.min(settings.getExerciseDownloadThreads(), exercises.size()));
+        // Bounded so that downloads can't get arbitrarily far ahead of extraction
+        BlockingQueue<DownloadedExercise> downloaded = new ArrayBlockingQueue<>(downloadThreads);
+        Queue<Exercise> pending = new ConcurrentLinkedQueue<>(exercises);
+        CountDownLatch workersDone = new CountDownLatch(downloadThreads);
 
+        Set<Exercise> successfullyDownloaded =
+                Collections.newSetFromMap(new IdentityHashMap<Exercise, Boolean>());
+        List<DownloadWorker> workers = new ArrayList<>(downloadThreads);
+
+        // Scopes are per thread, so the workers need one linked to the command's scope
+        final CancellationScope downloads = new CancellationScope();
+        CancellationScope commandScope = CancellationScope.current();
+        Runnable cancelDownloads = new Runnable() {
+            @Override
+            public void run() {
+                downloads.cancel();
+            }
+        };
+        if (commandScope != null) {
+            commandScope.onCancel(cancelDownloads);
+        }
+        try {
+            ExecutorService pool = TmcExecutorsHolder.get().getNetworkIo();
+            for (int i = 0; i < downloadThreads; i++) {
+                DownloadWorker worker =
+                        new DownloadWorker(downloads, pending, progress, downloaded, workersDone);
+                workers.add(worker);
+                worker.future = pool.submit(worker);
+            }
+
+            for (int i = 0; i < exercises.size(); i++) {
+                checkInterrupt();
+
+                DownloadedExercise result = takeNextDownload(downloaded, workersDone);
+
+                Exercise exercise = result.exercise;
+                if (result.failure != null) {
+                    informObserver(progress.incrementAndGet(),
+                                   "Failed to download exercise " + exercise.getName());
+                    continue;
+                }
+
+                try {
+                    extractProject(result.zip, exercise, progress);
+                } catch (TmcInterruptionException e) {
+                    throw e;
+                } catch (TmcCoreException e) {
+                    logger.warn("Extracting project failed", e);
+                    informObserver(progress.incrementAndGet(),
+                                   "Failed to extract exercise " + exercise.getName());
+                    continue;
+                }
+
+                successfullyDownloaded.add(exercise);
+                informObserver(progress.incrementAndGet(),
+                               "Downloaded exercise " + exercise.getName());
+
+                //TODO: Update PluginState
+            }
+        } finally {
+            for (int i = workers.size(); i < downloadThreads; i++) {
+                workersDone.countDown();
+            }
+            for (DownloadWorker worker : workers) {
+                worker.stop();
+            }
+            // Interrupting doesn't abort a download that is blocked on the network
+            downloads.cancel();
+            awaitUninterruptibly(workersDone);
+            if (commandScope != null) {
+                commandScope.removeOnCancel(cancelDownloads);
+            }
+
+            // Zips that were downloaded but never extracted. No worker adds more now.
+            List<DownloadedExercise> leftovers = new ArrayList<>();
+            downloaded.drainTo(leftovers);
+            for (DownloadedExercise leftover : leftovers) {
+                discard(leftover);
+            }
+        }
+
+        logger.info("Successfully downloaded and extracted {} exercises",
+                successfullyDownloaded.size());
+
+        // Report in the order the exercises were requested, not in the order they finished
+        List<Exercise> result = new ArrayList<>();
+        for (Exercise exercise : exercises) {
+            if (successfullyDownloaded.contains(exercise)) {
+                result.add(exercise);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Waits for the next downloaded exercise. Throws if the command is cancelled, or if
+     * the workers stopped without downloading every exercise, which they only do when
+     * their scope is cancelled.
+     */
+    private DownloadedExercise takeNextDownload(
+            BlockingQueue<DownloadedExercise> downloaded, CountDownLatch workersDone)
+            throws TmcInterruptionException {
+        while (true) {
             checkInterrupt();
+            boolean workersStopped = workersDone.getCount() == 0;
+            DownloadedExercise result;
+            try {
+                result = downloaded.poll(DOWNLOAD_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                logger.info("Interrupted while waiting for downloads");
+                throw new TmcInterruptionException();
+            }
+            if (result != null) {
+                return result;
+            }
+            if (workersStopped) {
+                logger.info("Download workers stopped before every exercise was downloaded");
+                throw new TmcInterruptionException();
+            }
+        }
+    }
 
-            byte[] zip;
+    /**
+     * Waits for {@code latch} even if interrupted, keeping the interrupt for the caller.
+     */
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
             try {
-                zip = downloadExercise(exercise, progress);
-            } catch (Exception ex) {
-                logger.warn("Failed to download project from TMC-server", ex);
-                continue;
+                latch.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
             }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            checkInterrupt();
+    /**
+     * Downloads exercises from {@code pending} until there are none left, so that no more
+     * than the configured number of downloads share the network pool.
+     */
+    private class DownloadWorker implements Runnable {
+        private final CancellationScope scope;
+        private final Queue<Exercise> pending;
+        private final Progress progress;
+        private final BlockingQueue<DownloadedExercise> downloaded;
+        private final CountDownLatch workersDone;
+        // Set by whichever comes first: the worker starting or being stopped before that
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile Future<?> future;
+
+        private DownloadWorker(
+                CancellationScope scope,
+                Queue<Exercise> pending,
+                Progress progress,
+                BlockingQueue<DownloadedExercise> downloaded,
+                CountDownLatch workersDone) {
+            this.scope = scope;
+            this.pending = pending;
+            this.progress = progress;
+            this.downloaded = downloaded;
+            this.workersDone = workersDone;
+        }
 
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
             try {
-                extractProject(zip, exercise, progress);
-            } catch (TmcCoreException e) {
-                logger.warn("Extracting project failed", e);
-                continue;
+                scope.call(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        downloadPending();
+                        return null;
+                    }
+                });
+            } catch (Exception ex) {
+                logger.warn("Download worker failed", ex);
+            } finally {
+                workersDone.countDown();
             }
+        }
 
-            successfullyDownloaded.add(exercise);
-            informObserver(progress.incrementAndGet(),
-                           "Downloaded exercise " + exercise.getName());
+        private void downloadPending() {
+            Exercise exercise;
+            while (!Thread.currentThread().isInterrupted()
+                    && !scope.isCancelled()
+                    && (exercise = pending.poll()) != null) {
+                DownloadedExercise result;
+                try {
+                    result = new DownloadedExercise(
+                            exercise, downloadExercise(exercise, progress), null);
+                } catch (Exception ex) {
+                    logger.warn("Failed to download project from TMC-server", ex);
+                    result = new DownloadedExercise(exercise, null, ex);
+                }
 
-            //TODO: Update PluginState
+                try {
+                    downloaded.put(result);
+                } catch (InterruptedException ex) {
+                    logger.debug("Download of {} cancelled", exercise.getName());
+                    discard(result);
+                    return;
+                }
+            }
+        }
 
-            //TODO: Make into future / callable / something?
+        /**
+         * Stops the worker. A worker that has not started never will; a running one is
+         * interrupted and counts itself done once it has handed over or discarded its zip.
+         */
+        private void stop() {
+            Future<?> future = this.future;
+            if (claimed.compareAndSet(false, true)) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                workersDone.countDown();
+            } else if (future != null) {
+                future.cancel(true);
+            }
         }
+    }
 
-        logger.info("Successfully downloaded and extracted {} exercises",
-                successfullyDownloaded.size());
-        return successfullyDownloaded;
+    private void discard(DownloadedExercise downloadedExercise) {
+        if (downloadedExercise.zip != null) {
+            cleanUp(downloadedExercise.zip);
+        }
     }
 
+    private static class DownloadedExercise {
+        private final Exercise exercise;
+        private final Path zip;
+        private final Exception failure;
+
+        private DownloadedExercise(Exercise exercise, Path zip, Exception failure) {
+            this.exercise = exercise;
+            this.zip = zip;
+            this.failure = failure;
+        }
+    }
 }
@@ -1,24 +1,31 @@
 package fi.helsinki.cs.tmc.core.commands;
 
 
-import fi.helsinki.cs.tmc.core.TmcCore;
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.communication.http.DownloadProgressListener;
 import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.domain.Progress;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
-import fi.helsinki.cs.tmc.core.exceptions.ExerciseDownloadFailedException;
 import fi.helsinki.cs.tmc.core.exceptions.ExtractingExericeFailedException;
 import fi.helsinki.cs.tmc.core.exceptions.TmcCoreException;
 import fi.helsinki.cs.tmc.core.exceptions.TmcInterruptionException;
+import fi.helsinki.cs.tmc.core.holders.MetricsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcLangsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.metrics.Span;
+import fi.helsinki.cs.tmc.core.persistance.ExerciseManifest;
+import fi.helsinki.cs.tmc.core.persistance.ExerciseUpdate;
+import fi.helsinki.cs.tmc.core.persistance.ExerciseZipCache;
+
+import com.google.common.hash.Hashing;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 
 abstract class ExerciseDownloadingCommand<T> extends Command<T> {
@@ -26,6 +33,14 @@ abstract class ExerciseDownloadingCommand<T> extends Command<T> {
     private static final Logger logger
             = LoggerFactory.getLogger(ExerciseDownloadingCommand.class);
 
+    private static final long PROGRESS_REPORT_INTERVAL_BYTES = 1024 * 1024;
+
+    private static final String ZIP_CACHE_DIRECTORY = "exercise-zip-cache";
+    private static final String MANIFEST_DIRECTORY = "exercise-manifests";
+
+    private ExerciseZipCache zipCache;
+    private Path manifestDirectory;
+
     public ExerciseDownloadingCommand(ProgressObserver observer) {
         super(observer);
     }
@@ -47,83 +62,226 @@ abstract class ExerciseDownloadingCommand<T> extends Command<T> {
         super(settings, observer, tmcServerCommunicationTaskFactory);
     }
 
-    protected byte[] downloadExercise(Exercise exercise, Progress progress) throws Exception {
+    /**
+     * Downloads the exercise zip into a temporary file. The caller is responsible for the
+     * file, which is deleted by {@link #extractProject}.
+     *
+     * <p>A zip with the same checksum that was downloaded earlier is taken from the
+     * local cache instead of the server.
+     */
+    protected Path downloadExercise(Exercise exercise, Progress progress) throws Exception {
         informObserver(progress.incrementAndGet(), "Downloading exercise " + exercise.getName());
-        logger.info("Downloading exercise {}", exercise.getName());
 
-        return tmcServerCommunicationTaskFactory
-                .getDownloadingExerciseZipTask(exercise)
-                .call();
+        Path zip = createTempZip();
+        try {
+            String cacheKey = exercise.getChecksum();
+            if (getZipCache().copyTo(cacheKey, zip)) {
+                logger.info("Using cached zip of exercise {}", exercise.getName());
+                return zip;
+            }
+
+            logger.info("Downloading exercise {}", exercise.getName());
+            tmcServerCommunicationTaskFactory
+                    .getDownloadingExerciseZipTask(exercise, zip, progressListenerFor(exercise))
+                    .call();
+            getZipCache().put(cacheKey, zip);
+            return zip;
+        } catch (Exception ex) {
+            cleanUp(zip);
+            throw ex;
+        }
+    }
+
+    /**
+     * Downloads the model solution zip into a temporary file. The caller is responsible for
+     * the file, which is deleted by {@link #extractSolution}.
+     */
+    protected Path downloadSolution(Exercise exercise) throws Exception {
+        Path zip = createTempZip();
+        try {
+            String cacheKey = solutionCacheKey(exercise);
+            if (getZipCache().copyTo(cacheKey, zip)) {
+                logger.info("Using cached solution of exercise {}", exercise.getName());
+                return zip;
+            }
+
+            tmcServerCommunicationTaskFactory
+                    .getDownloadingExerciseSolutionZipTask(exercise, zip, progressListenerFor(exercise))
+                    .call();
+            getZipCache().put(cacheKey, zip);
+            return zip;
+        } catch (Exception ex) {
+            cleanUp(zip);
+            throw ex;
+        }
     }
 
-    protected void extractSolution(byte[] zip, Exercise exercise, Progress progress)
+    protected void extractSolution(Path zip, Exercise exercise, Progress progress)
             throws TmcInterruptionException, TmcCoreException {
         logger.info("Extracting solution of exercise {}", exercise.getName());
-        Path exerciseZipTemporaryPath = writeToTmp(zip, exercise, progress);
         Path target = exercise.getExtractionTarget(
                 TmcSettingsHolder.get().getTmcProjectDirectory());
 
         logger.debug("Target path for {} is {}", exercise.getName(), target);
 
+        Span span = startExtractSpan(zip, "solution");
         try {
-            TmcLangsHolder.get().extractAndRewriteEveryhing(exerciseZipTemporaryPath, target);
+            startExtracting(exercise, progress);
+            TmcLangsHolder.get().extractAndRewriteEveryhing(zip, target);
             logger.debug("Successfully extracted");
+        } catch (TmcInterruptionException ex) {
+            span.fail(ex);
+            throw ex;
         } catch (Exception ex) {
+            span.fail(ex);
+            // Don't serve a possibly broken zip again
+            getZipCache().remove(solutionCacheKey(exercise));
             logger.warn(
                     "Failed to extract project from "
-                        + exerciseZipTemporaryPath
+                        + zip
                         + " to "
                         + target,
                     ex);
             throw new ExtractingExericeFailedException(exercise, ex);
         } finally {
-            cleanUp(exerciseZipTemporaryPath);
+            span.end();
+            cleanUp(zip);
         }
     }
 
-    private Path writeToTmp(byte[] zip, Exercise exercise, Progress progress)
-            throws ExerciseDownloadFailedException, TmcInterruptionException {
-        logger.debug("Writing zip to temporary location");
-        Path exerciseZipTemporaryPath;
-        try {
-            exerciseZipTemporaryPath = writeToTemp(zip);
-        } catch (IOException ex) {
-            logger.warn("Failed to write downloaded zip to disk", ex);
-            throw new ExerciseDownloadFailedException(exercise, ex);
-        }
-
-        checkInterrupt();
-
-        logger.debug("Zip file successfully written");
-        informObserver(progress.incrementAndGet(), "Extracting exercise " + exercise.getName());
-
-        return exerciseZipTemporaryPath;
-    }
-
-    protected void extractProject(byte[] zip, Exercise exercise, Progress progress)
+    /**
+     * Extracts the exercise zip into the project directory.
+     *
+     * <p>A manifest of the zip is stored after extraction. When an already extracted
+     * exercise is updated to a new checksum, only the files the update changes are
+     * written, see {@link ExerciseUpdate}. Downloading the same checksum again extracts
+     * the whole zip, so that for example a reset restores every file.
+     */
+    protected void extractProject(Path zip, Exercise exercise, Progress progress)
             throws TmcInterruptionException, TmcCoreException {
         logger.info("Extracting project");
-        Path exerciseZipTemporaryPath = writeToTmp(zip, exercise, progress);
-        Path target = exercise
-                .getExtractionTarget(TmcSettingsHolder.get().getTmcProjectDirectory());
+        Path projectRoot = TmcSettingsHolder.get().getTmcProjectDirectory();
+        Path target = exercise.getExtractionTarget(projectRoot);
 
+        Span span = startExtractSpan(zip, "project");
         try {
-            TmcLangsHolder.get().extractProject(exerciseZipTemporaryPath, target);
+            startExtracting(exercise, progress);
+
+            Path manifestFile = manifestFileFor(exercise);
+            ExerciseManifest manifest = null;
+            if (manifestFile != null) {
+                manifest = ExerciseManifest.of(zip, exercise.getChecksum());
+                if (exercise.isDownloaded(projectRoot)
+                        && tryToUpdate(zip, exercise, manifest, manifestFile, target)) {
+                    span.tag("update", "delta");
+                    manifest.write(manifestFile);
+                    return;
+                }
+            }
+
+            TmcLangsHolder.get().extractProject(zip, target);
             logger.info("Successfully extracted project");
+
+            if (manifestFile != null) {
+                manifest.setRoot(manifest.findRoot(target));
+                manifest.write(manifestFile);
+            }
+        } catch (TmcInterruptionException ex) {
+            span.fail(ex);
+            throw ex;
         } catch (Exception ex) {
+            span.fail(ex);
+            // Don't serve a possibly broken zip again
+            getZipCache().remove(exercise.getChecksum());
             logger.warn(
                     "Failed to extract project from "
-                        + exerciseZipTemporaryPath
+                        + zip
                         + " to "
                         + target,
                     ex);
             throw new ExtractingExericeFailedException(exercise, ex);
         } finally {
-            cleanUp(exerciseZipTemporaryPath);
+            span.end();
+            cleanUp(zip);
+        }
+    }
+
+    /**
+     * Updates the extracted exercise to {@code manifest} by writing only the changed
+     * files, if the exercise was extracted from an earlier version of it.
+     *
+     * @return whether the exercise was updated, false if it needs a full extraction
+     */
+    private boolean tryToUpdate(
+            Path zip,
+            Exercise exercise,
+            ExerciseManifest manifest,
+            Path manifestFile,
+            Path target) {
+        ExerciseManifest previous;
+        try {
+            previous = ExerciseManifest.read(manifestFile);
+        } catch (IOException ex) {
+            logger.warn("Failed to read manifest of exercise " + exercise.getName(), ex);
+            return false;
+        }
+        if (!ExerciseUpdate.isApplicable(previous, manifest)
+                || manifest.getChecksum().equals(previous.getChecksum())) {
+            return false;
+        }
+
+        try {
+            new ExerciseUpdate(zip, previous, manifest, target).apply();
+            logger.info("Updated exercise {} in place", exercise.getName());
+            return true;
+        } catch (IOException ex) {
+            logger.warn("Failed to update exercise " + exercise.getName()
+                    + " in place, extracting it fully", ex);
+            return false;
         }
     }
 
-    private void cleanUp(Path zip) {
+    /**
+     * Starts an {@code exercise.extract} span and records the size of the zip.
+     */
+    private Span startExtractSpan(Path zip, String kind) {
+        try {
+            MetricsHolder.get().histogram("exercise.extract.bytes", "kind", kind)
+                    .record(Files.size(zip));
+        } catch (IOException ex) {
+            logger.debug("Could not read the size of {}", zip, ex);
+        }
+        return MetricsHolder.get().startSpan("exercise.extract", "kind", kind);
+    }
+
+    private void startExtracting(Exercise exercise, Progress progress)
+            throws TmcInterruptionException {
+        checkInterrupt();
+        informObserver(progress.incrementAndGet(), "Extracting exercise " + exercise.getName());
+    }
+
+    private DownloadProgressListener progressListenerFor(final Exercise exercise) {
+        return new DownloadProgressListener() {
+            private long lastReported;
+
+            @Override
+            public void bytesReceived(long bytesReceived, long totalBytes) {
+                if (bytesReceived - lastReported < PROGRESS_REPORT_INTERVAL_BYTES) {
+                    return;
+                }
+                lastReported = bytesReceived;
+
+                String message = "Downloading exercise " + exercise.getName()
+                        + " (" + bytesReceived / 1024 + " kB";
+                if (totalBytes >= 0) {
+                    message += " of " + totalBytes / 1024 + " kB";
+                }
+                observer.progress(0, message + ")");
+            }
+        };
+    }
+
+    protected void cleanUp(Path zip) {
         try {
             Files.deleteIfExists(zip);
             logger.debug("Cleaned up temporary files");
@@ -132,9 +290,49 @@ abstract class ExerciseDownloadingCommand<T> extends Command<T> {
         }
     }
 
-    private Path writeToTemp(byte[] zip) throws IOException {
-        Path target = Files.createTempFile("tmc-exercise-", ".zip");
-        Files.write(target, zip);
-        return target;
+    protected ExerciseZipCache getZipCache() {
+        initLocalCache();
+        return zipCache;
+    }
+
+    /**
+     * Returns the file where the manifest of the extracted exercise is kept, or null if
+     * the local exercise cache is disabled.
+     */
+    private Path manifestFileFor(Exercise exercise) {
+        initLocalCache();
+        if (manifestDirectory == null) {
+            return null;
+        }
+        String key = Hashing.sha1()
+                .hashString(exercise.getCourseName() + "/" + exercise.getName(),
+                        StandardCharsets.UTF_8)
+                .toString();
+        return manifestDirectory.resolve(key + ".json");
+    }
+
+    private synchronized void initLocalCache() {
+        if (zipCache != null) {
+            return;
+        }
+        long maxBytes = settings.getExerciseZipCacheMaxBytes();
+        Path configRoot = maxBytes > 0 ? settings.getConfigRoot() : null;
+        if (configRoot == null) {
+            zipCache = new ExerciseZipCache(null, 0);
+        } else {
+            zipCache = new ExerciseZipCache(configRoot.resolve(ZIP_CACHE_DIRECTORY), maxBytes);
+            manifestDirectory = configRoot.resolve(MANIFEST_DIRECTORY);
+        }
+    }
+
+    private String solutionCacheKey(Exercise exercise) {
+        if (exercise.getChecksum() == null) {
+            return null;
+        }
+        return exercise.getChecksum() + "-solution";
+    }
+
+    private Path createTempZip() throws IOException {
+        return Files.createTempFile("tmc-exercise-", ".zip");
     }
 }
@@ -5,6 +5,7 @@ import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
 import fi.helsinki.cs.tmc.snapshots.NoSnapshotServerException;
+import fi.helsinki.cs.tmc.snapshots.SnapshotEndpointHealth;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,10 +41,29 @@ public class SendSnapshotEvents extends Command<Void> {
             throw new NoSnapshotServerException("Current course has no snapshots servers set");
         }
 
-        int serverId = new Random().nextInt(currentCourse.getSpywareUrls().size());
-        URI spywareServerUri = currentCourse.getSpywareUrls().get(serverId);
+        SnapshotEndpointHealth endpointHealth = SnapshotEndpointHealth.getDefault();
+        List<URI> spywareServerUris =
+                endpointHealth.order(currentCourse.getSpywareUrls(), new Random());
 
-        new TmcServerCommunicationTaskFactory().getSendEventLogJob(spywareServerUri, events).call();
+        // Fall back to the other servers in order if sending fails
+        for (int i = 0; ; i++) {
+            URI spywareServerUri = spywareServerUris.get(i);
+            long startTime = System.currentTimeMillis();
+            try {
+                new TmcServerCommunicationTaskFactory()
+                        .getSendEventLogJob(spywareServerUri, events)
+                        .call();
+                endpointHealth.recordSuccess(
+                        spywareServerUri, System.currentTimeMillis() - startTime);
+                break;
+            } catch (Exception ex) {
+                endpointHealth.recordFailure(spywareServerUri);
+                if (i == spywareServerUris.size() - 1) {
+                    throw ex;
+                }
+                logger.info("Failed to send events to " + spywareServerUri + ", trying next", ex);
+            }
+        }
 
         logger.debug("Usage data sent");
         informObserver(1, "Done sending usage data");
@@ -3,10 +3,13 @@ package fi.helsinki.cs.tmc.core.commands;
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory.SubmissionResponse;
 import fi.helsinki.cs.tmc.core.communication.serialization.SubmissionResultParser;
+import fi.helsinki.cs.tmc.core.communication.submission.BackoffSubmissionResultWaiter;
+import fi.helsinki.cs.tmc.core.communication.submission.SubmissionResultWaiter;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
 import fi.helsinki.cs.tmc.core.exceptions.TmcCoreException;
+import fi.helsinki.cs.tmc.core.exceptions.TmcInterruptionException;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -20,14 +23,17 @@ import java.util.function.Consumer;
 
 /**
  * A {@link Command} for submitting an exercise to the server.
+ *
+ * <p>After submitting, the result is fetched whenever the {@link SubmissionResultWaiter}
+ * says so until the server is done processing the submission.
  */
 public class Submit extends AbstractSubmissionCommand<SubmissionResult> {
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractSubmissionCommand.class);
-    private static final int DEFAULT_POLL_INTERVAL = 1000 * 2;
 
     private Exercise exercise;
     private Consumer<SubmissionResponse> initialSubmissionResult;
+    private SubmissionResultWaiter resultWaiter = new BackoffSubmissionResultWaiter();
 
     public Submit(ProgressObserver observer, Exercise exercise) {
         super(observer);
@@ -40,6 +46,15 @@ public class Submit extends AbstractSubmissionCommand<SubmissionResult> {
         this.initialSubmissionResult = initialSubmissionResult;
     }
 
+    public Submit(
+            ProgressObserver observer,
+            Exercise exercise,
+            Consumer<SubmissionResponse> initialSubmissionResult,
+            SubmissionResultWaiter resultWaiter) {
+        this(observer, exercise, initialSubmissionResult);
+        this.resultWaiter = resultWaiter;
+    }
+
     @VisibleForTesting
     Submit(
             ProgressObserver observer,
@@ -60,27 +75,18 @@ public class Submit extends AbstractSubmissionCommand<SubmissionResult> {
 
         SubmissionResponse submissionResponse =
                 submitToServer(exercise, new HashMap<String, String>());
+        long submittedAt = System.currentTimeMillis();
 
-        int pollInterval = DEFAULT_POLL_INTERVAL;
-        int runtime = 0;
-
-        try {
-            Thread.sleep(pollInterval);
-        } catch (InterruptedException ex) {
-            logger.debug("Interrupted while sleeping", ex);
-        }
-
+        SubmissionResultParser resultParser = new SubmissionResultParser();
+        SubmissionResult latest = null;
         boolean initialSubmissionResultSent = false;
         while (true) {
             checkInterrupt();
-            if (runtime > 10000) {
-                pollInterval = 1000 * 5;
-            }
-            if (runtime > 30000) {
-                pollInterval = 1000 * 10;
-            }
-            if (runtime > 300000) {
-                pollInterval = 1000 * 60;
+            try {
+                resultWaiter.awaitNextCheck(latest, System.currentTimeMillis() - submittedAt);
+            } catch (InterruptedException ex) {
+                logger.info("Interrupted while waiting for submission result");
+                throw new TmcInterruptionException();
             }
             try {
                 logger.debug("Checking if server is done processing submission");
@@ -89,19 +95,21 @@ public class Submit extends AbstractSubmissionCommand<SubmissionResult> {
                                 submissionResponse.submissionUrl);
 
                 String submissionStatus = submissionResultFetcher.call();
-                SubmissionResult submission = new SubmissionResultParser().parseFromJson(submissionStatus);
+                // Most polls only need the status, so the full result is parsed once done
+                SubmissionResult submission = resultParser.parseStatus(submissionStatus);
 
                 if (initialSubmissionResult != null && !initialSubmissionResultSent) {
                     initialSubmissionResult.accept(submissionResponse);
                     initialSubmissionResultSent = true;
                 }
                 if (submission.getStatus() == SubmissionResult.Status.PROCESSING) {
-                    logger.debug("Server not done, sleeping for {}", pollInterval);
+                    logger.debug("Server not done, waiting");
+                    latest = submission;
 
                     SubmissionResult.SandboxStatus sandboxStatus = submission.getSandboxStatus();
 
                     double percentDone = 0.0;
-                    if (runtime > 120000) {
+                    if (System.currentTimeMillis() - submittedAt > 120000) {
                         informObserver(percentDone,
                                 "This seems to be taking a long time — "
                                         + "consider continuing to the next exercise while this is running. "
@@ -120,24 +128,20 @@ public class Submit extends AbstractSubmissionCommand<SubmissionResult> {
                         percentDone = 0.75;
                         informObserver(percentDone, "Testing submission.");
                     }
-
-                    Thread.sleep(pollInterval);
                 } else {
-                    logger.debug("Server done, parsing results");
+                    logger.debug("Server done");
+                    submission = resultParser.parseFromJson(submissionStatus);
                     informObserver(1, "Processing complete.");
-
-                    SubmissionResultParser resultParser = new SubmissionResultParser();
-                    SubmissionResult result = resultParser.parseFromJson(submissionStatus);
-
-                    logger.debug("Done parsing server response");
-
-                    return result;
+                    return submission;
                 }
+            } catch (InterruptedException ex) {
+                // Also thrown when cancelling the command's scope aborts the request
+                logger.info("Interrupted while checking submission status");
+                throw new TmcInterruptionException();
             } catch (Exception ex) {
                 informObserver(1, "Error while waiting for response from server");
                 logger.warn("Error while updating submission status from server, continuing", ex);
             }
-            runtime += pollInterval;
         }
     }
 }
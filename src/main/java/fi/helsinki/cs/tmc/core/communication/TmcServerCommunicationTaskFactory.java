@@ -1,11 +1,14 @@
 package fi.helsinki.cs.tmc.core.communication;
 
+import fi.helsinki.cs.tmc.core.communication.http.DownloadProgressListener;
+import fi.helsinki.cs.tmc.core.communication.http.HttpResponseCache;
 import fi.helsinki.cs.tmc.core.communication.http.HttpTasks;
+import fi.helsinki.cs.tmc.core.communication.http.StreamingGzipEntity;
 import fi.helsinki.cs.tmc.core.communication.http.UriUtils;
 import fi.helsinki.cs.tmc.core.communication.oauth2.Oauth;
-import fi.helsinki.cs.tmc.core.communication.serialization.ByteArrayGsonSerializer;
 import fi.helsinki.cs.tmc.core.communication.serialization.CourseInfoParser;
 import fi.helsinki.cs.tmc.core.communication.serialization.CourseListParser;
+import fi.helsinki.cs.tmc.core.communication.serialization.GsonRegistry;
 import fi.helsinki.cs.tmc.core.communication.serialization.ReviewListParser;
 import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
 import fi.helsinki.cs.tmc.core.domain.Course;
@@ -19,15 +22,17 @@ import fi.helsinki.cs.tmc.core.exceptions.ConnectionFailedException;
 import fi.helsinki.cs.tmc.core.exceptions.FailedHttpResponseException;
 import fi.helsinki.cs.tmc.core.exceptions.NotLoggedInException;
 import fi.helsinki.cs.tmc.core.exceptions.ObsoleteClientException;
+import fi.helsinki.cs.tmc.core.exceptions.PayloadTooLargeException;
 import fi.helsinki.cs.tmc.core.exceptions.TmcCoreException;
+import fi.helsinki.cs.tmc.core.holders.HttpResponseCacheHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
-import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
-import fi.helsinki.cs.tmc.core.utilities.JsonMakerGsonSerializer;
+import fi.helsinki.cs.tmc.core.utilities.CancellableCallable;
+import fi.helsinki.cs.tmc.core.utilities.CancellableTask;
 import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+import fi.helsinki.cs.tmc.snapshots.LoggableEventBinaryCodec;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
@@ -38,18 +43,21 @@ import org.apache.oltu.oauth2.common.exception.OAuthSystemException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A frontend for the server.
@@ -60,6 +68,15 @@ public class TmcServerCommunicationTaskFactory {
             TmcServerCommunicationTaskFactory.class.getName());
     public static final int API_VERSION = 8;
 
+    private static final String HTTP_CACHE_DIRECTORY = "http-cache";
+
+    private static final String JSON_EVENT_LOG_VERSION = "1";
+    private static final String BINARY_EVENT_LOG_VERSION = "2";
+
+    // Snapshot servers that rejected binary events
+    private static final Set<URI> jsonOnlySnapshotServers =
+            Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
+
     private TmcSettings settings;
     private Oauth oauth;
     private CourseListParser courseListParser;
@@ -98,18 +115,35 @@ public class TmcServerCommunicationTaskFactory {
         this.settings = settings;
     }
 
+    /**
+     * Downloads a metadata listing, revalidating a previously cached copy if the
+     * response cache is enabled and there is a config root to keep it in.
+     */
+    private Callable<String> getForCachedText(URI url) {
+        Path configRoot = settings.getHttpResponseCacheEnabled() ? settings.getConfigRoot() : null;
+        if (configRoot == null) {
+            return HttpTasks.getForText(url);
+        }
+        HttpResponseCache cache =
+                HttpResponseCacheHolder.get(configRoot.resolve(HTTP_CACHE_DIRECTORY));
+        return HttpTasks.getForText(url, cache);
+    }
+
     /**
      * Returns a Callable that calls the given Callable.
      *
      * <p>
      * If the call fails once, the oauth token is refreshed and the call is done again.</p>
      *
+     * <p>The returned task is cancellable: cancelling it aborts the HTTP requests the
+     * given Callable makes.</p>
+     *
      * @param <T> return type of the callable
      * @param callable Callable to be wrapped
      * @return The given Callable wrapped in another Callable
      */
-    private <T> Callable<T> wrapWithNotLoggedInException(final Callable<T> callable) {
-        return new Callable<T>() {
+    private <T> CancellableCallable<T> wrapWithNotLoggedInException(final Callable<T> callable) {
+        return new CancellableTask<>(new Callable<T>() {
             @Override
             public T call() throws Exception {
                 try {
@@ -124,7 +158,7 @@ public class TmcServerCommunicationTaskFactory {
                     throw e;
                 }
             }
-        };
+        });
     }
 
     private URI getCourseListUrl()
@@ -156,13 +190,12 @@ public class TmcServerCommunicationTaskFactory {
             @Override
             public List<Course> call() throws Exception {
                 try {
-                    Callable<String> download = HttpTasks.getForText(getCourseListUrl());
+                    Callable<String> download = getForCachedText(getCourseListUrl());
                     String text = download.call();
                     return courseListParser.parseFromJson(text);
                 } catch (FailedHttpResponseException ex) {
                     return checkForObsoleteClient(ex);
                 }
-                //TODO: Cancellable?
             }
         });
     }
@@ -172,7 +205,7 @@ public class TmcServerCommunicationTaskFactory {
             @Override
             public Optional<Course> call() throws Exception {
                 try {
-                    Callable<String> download = HttpTasks.getForText(getCourseListUrl());
+                    Callable<String> download = getForCachedText(getCourseListUrl());
                     String text = download.call();
                     List<Course> courses = courseListParser.parseFromJson(text);
                     for (Course course : courses) {
@@ -200,7 +233,7 @@ public class TmcServerCommunicationTaskFactory {
         url = url + "/courses/" + id;
         URI courseUrl = this.addApiCallQueryParameters(URI.create(url));
         String response = HttpTasks.getForText(courseUrl).call();
-        Course course = new Gson().fromJson(response, new TypeToken<Course>(){}.getType());
+        Course course = GsonRegistry.serverResponses().fromJson(response, Course.class);
         return Optional.fromNullable(course);
     }
 
@@ -210,15 +243,13 @@ public class TmcServerCommunicationTaskFactory {
             public Course call() throws Exception {
                 try {
                     URI url = addApiCallQueryParameters(courseStub.getDetailsUrl());
-                    final Callable<String> download = HttpTasks.getForText(url);
+                    final Callable<String> download = getForCachedText(url);
                     String text = download.call();
                     return courseInfoParser.parseFromJson(text);
                 } catch (FailedHttpResponseException ex) {
                     return checkForObsoleteClient(ex);
                 }
             }
-
-            //TODO: Cancellable?
         });
     }
 
@@ -236,8 +267,6 @@ public class TmcServerCommunicationTaskFactory {
                     return checkForObsoleteClient(ex);
                 }
             }
-
-            //TODO: Cancellable?
         });
     }
 
@@ -250,11 +279,31 @@ public class TmcServerCommunicationTaskFactory {
         return HttpTasks.getForBinary(addApiCallQueryParameters(zipUrl));
     }
 
+    /**
+     * Returns a task that streams the exercise zip straight into {@code target}.
+     */
+    public Callable<Path> getDownloadingExerciseZipTask(
+            Exercise exercise, Path target, DownloadProgressListener listener)
+            throws NotLoggedInException {
+        URI zipUrl = exercise.getDownloadUrl();
+        return HttpTasks.getForFile(addApiCallQueryParameters(zipUrl), target, listener);
+    }
+
     public Callable<byte[]> getDownloadingExerciseSolutionZipTask(Exercise exercise) throws NotLoggedInException {
         URI zipUrl = exercise.getSolutionDownloadUrl();
         return HttpTasks.getForBinary(addApiCallQueryParameters(zipUrl));
     }
 
+    /**
+     * Returns a task that streams the model solution zip straight into {@code target}.
+     */
+    public Callable<Path> getDownloadingExerciseSolutionZipTask(
+            Exercise exercise, Path target, DownloadProgressListener listener)
+            throws NotLoggedInException {
+        URI zipUrl = exercise.getSolutionDownloadUrl();
+        return HttpTasks.getForFile(addApiCallQueryParameters(zipUrl), target, listener);
+    }
+
     public Callable<SubmissionResponse> getSubmittingExerciseTask(
             final Exercise exercise, final byte[] sourceZip, Map<String, String> extraParams) {
 
@@ -295,8 +344,6 @@ public class TmcServerCommunicationTaskFactory {
                     throw new RuntimeException("Server returned unknown response");
                 }
             }
-
-            //TODO: Cancellable?
         });
     }
 
@@ -330,8 +377,6 @@ public class TmcServerCommunicationTaskFactory {
                     return checkForObsoleteClient(ex);
                 }
             }
-
-            //TODO: Cancellable?
         });
     }
 
@@ -352,8 +397,6 @@ public class TmcServerCommunicationTaskFactory {
                 task.call();
                 return null;
             }
-
-            //TODO: Cancellable?
         });
     }
 
@@ -379,40 +422,81 @@ public class TmcServerCommunicationTaskFactory {
                     return checkForObsoleteClient(ex);
                 }
             }
-
-            //TODO: Cancellable?
         });
     }
 
+    /**
+     * Sends events to a snapshot server.
+     *
+     * <p>Events are sent as JSON with {@code X-Tmc-Version: 1}. If
+     * {@link TmcSettings#getSnapshotBinaryUploadsEnabled()} is set, they are sent in the
+     * binary encoding as {@code X-Tmc-Version: 2} instead. A server that rejects that
+     * version gets the events resent as JSON and is remembered to only accept JSON.
+     *
+     * <p>The body is serialized and gzipped while it is sent, at the compression
+     * level of {@link TmcSettings#getSnapshotCompressionLevel()}. The job returns the
+     * size in bytes of the body the server accepted. If the server rejects the body
+     * as too large, the job throws a {@link PayloadTooLargeException}.
+     */
     public Callable<Object> getSendEventLogJob(final URI snapshotServerUrl,
-            List<LoggableEvent> events) throws NotLoggedInException {
+            final List<LoggableEvent> events) throws NotLoggedInException {
         final Map<String, String> extraHeaders = new LinkedHashMap<>();
         String username = settings.getUsername().isPresent() ? settings.getUsername().get() : "Username missing";
-        extraHeaders.put("X-Tmc-Version", "1");
         extraHeaders.put("X-Tmc-Username", username);
         extraHeaders.put("X-Tmc-SESSION-ID", oauth.getToken());
 
-        final byte[] data;
-        try {
-            data = eventListToPostBody(events);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        final boolean binary = settings.getSnapshotBinaryUploadsEnabled()
+                && !jsonOnlySnapshotServers.contains(snapshotServerUrl);
+        final int compressionLevel = settings.getSnapshotCompressionLevel();
 
         return wrapWithNotLoggedInException(new Callable<Object>() {
             @Override
             public Object call() throws Exception {
                 URI url = addApiCallQueryParameters(snapshotServerUrl);
-                final Callable<String> upload = HttpTasks
-                        .rawPostForText(url, data, extraHeaders);
-                upload.call();
-                return null;
+                if (!binary) {
+                    return sendEventLog(
+                            url, eventListToPostBody(events, compressionLevel),
+                            JSON_EVENT_LOG_VERSION);
+                }
+                try {
+                    return sendEventLog(
+                            url, eventListToBinaryPostBody(events, compressionLevel),
+                            BINARY_EVENT_LOG_VERSION);
+                } catch (FailedHttpResponseException ex) {
+                    if (!isUnsupportedVersion(ex.getStatusCode())) {
+                        throw ex;
+                    }
+                    LOG.info("Snapshot server {} does not accept binary events, using JSON",
+                            snapshotServerUrl);
+                    jsonOnlySnapshotServers.add(snapshotServerUrl);
+                    return sendEventLog(
+                            url, eventListToPostBody(events, compressionLevel),
+                            JSON_EVENT_LOG_VERSION);
+                }
             }
 
-            //TODO: Cancellable?
+            private Long sendEventLog(URI url, StreamingGzipEntity body, String version)
+                    throws Exception {
+                Map<String, String> headers = new LinkedHashMap<>();
+                headers.put("X-Tmc-Version", version);
+                headers.putAll(extraHeaders);
+                try {
+                    HttpTasks.rawPostForText(url, body, headers).call();
+                } catch (FailedHttpResponseException ex) {
+                    if (ex.getStatusCode() == 413) {
+                        throw new PayloadTooLargeException(body.getBytesWritten());
+                    }
+                    throw ex;
+                }
+                return body.getBytesWritten();
+            }
         });
     }
 
+    private static boolean isUnsupportedVersion(int statusCode) {
+        return statusCode == 400 || statusCode == 406 || statusCode == 415;
+    }
+
     public void fetchOauthCredentialsTask() throws Exception {
         URI credentialsUrl;
         if (settings.getServerAddress().endsWith("/")) {
@@ -426,7 +510,7 @@ public class TmcServerCommunicationTaskFactory {
         }
         String response = HttpTasks.getForText(credentialsUrl).call();
         OauthCredentials credentials =
-                new Gson().fromJson(
+                GsonRegistry.plain().fromJson(
                         response, OauthCredentials.class);
         settings.setOauthCredentials(Optional.fromNullable(credentials));
     }
@@ -441,8 +525,8 @@ public class TmcServerCommunicationTaskFactory {
             url = serverAddress + "/" + urlLastPart;
         }
         URI organizationUrl = URI.create(url);
-        String response = HttpTasks.getForText(organizationUrl).call();
-        List<Organization> organizations = new Gson().fromJson(response, new TypeToken<List<Organization>>(){}.getType());
+        String response = getForCachedText(organizationUrl).call();
+        List<Organization> organizations = GsonRegistry.plain().fromJson(response, new TypeToken<List<Organization>>(){}.getType());
         return organizations;
     }
 
@@ -456,8 +540,10 @@ public class TmcServerCommunicationTaskFactory {
             url = serverAddress + "/" + urlLastPart;
         }
         URI organizationUrl = this.addApiCallQueryParameters(URI.create(url));
-        String response = HttpTasks.getForText(organizationUrl).call();
-        List<Exercise> exercises = new Gson().fromJson(response, new TypeToken<List<Exercise>>(){}.getType());
+        String response = getForCachedText(organizationUrl).call();
+        List<Exercise> exercises =
+                GsonRegistry.serverResponses()
+                        .fromJson(response, new TypeToken<List<Exercise>>(){}.getType());
         return exercises;
     }
 
@@ -477,7 +563,7 @@ public class TmcServerCommunicationTaskFactory {
         }
         URI organizationUrl = URI.create(url);
         String response = HttpTasks.getForText(organizationUrl).call();
-        Organization organization = new Gson().fromJson(response, new TypeToken<Organization>(){}.getType());
+        Organization organization = GsonRegistry.plain().fromJson(response, new TypeToken<Organization>(){}.getType());
         return organization;
     }
 
@@ -493,26 +579,32 @@ public class TmcServerCommunicationTaskFactory {
 
         URI userInfoUrl = this.addApiCallQueryParameters(URI.create(url));
         String response = HttpTasks.getForText(userInfoUrl).call();
-        UserInfo userInfo = new Gson().fromJson(response, new TypeToken<UserInfo>(){}.getType());
+        UserInfo userInfo = GsonRegistry.plain().fromJson(response, new TypeToken<UserInfo>(){}.getType());
         return userInfo;
     }
 
-    private byte[] eventListToPostBody(List<LoggableEvent> events) throws IOException {
-        ByteArrayOutputStream bufferBos = new ByteArrayOutputStream();
-        GZIPOutputStream gzos = new GZIPOutputStream(bufferBos);
-        OutputStreamWriter bufferWriter = new OutputStreamWriter(gzos, Charset.forName("UTF-8"));
-
-        Gson gson =
-                new GsonBuilder()
-                        .registerTypeAdapter(byte[].class, new ByteArrayGsonSerializer())
-                        .registerTypeAdapter(JsonMaker.class, new JsonMakerGsonSerializer())
-                        .create();
-
-        gson.toJson(events, new TypeToken<List<LoggableEvent>>() {}.getType(), bufferWriter);
-        bufferWriter.close();
-        gzos.close();
+    private static StreamingGzipEntity eventListToBinaryPostBody(
+            final List<LoggableEvent> events, int compressionLevel) {
+        return new StreamingGzipEntity(new StreamingGzipEntity.Content() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                LoggableEventBinaryCodec.write(events, out);
+            }
+        }, compressionLevel);
+    }
 
-        return bufferBos.toByteArray();
+    @VisibleForTesting
+    static StreamingGzipEntity eventListToPostBody(
+            final List<LoggableEvent> events, int compressionLevel) {
+        return new StreamingGzipEntity(new StreamingGzipEntity.Content() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                Writer writer = new OutputStreamWriter(out, Charset.forName("UTF-8"));
+                GsonRegistry.events().toJson(
+                        events, new TypeToken<List<LoggableEvent>>() {}.getType(), writer);
+                writer.flush();
+            }
+        }, compressionLevel);
     }
 
     private <T> T checkForObsoleteClient(FailedHttpResponseException ex)
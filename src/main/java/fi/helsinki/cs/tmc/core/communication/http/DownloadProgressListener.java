@@ -0,0 +1,15 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+/**
+ * Receives byte level progress of a download that is streamed to disk.
+ */
+public interface DownloadProgressListener {
+
+    /**
+     * Called from the downloading thread after each chunk written to disk.
+     *
+     * @param bytesReceived bytes written so far
+     * @param totalBytes length of the whole response, or -1 if the server did not tell it
+     */
+    void bytesReceived(long bytesReceived, long totalBytes);
+}
@@ -0,0 +1,103 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived HTTP client backed by a keep-alive connection pool.
+ *
+ * <p>One pool is shared by every request made through {@link HttpTasks} so that
+ * consecutive requests to the same server reuse the already established TCP/TLS
+ * connection instead of doing a new handshake each time.
+ *
+ * <p>The proxy is looked up from the settings for every request, so changing it takes
+ * effect without building a new pool.
+ */
+public class HttpClientPool implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientPool.class);
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    public HttpClientPool(TmcSettings settings) {
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setMaxTotal(settings.getHttpMaxConnectionsTotal());
+        this.connectionManager.setDefaultMaxPerRoute(settings.getHttpMaxConnectionsPerRoute());
+
+        long idleTimeout = settings.getHttpIdleConnectionTimeout();
+        HttpClientBuilder httpClientBuilder =
+                HttpClients.custom()
+                        .useSystemProperties()
+                        .setConnectionManager(connectionManager)
+                        .setRedirectStrategy(new DefaultRedirectStrategy())
+                        .evictExpiredConnections()
+                        .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+                        .setRoutePlanner(new ProxyRoutePlanner());
+
+        this.httpClient = httpClientBuilder.build();
+    }
+
+    /**
+     * Routes requests through the proxy currently in the settings, or through the
+     * system default proxy if there is none.
+     */
+    private static class ProxyRoutePlanner implements HttpRoutePlanner {
+        // A null selector makes it use the ProxySelector default at the time of the request
+        private final HttpRoutePlanner systemDefault = new SystemDefaultRoutePlanner(null);
+
+        @Override
+        public HttpRoute determineRoute(HttpHost host, HttpRequest request, HttpContext context)
+                throws HttpException {
+            HttpRoutePlanner proxy = TmcSettingsHolder.get().proxy();
+            return (proxy != null ? proxy : systemDefault).determineRoute(host, request, context);
+        }
+    }
+
+    /**
+     * Returns the shared client. Callers must not close it.
+     */
+    public CloseableHttpClient getClient() {
+        return httpClient;
+    }
+
+    /**
+     * Returns the number of leased, idle and pending connections over all routes.
+     */
+    public PoolStats getTotalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Closes every pooled connection and stops the idle connection evictor.
+     */
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException ex) {
+            logger.warn("Failed to close pooled http client", ex);
+        }
+    }
+}
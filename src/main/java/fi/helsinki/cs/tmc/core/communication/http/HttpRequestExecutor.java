@@ -2,22 +2,25 @@ package fi.helsinki.cs.tmc.core.communication.http;
 
 import fi.helsinki.cs.tmc.core.exceptions.ConnectionFailedException;
 import fi.helsinki.cs.tmc.core.exceptions.FailedHttpResponseException;
-import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.holders.HttpClientPoolHolder;
+import fi.helsinki.cs.tmc.core.holders.MetricsHolder;
+import fi.helsinki.cs.tmc.core.metrics.MetricsRegistry;
+import fi.helsinki.cs.tmc.core.utilities.CancellableCallable;
+import fi.helsinki.cs.tmc.core.utilities.CancellationScope;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.entity.BufferedHttpEntity;
-import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.DefaultRedirectStrategy;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
-import org.apache.http.protocol.BasicHttpContext;
-import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
 import org.slf4j.Logger;
@@ -25,26 +28,53 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
-import java.nio.charset.Charset;
-import java.util.concurrent.Callable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
- * Downloads a single file over HTTP into memory while being cancellable.
+ * Downloads a single file over HTTP into memory or straight to disk while
+ * being cancellable.
+ *
+ * <p>Requests are executed with the shared client of {@link HttpClientPoolHolder}
+ * so connections are kept alive and reused between requests.
+ *
+ * <p>When run inside a {@link CancellationScope}, cancelling the scope aborts the
+ * request immediately.
  *
  * <p>If the response was not a successful one (status code 2xx) then a
  * {@link FailedHttpResponseException} with a preloaded buffered entity is
  * thrown.
+ *
+ * <p>Each request is recorded in the {@code http.request} timer, tagged with the
+ * method, endpoint and status, and the sizes of its bodies in the
+ * {@code http.request.bytes} and {@code http.response.bytes} histograms. The endpoint
+ * is the path with numeric segments replaced by {@code {id}}.
  */
-/*package*/ class HttpRequestExecutor implements Callable<BufferedHttpEntity> {
+/*package*/ class HttpRequestExecutor implements CancellableCallable<BufferedHttpEntity> {
 
     private static final int DEFAULT_TIMEOUT = 10 * 1000;
+    private static final long TRANSFER_CHUNK_SIZE = 64 * 1024;
     private static final Logger logger = LoggerFactory.getLogger(HttpRequestExecutor.class);
 
     private final Object shutdownLock = new Object();
+    private final Runnable cancelHook = new Runnable() {
+        @Override
+        public void run() {
+            cancel();
+        }
+    };
 
     private int timeout = DEFAULT_TIMEOUT;
     private HttpUriRequest request;
 
+    // For metrics, set while the request runs
+    private long startNanos;
+    private String status;
+    private long responseBytes;
+
     /*package*/ HttpRequestExecutor(URI url) {
         this(new HttpGet(url));
     }
@@ -61,72 +91,217 @@ import java.util.concurrent.Callable;
     @Override
     public BufferedHttpEntity call()
             throws IOException, InterruptedException, FailedHttpResponseException, ConnectionFailedException {
-        CloseableHttpClient httpClient = makeHttpClient();
+        CloseableHttpClient httpClient = HttpClientPoolHolder.get().getClient();
+        CancellationScope scope = abortOnCancel();
 
-        try {
-            return executeRequest(httpClient);
+        try (CloseableHttpResponse response = executeRequest(httpClient)) {
+            throwIfUnsuccessful(response);
+            BufferedHttpEntity entity = new BufferedHttpEntity(response.getEntity());
+            EntityUtils.consume(entity); // Ensure it's loaded into memory
+            responseBytes = entity.getContentLength();
+            return entity;
         } finally {
-            synchronized (shutdownLock) {
-                request = null;
-                disposeOfHttpClient(httpClient);
+            finishRequest(scope);
+        }
+    }
+
+    /**
+     * Executes the request as a conditional request using the validators of
+     * {@code cached}.
+     *
+     * @param cached previously cached response, may be null
+     * @return {@code cached} if the server answered 304 Not Modified, otherwise a new
+     *     entry with the response body and validators
+     */
+    public HttpResponseCache.Entry callConditionally(HttpResponseCache.Entry cached)
+            throws IOException, InterruptedException, FailedHttpResponseException, ConnectionFailedException {
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                request.setHeader(HttpHeaders.IF_NONE_MATCH, cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+            }
+        }
+
+        CloseableHttpClient httpClient = HttpClientPoolHolder.get().getClient();
+        CancellationScope scope = abortOnCancel();
+
+        try (CloseableHttpResponse response = executeRequest(httpClient)) {
+            if (cached != null
+                    && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                EntityUtils.consume(response.getEntity());
+                return cached;
             }
+            throwIfUnsuccessful(response);
+            byte[] body = EntityUtils.toByteArray(response.getEntity());
+            responseBytes = body.length;
+            return new HttpResponseCache.Entry(
+                    headerValue(response, HttpHeaders.ETAG),
+                    headerValue(response, HttpHeaders.LAST_MODIFIED),
+                    new String(body, "UTF-8"));
+        } finally {
+            finishRequest(scope);
         }
     }
 
-    private CloseableHttpClient makeHttpClient() {
-        RequestConfig config = RequestConfig.custom().setConnectTimeout(timeout).setSocketTimeout(timeout).build();
-        HttpClientBuilder httpClientBuilder =
-                HttpClients.custom()
-                        .useSystemProperties()
-                        .setRedirectStrategy(new DefaultRedirectStrategy())
-                        .setDefaultRequestConfig(config);
-        maybeSetProxy(httpClientBuilder);
+    /**
+     * Streams the response body into {@code target} instead of buffering it in memory.
+     *
+     * @param listener notified after each written chunk, may be null
+     */
+    public Path downloadTo(Path target, DownloadProgressListener listener)
+            throws IOException, InterruptedException, FailedHttpResponseException, ConnectionFailedException {
+        CloseableHttpClient httpClient = HttpClientPoolHolder.get().getClient();
+        CancellationScope scope = abortOnCancel();
 
-        return httpClientBuilder.build();
+        try (CloseableHttpResponse response = executeRequest(httpClient)) {
+            throwIfUnsuccessful(response);
+            responseBytes = writeEntityTo(response.getEntity(), target, listener);
+            return target;
+        } finally {
+            finishRequest(scope);
+        }
     }
 
-    private void disposeOfHttpClient(CloseableHttpClient httpClient) {
-        try {
-            httpClient.close();
-        } catch (IOException ex) {
-            logger.warn("Dispose of httpClient failed {0}", ex);
+    private CancellationScope abortOnCancel() {
+        startNanos = System.nanoTime();
+        status = "error";
+        responseBytes = -1;
+        CancellationScope scope = CancellationScope.current();
+        if (scope != null) {
+            scope.onCancel(cancelHook);
         }
+        return scope;
     }
 
-    private BufferedHttpEntity executeRequest(HttpClient httpClient)
-            throws IOException, InterruptedException, FailedHttpResponseException, ConnectionFailedException {
-        HttpResponse response;
-        HttpContext context = new BasicHttpContext();
+    private void finishRequest(CancellationScope scope) {
+        if (scope != null) {
+            scope.removeOnCancel(cancelHook);
+        }
+        HttpUriRequest finished;
+        synchronized (shutdownLock) {
+            finished = request;
+            request = null;
+        }
+        recordMetrics(finished);
+    }
+
+    private void recordMetrics(HttpUriRequest finished) {
+        if (finished == null) {
+            return;
+        }
+        long duration = System.nanoTime() - startNanos;
+        String method = finished.getMethod();
+        String endpoint = endpointOf(finished.getURI());
+        if (finished.isAborted()) {
+            status = "cancelled";
+        }
+
+        MetricsRegistry metrics = MetricsHolder.get();
+        metrics.timer("http.request", "method", method, "endpoint", endpoint, "status", status)
+                .record(duration);
+        long requestBytes = requestBytesOf(finished);
+        if (requestBytes >= 0) {
+            metrics.histogram("http.request.bytes", "method", method, "endpoint", endpoint)
+                    .record(requestBytes);
+        }
+        if (responseBytes >= 0) {
+            metrics.histogram("http.response.bytes", "method", method, "endpoint", endpoint)
+                    .record(responseBytes);
+        }
+    }
+
+    private static long requestBytesOf(HttpUriRequest request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return -1;
+        }
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        if (entity instanceof StreamingGzipEntity) {
+            return ((StreamingGzipEntity) entity).getBytesWritten();
+        }
+        return entity != null ? entity.getContentLength() : -1;
+    }
+
+    /**
+     * Returns the path of {@code uri} with numeric segments, like exercise and
+     * submission ids, replaced by {@code {id}} so that endpoints stay few. An id
+     * followed by an extension, like {@code 1228.zip}, keeps the extension. Empty
+     * segments are dropped.
+     */
+    /*package*/ static String endpointOf(URI uri) {
+        StringBuilder endpoint = new StringBuilder();
+        String path = uri.getPath();
+        if (path != null) {
+            for (String segment : path.split("/")) {
+                if (!segment.isEmpty()) {
+                    endpoint.append('/').append(normalizeSegment(segment));
+                }
+            }
+        }
+        return endpoint.length() > 0 ? endpoint.toString() : "/";
+    }
+
+    private static String normalizeSegment(String segment) {
+        int extension = segment.indexOf('.');
+        String name = extension < 0 ? segment : segment.substring(0, extension);
+        if (!isNumeric(name)) {
+            return segment;
+        }
+        return extension < 0 ? "{id}" : "{id}" + segment.substring(extension);
+    }
+
+    private static boolean isNumeric(String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CloseableHttpResponse executeRequest(CloseableHttpClient httpClient)
+            throws IOException, InterruptedException, ConnectionFailedException {
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(
+                RequestConfig.custom().setConnectTimeout(timeout).setSocketTimeout(timeout).build());
 
         try {
-            response = httpClient.execute(request);
+            CloseableHttpResponse response = httpClient.execute(request, context);
+            status = String.valueOf(response.getStatusLine().getStatusCode());
+            return response;
         } catch (IOException ex) {
             logger.info("Executing http request failed: {0}", ex.toString());
             if (request.isAborted()) {
                 throw new InterruptedException();
-            } else if (ex.getMessage().contains("connect timed out")) {
+            } else if (ex.getMessage() != null && ex.getMessage().contains("connect timed out")) {
                 throw new ConnectionFailedException("Communication with server failed! Please check your internet connection and try again.\n"
                         + "Try opening a browser and see if you can load any pages.");
             } else {
                 throw new IOException("Download failed: " + ex.getMessage(), ex);
             }
         }
+    }
 
-        return handleResponse(response);
+    private String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
     }
 
-    private BufferedHttpEntity handleResponse(HttpResponse response)
+    private void throwIfUnsuccessful(HttpResponse response)
             throws IOException, FailedHttpResponseException {
         int responseCode = response.getStatusLine().getStatusCode();
         if (response.getEntity() == null) {
             throw new IOException("HTTP " + responseCode + " with no response");
         }
 
-        BufferedHttpEntity entity = new BufferedHttpEntity(response.getEntity());
-        EntityUtils.consume(entity); // Ensure it's loaded into memory
-        if (200 <= responseCode && responseCode <= 299) {
-            return entity;
-        } else {
+        if (responseCode < 200 || responseCode > 299) {
+            BufferedHttpEntity entity = new BufferedHttpEntity(response.getEntity());
+            EntityUtils.consume(entity);
+            responseBytes = entity.getContentLength();
             logger.info(
                     "Received http response with non 2xx response code "
                             + responseCode
@@ -137,11 +312,40 @@ import java.util.concurrent.Callable;
         }
     }
 
+    private long writeEntityTo(HttpEntity entity, Path target, DownloadProgressListener listener)
+            throws IOException, InterruptedException {
+        long totalBytes = entity.getContentLength();
+        try (ReadableByteChannel source = Channels.newChannel(entity.getContent());
+                FileChannel out = FileChannel.open(
+                        target,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long transferred;
+            while ((transferred = out.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+                position += transferred;
+                if (listener != null) {
+                    listener.bytesReceived(position, totalBytes);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    cancel();
+                    throw new InterruptedException();
+                }
+            }
+            return position;
+        } catch (IOException ex) {
+            if (request.isAborted()) {
+                throw new InterruptedException();
+            }
+            throw ex;
+        }
+    }
+
     /**
      * May be called from another thread to cancel an ongoing download.
      */
-    //@Override
-    //TODO: Cancellable?
+    @Override
     public boolean cancel() {
         synchronized (shutdownLock) {
             if (request != null) {
@@ -150,11 +354,4 @@ import java.util.concurrent.Callable;
         }
         return true;
     }
-
-    private void maybeSetProxy(HttpClientBuilder httpClientBuilder) {
-        SystemDefaultRoutePlanner systemDefaultRoutePlanner = TmcSettingsHolder.get().proxy();
-        if (systemDefaultRoutePlanner != null) {
-            httpClientBuilder.setRoutePlanner(systemDefaultRoutePlanner);
-        }
-    }
 }
@@ -0,0 +1,226 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import fi.helsinki.cs.tmc.core.communication.serialization.GsonRegistry;
+
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent cache of text responses and their HTTP validators.
+ *
+ * <p>Cached responses are revalidated with a conditional request
+ * ({@code If-None-Match} / {@code If-Modified-Since}) so that the server only
+ * sends the body again when it has changed. See {@link HttpTasks#getForText(URI, HttpResponseCache)}.
+ *
+ * <p>Entries are stored as one file per url, named by a hash of the url since
+ * urls may contain access tokens. The cache is only an optimization: failing to
+ * read or write it is logged and treated as a cache miss.
+ *
+ * <p>The cache is bounded: entries that haven't been used for {@code maxAgeMillis}
+ * are dropped, and beyond {@code maxEntries} the least recently used ones are evicted.
+ * The directory is only scanned for that on the first write, when the entry count
+ * goes over the limit, and otherwise at most once an hour, so one instance should
+ * be shared, see {@link fi.helsinki.cs.tmc.core.holders.HttpResponseCacheHolder}.
+ */
+public class HttpResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpResponseCache.class);
+
+    private static final Gson gson = GsonRegistry.plain();
+
+    private static final int DEFAULT_MAX_ENTRIES = 256;
+    private static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+    private static final long EXPIRY_SCAN_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Path directory;
+    private final int maxEntries;
+    private final long maxAgeMillis;
+
+    // Number of entries as of the last scan plus the ones added since, -1 before a scan
+    private int entryCount = -1;
+    private long lastScanMillis;
+
+    public HttpResponseCache(Path directory) {
+        this(directory, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    public HttpResponseCache(Path directory, int maxEntries, long maxAgeMillis) {
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * A cached response body with the validators the server sent along it.
+     */
+    public static class Entry {
+        private final String etag;
+        private final String lastModified;
+        private final String body;
+
+        public Entry(String etag, String lastModified, String body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    /**
+     * Returns the cached response for {@code url} or null if there is none.
+     */
+    public Entry get(URI url) {
+        Path file = fileFor(url);
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Entry entry = gson.fromJson(reader, Entry.class);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return entry;
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException | JsonParseException ex) {
+            logger.warn("Failed to read cached response from " + file, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Caches {@code entry} for {@code url}. Responses without validators are not cached
+     * since they could never be revalidated.
+     */
+    public void put(URI url, Entry entry) {
+        if (!entry.hasValidators()) {
+            remove(url);
+            return;
+        }
+
+        Path file = fileFor(url);
+        try {
+            Files.createDirectories(directory);
+            boolean added = !Files.exists(file);
+            Path temp = Files.createTempFile(directory, "response", ".tmp");
+            try {
+                try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    gson.toJson(entry, writer);
+                }
+                Files.move(temp, file,
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            maybeEvict(added);
+        } catch (IOException ex) {
+            logger.warn("Failed to cache response to " + file, ex);
+        }
+    }
+
+    public void remove(URI url) {
+        try {
+            Files.deleteIfExists(fileFor(url));
+        } catch (IOException ex) {
+            logger.warn("Failed to remove cached response", ex);
+        }
+    }
+
+    private synchronized void maybeEvict(boolean added) throws IOException {
+        if (added && entryCount >= 0) {
+            entryCount++;
+        }
+        long now = System.currentTimeMillis();
+        if (entryCount < 0
+                || entryCount > maxEntries
+                || now - lastScanMillis > EXPIRY_SCAN_INTERVAL_MILLIS) {
+            entryCount = evict();
+            lastScanMillis = now;
+        }
+    }
+
+    /**
+     * Drops expired entries and then the least recently used ones until at most
+     * {@code maxEntries} remain.
+     *
+     * @return the number of entries left
+     */
+    private int evict() throws IOException {
+        final List<Path> entries = new ArrayList<>();
+        final List<FileTime> accessTimes = new ArrayList<>();
+        long expiredBefore = System.currentTimeMillis() - maxAgeMillis;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path entry : stream) {
+                FileTime accessed = Files.getLastModifiedTime(entry);
+                if (accessed.toMillis() < expiredBefore) {
+                    Files.deleteIfExists(entry);
+                    logger.debug("Dropped expired cached response {}", entry.getFileName());
+                } else {
+                    entries.add(entry);
+                    accessTimes.add(accessed);
+                }
+            }
+        }
+
+        if (entries.size() <= maxEntries) {
+            return entries.size();
+        }
+
+        List<Integer> order = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return accessTimes.get(first).compareTo(accessTimes.get(second));
+            }
+        });
+
+        for (int i : order.subList(0, entries.size() - maxEntries)) {
+            Files.deleteIfExists(entries.get(i));
+            logger.debug("Evicted {} from response cache", entries.get(i).getFileName());
+        }
+        return maxEntries;
+    }
+
+    private Path fileFor(URI url) {
+        String key = Hashing.sha1().hashString(url.toString(), StandardCharsets.UTF_8).toString();
+        return directory.resolve(key + ".json");
+    }
+}
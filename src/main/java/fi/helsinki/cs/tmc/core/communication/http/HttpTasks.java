@@ -1,9 +1,12 @@
 package fi.helsinki.cs.tmc.core.communication.http;
 
+import fi.helsinki.cs.tmc.core.communication.serialization.GsonRegistry;
 import fi.helsinki.cs.tmc.core.exceptions.FailedHttpResponseException;
+import fi.helsinki.cs.tmc.core.utilities.CancellableCallable;
 
 import com.google.gson.Gson;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
@@ -20,21 +23,22 @@ import org.apache.http.util.EntityUtils;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Map;
-import java.util.concurrent.Callable;
 
 /**
  * Convenient methods to start asynchronous HTTP tasks.
  *
  * <p>Tasks throw a {@link FailedHttpResponseException} when getting a response
- * with a non-successful status code.
+ * with a non-successful status code. Every task can be cancelled from another
+ * thread, which aborts its connection immediately.
  */
 public class HttpTasks {
     private static final ContentType UTF8_TEXT_CONTENT_TYPE =
             ContentType.create("text/plain", "utf-8");
-    private static final Gson gson = new Gson();
+    private static final Gson gson = GsonRegistry.plain();
 
     private static HttpRequestExecutor createExecutor(URI url) {
         return new HttpRequestExecutor(url);
@@ -47,70 +51,137 @@ public class HttpTasks {
     /**
      * Posts json to a url without authentication.
      */
-    public static Callable<String> postJson(final URI uri, final Serializable json) {
-        return new Callable<String>() {
+    public static CancellableCallable<String> postJson(final URI uri, final Serializable json) {
+        String string = gson.toJson(json);
+        StringEntity content = new StringEntity(string, "UTF-8");
+        HttpPost httpPost = new HttpPost(uri);
+        httpPost.setHeader("content-type", "application/json");
+        httpPost.setEntity(content);
+        final HttpRequestExecutor executor = new HttpRequestExecutor(httpPost);
+        return new CancellableCallable<String>() {
             @Override
             public String call() throws Exception {
-                String string = gson.toJson(json);
-                StringEntity content = new StringEntity(string, "UTF-8");
-                HttpPost httpPost = new HttpPost(uri);
-                httpPost.setHeader("content-type", "application/json");
-                httpPost.setEntity(content);
-                HttpRequestExecutor executor = new HttpRequestExecutor(httpPost);
                 return EntityUtils.toString(executor.call());
             }
+
+            @Override
+            public boolean cancel() {
+                return executor.cancel();
+            }
         };
     }
 
-    public static Callable<byte[]> getForBinary(URI url) {
+    public static CancellableCallable<byte[]> getForBinary(URI url) {
         return downloadToBinary(createExecutor(url));
     }
 
-    public static Callable<String> getForText(URI url) {
+    /**
+     * Downloads the response body straight into {@code target} without buffering it in memory.
+     */
+    public static CancellableCallable<Path> getForFile(URI url, Path target) {
+        return getForFile(url, target, null);
+    }
+
+    public static CancellableCallable<Path> getForFile(
+            URI url, final Path target, final DownloadProgressListener listener) {
+        final HttpRequestExecutor download = createExecutor(url);
+        return new CancellableCallable<Path>() {
+            @Override
+            public Path call() throws Exception {
+                return download.downloadTo(target, listener);
+            }
+
+            @Override
+            public boolean cancel() {
+                return download.cancel();
+            }
+        };
+    }
+
+    public static CancellableCallable<String> getForText(URI url) {
         return downloadToText(createExecutor(url));
     }
 
-    public static Callable<byte[]> postForBinary(URI url, Map<String, String> params) {
+    /**
+     * Like {@link #getForText(URI)} but revalidates a response cached in {@code cache}
+     * instead of downloading the whole body again when it hasn't changed.
+     */
+    public static CancellableCallable<String> getForText(final URI url, final HttpResponseCache cache) {
+        final HttpRequestExecutor download = createExecutor(url);
+        return new CancellableCallable<String>() {
+            @Override
+            public String call() throws Exception {
+                HttpResponseCache.Entry cached = cache.get(url);
+                HttpResponseCache.Entry response = download.callConditionally(cached);
+                if (response != cached) {
+                    cache.put(url, response);
+                }
+                return response.getBody();
+            }
+
+            @Override
+            public boolean cancel() {
+                return download.cancel();
+            }
+        };
+    }
+
+    public static CancellableCallable<byte[]> postForBinary(URI url, Map<String, String> params) {
         return downloadToBinary(createExecutor(makePostRequest(url, params)));
     }
 
-    public static Callable<String> postForText(URI url, Map<String, String> params) {
+    public static CancellableCallable<String> postForText(URI url, Map<String, String> params) {
         return downloadToText(createExecutor(makePostRequest(url, params)));
     }
 
-    public static Callable<String> rawPostForText(URI url, byte[] data) {
+    public static CancellableCallable<String> rawPostForText(URI url, byte[] data) {
         return downloadToText(createExecutor(makeRawPostRequest(url, data)));
     }
 
-    public static Callable<String> rawPostForText(URI url, byte[] data, Map<String, String> extraHeaders) {
+    public static CancellableCallable<String> rawPostForText(URI url, byte[] data, Map<String, String> extraHeaders) {
         return downloadToText(createExecutor(makeRawPostRequest(url, data, extraHeaders)));
     }
 
-    public static Callable<String> uploadFileForTextDownload(
+    /**
+     * Posts {@code entity} as is, for example a {@link StreamingGzipEntity} that is
+     * written straight to the connection.
+     */
+    public static CancellableCallable<String> rawPostForText(
+            URI url, HttpEntity entity, Map<String, String> extraHeaders) {
+        return downloadToText(createExecutor(makeRawPostRequest(url, entity, extraHeaders)));
+    }
+
+    public static CancellableCallable<String> uploadFileForTextDownload(
             URI url, Map<String, String> params, String fileField, byte[] data) {
         HttpPost request = makeFileUploadRequest(url, params, fileField, data);
         return downloadToText(createExecutor(request));
     }
 
-    private static Callable<byte[]> downloadToBinary(final HttpRequestExecutor download) {
-        return new Callable<byte[]>() {
+    private static CancellableCallable<byte[]> downloadToBinary(final HttpRequestExecutor download) {
+        return new CancellableCallable<byte[]>() {
             @Override
             public byte[] call() throws Exception {
                 return EntityUtils.toByteArray(download.call());
             }
 
-            //TODO: Cancellable?
+            @Override
+            public boolean cancel() {
+                return download.cancel();
+            }
         };
     }
 
-    private static Callable<String> downloadToText(final HttpRequestExecutor download) {
-        return new Callable<String>() {
+    private static CancellableCallable<String> downloadToText(final HttpRequestExecutor download) {
+        return new CancellableCallable<String>() {
             @Override
             public String call() throws Exception {
                 return EntityUtils.toString(download.call(), "UTF-8");
             }
 
-            //TODO: Cancellable?
+            @Override
+            public boolean cancel() {
+                return download.cancel();
+            }
         };
     }
 
@@ -137,12 +208,16 @@ public class HttpTasks {
     }
 
     private static HttpPost makeRawPostRequest(URI url, byte[] data, Map<String, String> extraHeaders) {
+        return makeRawPostRequest(url, new ByteArrayEntity(data), extraHeaders);
+    }
+
+    private static HttpPost makeRawPostRequest(
+            URI url, HttpEntity entity, Map<String, String> extraHeaders) {
         HttpPost request = new HttpPost(url);
         for (Map.Entry<String, String> header : extraHeaders.entrySet()) {
             request.addHeader(header.getKey(), header.getValue());
         }
 
-        ByteArrayEntity entity = new ByteArrayEntity(data);
         request.setEntity(entity);
         return request;
     }
@@ -0,0 +1,123 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.io.CountingOutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A request body that is gzipped while it is written to the connection.
+ *
+ * <p>The body is produced by a {@link Content} every time the entity is written, so
+ * neither the uncompressed nor the compressed body is ever held in memory as a
+ * whole. The entity is sent chunked since its length is not known in advance.
+ */
+public class StreamingGzipEntity extends AbstractHttpEntity {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Writes the uncompressed body.
+     */
+    public interface Content {
+        /**
+         * Writes the body to {@code out}. Must not close {@code out}.
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final Content content;
+    private final int compressionLevel;
+    private volatile long bytesWritten = -1;
+
+    public StreamingGzipEntity(Content content) {
+        this(content, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compressionLevel a {@link Deflater} compression level
+     */
+    public StreamingGzipEntity(Content content, int compressionLevel) {
+        checkArgument(
+                compressionLevel == Deflater.DEFAULT_COMPRESSION
+                        || (compressionLevel >= Deflater.NO_COMPRESSION
+                                && compressionLevel <= Deflater.BEST_COMPRESSION),
+                "Invalid compression level");
+        this.content = content;
+        this.compressionLevel = compressionLevel;
+        setChunked(true);
+    }
+
+    /**
+     * Returns the compressed size of the body as last written, or -1 if it has not
+     * been written yet.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Returns the compressed body. Unlike {@link #writeTo}, this buffers the whole
+     * body in memory.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTo(buffer);
+        return new ByteArrayInputStream(buffer.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(out);
+        LeveledGzipOutputStream gzip = new LeveledGzipOutputStream(counter, compressionLevel);
+        try {
+            // Content may write a byte at a time, which the deflater handles poorly
+            OutputStream buffered = new BufferedOutputStream(gzip, BUFFER_SIZE);
+            content.writeTo(buffered);
+            buffered.flush();
+            // Finish instead of close, the connection owns out
+            gzip.finish();
+            gzip.flush();
+        } finally {
+            gzip.release();
+        }
+        bytesWritten = counter.getCount();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private static class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+
+        void release() {
+            def.end();
+        }
+    }
+}
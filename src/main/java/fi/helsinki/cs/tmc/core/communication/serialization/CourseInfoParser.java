@@ -3,14 +3,9 @@ package fi.helsinki.cs.tmc.core.communication.serialization;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
-
 public class CourseInfoParser {
 
     private static class CourseInfoContainer {
@@ -28,12 +23,7 @@ public class CourseInfoParser {
             throw new IllegalArgumentException("Empty input");
         }
         try {
-            Gson gson =
-                    new GsonBuilder()
-                            .registerTypeAdapter(Date.class, new CustomDateDeserializer())
-                            .create();
-
-            Course course = gson.fromJson(json, CourseInfoContainer.class).course;
+            Course course = GsonRegistry.serverResponses().fromJson(json, CourseInfoContainer.class).course;
 
             course.setExercisesLoaded(true);
 
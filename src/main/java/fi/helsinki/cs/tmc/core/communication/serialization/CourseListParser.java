@@ -3,14 +3,10 @@ package fi.helsinki.cs.tmc.core.communication.serialization;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 public class CourseListParser {
@@ -25,12 +21,7 @@ public class CourseListParser {
             throw new IllegalArgumentException("Empty input");
         }
         try {
-            Gson gson =
-                    new GsonBuilder()
-                            .registerTypeAdapter(Date.class, new CustomDateDeserializer())
-                            .create();
-
-            Course[] courses = gson.fromJson(json, Course[].class);
+            Course[] courses = GsonRegistry.serverResponses().fromJson(json, Course[].class);
 
             List<Course> courseList = new ArrayList<>();
             for (Course course : courses) {
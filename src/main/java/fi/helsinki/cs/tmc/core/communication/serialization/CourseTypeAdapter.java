@@ -0,0 +1,142 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.readString;
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.readStrings;
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.readUri;
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.readUris;
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.writeStrings;
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.writeUri;
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.writeUris;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes {@link Course}s in the format of the server's course listings
+ * without reflection. The exercises are handled by {@link ExerciseTypeAdapter}.
+ *
+ * <p>Like Gson's reflective adapter, unknown fields are skipped and an explicit null
+ * leaves the id at its default.
+ */
+public class CourseTypeAdapter extends TypeAdapter<Course> {
+
+    private final ExerciseTypeAdapter exerciseAdapter = new ExerciseTypeAdapter();
+
+    @Override
+    public void write(JsonWriter out, Course course) throws IOException {
+        if (course == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("id").value(course.getId());
+        out.name("name").value(course.getName());
+        out.name("title").value(course.getTitle());
+        out.name("description").value(course.getDescription());
+        out.name("organization_slug").value(course.getOrganizationSlug());
+        writeExercises(out.name("exercises"), course.getExercises());
+        writeUri(out.name("details_url"), course.getDetailsUrl());
+        writeUri(out.name("unlock_url"), course.getUnlockUrl());
+        writeUri(out.name("comet_url"), course.getCometUrl());
+        writeUris(out.name("spyware_urls"), course.getSpywareUrls());
+        writeUri(out.name("reviews_url"), course.getReviewsUrl());
+        writeStrings(out.name("unlockables"), course.getUnlockables());
+        out.endObject();
+    }
+
+    @Override
+    public Course read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        Course course = new Course();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            switch (name) {
+                case "id":
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                    } else {
+                        course.setId(in.nextInt());
+                    }
+                    break;
+                case "name":
+                    course.setName(readString(in));
+                    break;
+                case "title":
+                    course.setTitle(readString(in));
+                    break;
+                case "description":
+                    course.setDescription(readString(in));
+                    break;
+                case "organization_slug":
+                    course.setOrganizationSlug(readString(in));
+                    break;
+                case "exercises":
+                    course.setExercises(readExercises(in));
+                    break;
+                case "details_url":
+                    course.setDetailsUrl(readUri(in));
+                    break;
+                case "unlock_url":
+                    course.setUnlockUrl(readUri(in));
+                    break;
+                case "comet_url":
+                    course.setCometUrl(readUri(in));
+                    break;
+                case "spyware_urls":
+                    course.setSpywareUrls(readUris(in));
+                    break;
+                case "reviews_url":
+                    course.setReviewsUrl(readUri(in));
+                    break;
+                case "unlockables":
+                    course.setUnlockables(readStrings(in));
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return course;
+    }
+
+    private List<Exercise> readExercises(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<Exercise> exercises = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            exercises.add(exerciseAdapter.read(in));
+        }
+        in.endArray();
+        return exercises;
+    }
+
+    private void writeExercises(JsonWriter out, List<Exercise> exercises) throws IOException {
+        if (exercises == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (Exercise exercise : exercises) {
+            exerciseAdapter.write(out, exercise);
+        }
+        out.endArray();
+    }
+}
@@ -16,15 +16,21 @@ import java.util.Date;
 class CustomDateDeserializer implements JsonDeserializer<Date> {
 
     private static final Logger logger = LoggerFactory.getLogger(CustomDateDeserializer.class);
-    private static final SimpleDateFormat DATE_TIME_PARSER =
-            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    // SimpleDateFormat is not thread-safe and this deserializer is shared through GsonRegistry
+    private static final ThreadLocal<SimpleDateFormat> DATE_TIME_PARSER =
+            new ThreadLocal<SimpleDateFormat>() {
+                @Override
+                protected SimpleDateFormat initialValue() {
+                    return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+                }
+            };
 
     @Override
     public Date deserialize(JsonElement je, Type type, JsonDeserializationContext jdc)
             throws JsonParseException {
 
         try {
-            return DATE_TIME_PARSER.parse(je.getAsString());
+            return DATE_TIME_PARSER.get().parse(je.getAsString());
         } catch (ParseException ex) {
             logger.warn("Failed to parse date", ex);
             throw new JsonParseException(ex);
@@ -0,0 +1,210 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.readString;
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.readStrings;
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.readUri;
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.writeStrings;
+import static fi.helsinki.cs.tmc.core.communication.serialization.JsonValues.writeUri;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.domain.Exercise.ValgrindStrategy;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes {@link Exercise}s in the format of the server's course listings
+ * without reflection.
+ *
+ * <p>Like Gson's reflective adapter, unknown fields are skipped and an explicit null
+ * leaves a primitive field at its default. The course name is not part of the server's
+ * format; the parsers fill it in.
+ */
+public class ExerciseTypeAdapter extends TypeAdapter<Exercise> {
+
+    @Override
+    public void write(JsonWriter out, Exercise exercise) throws IOException {
+        if (exercise == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("id").value(exercise.getId());
+        out.name("name").value(exercise.getName());
+        out.name("locked").value(exercise.isLocked());
+        out.name("deadline_description").value(exercise.getDeadlineDescription());
+        out.name("deadline").value(exercise.getDeadline());
+        out.name("soft_deadline_description").value(exercise.getSoftDeadlineDescription());
+        out.name("soft_deadline").value(exercise.getSoftDeadline());
+        out.name("checksum").value(exercise.getChecksum());
+        writeUri(out.name("zip_url"), exercise.getDownloadUrl());
+        writeUri(out.name("return_url"), exercise.getReturnUrl());
+        writeUri(out.name("solution_zip_url"), exercise.getSolutionDownloadUrl());
+        out.name("returnable").value(exercise.isReturnable());
+        out.name("requires_review").value(exercise.isRequiresReview());
+        out.name("attempted").value(exercise.isAttempted());
+        out.name("completed").value(exercise.isCompleted());
+        out.name("reviewed").value(exercise.isReviewed());
+        out.name("all_review_points_given").value(exercise.isAllReviewPointsGiven());
+        out.name("memory_limit").value(exercise.getMemoryLimit());
+        String[] runtimeParams = exercise.getRuntimeParams();
+        writeStrings(
+                out.name("runtime_params"),
+                runtimeParams == null ? null : Arrays.asList(runtimeParams));
+        out.name("valgrind_strategy").value(toJson(exercise.getValgrindStrategy()));
+        out.name("code_review_requests_enabled")
+                .value(exercise.isCodeReviewRequestsEnabled());
+        out.name("run_tests_locally_action_enabled")
+                .value(exercise.isRunTestsLocallyActionEnabled());
+        writeUri(out.name("exercise_submissions_url"), exercise.getExerciseSubmissionsUrl());
+        out.endObject();
+    }
+
+    @Override
+    public Exercise read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        Exercise exercise = new Exercise();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL && isPrimitive(name)) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    exercise.setId(in.nextInt());
+                    break;
+                case "name":
+                    exercise.setName(readString(in));
+                    break;
+                case "locked":
+                    exercise.setLocked(in.nextBoolean());
+                    break;
+                case "deadline_description":
+                    exercise.setDeadlineDescription(readString(in));
+                    break;
+                case "deadline":
+                    exercise.setDeadline(readString(in));
+                    break;
+                case "soft_deadline_description":
+                    exercise.setSoftDeadlineDescription(readString(in));
+                    break;
+                case "soft_deadline":
+                    exercise.setSoftDeadline(readString(in));
+                    break;
+                case "checksum":
+                    exercise.setChecksum(readString(in));
+                    break;
+                case "zip_url":
+                    URI zipUrl = readUri(in);
+                    if (zipUrl != null) {
+                        exercise.setDownloadUrl(zipUrl);
+                    }
+                    break;
+                case "return_url":
+                    exercise.setReturnUrl(readUri(in));
+                    break;
+                case "solution_zip_url":
+                    exercise.setSolutionDownloadUrl(readUri(in));
+                    break;
+                case "returnable":
+                    exercise.setReturnable(in.nextBoolean());
+                    break;
+                case "requires_review":
+                    exercise.setRequiresReview(in.nextBoolean());
+                    break;
+                case "attempted":
+                    exercise.setAttempted(in.nextBoolean());
+                    break;
+                case "completed":
+                    exercise.setCompleted(in.nextBoolean());
+                    break;
+                case "reviewed":
+                    exercise.setReviewed(in.nextBoolean());
+                    break;
+                case "all_review_points_given":
+                    exercise.setAllReviewPointsGiven(in.nextBoolean());
+                    break;
+                case "memory_limit":
+                    exercise.setMemoryLimit(readString(in));
+                    break;
+                case "runtime_params":
+                    List<String> runtimeParams = readStrings(in);
+                    exercise.setRuntimeParams(
+                            runtimeParams == null
+                                    ? null
+                                    : runtimeParams.toArray(new String[runtimeParams.size()]));
+                    break;
+                case "valgrind_strategy":
+                    exercise.setValgrindStrategy(toValgrindStrategy(readString(in)));
+                    break;
+                case "code_review_requests_enabled":
+                    exercise.setCodeReviewRequestsEnabled(in.nextBoolean());
+                    break;
+                case "run_tests_locally_action_enabled":
+                    exercise.setRunTestsLocallyActionEnabled(in.nextBoolean());
+                    break;
+                case "exercise_submissions_url":
+                    exercise.setExerciseSubmissionsUrl(readUri(in));
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return exercise;
+    }
+
+    private static boolean isPrimitive(String name) {
+        switch (name) {
+            case "id":
+            case "locked":
+            case "returnable":
+            case "requires_review":
+            case "attempted":
+            case "completed":
+            case "reviewed":
+            case "all_review_points_given":
+            case "code_review_requests_enabled":
+            case "run_tests_locally_action_enabled":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // The names are the @SerializedName values of the constants; unknown ones read as null
+    private static ValgrindStrategy toValgrindStrategy(String value) {
+        if (value == null) {
+            return null;
+        }
+        switch (value) {
+            case "":
+                return ValgrindStrategy.NONE;
+            case "fail":
+                return ValgrindStrategy.FAIL;
+            default:
+                return null;
+        }
+    }
+
+    private static String toJson(ValgrindStrategy strategy) {
+        if (strategy == null) {
+            return null;
+        }
+        return strategy == ValgrindStrategy.NONE ? "" : "fail";
+    }
+}
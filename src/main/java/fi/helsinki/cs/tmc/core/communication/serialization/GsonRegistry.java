@@ -0,0 +1,62 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+import fi.helsinki.cs.tmc.snapshots.LoggableEventTypeAdapter;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.Date;
+
+/**
+ * Shared, preconfigured {@link Gson} instances.
+ *
+ * <p>A Gson instance is thread-safe and caches every type adapter it builds, so
+ * creating a new one for each call throws that work away. Use these instead of
+ * {@code new Gson()}.
+ */
+public final class GsonRegistry {
+
+    private static final Gson PLAIN = new Gson();
+
+    private static final Gson SERVER_RESPONSES =
+            new GsonBuilder()
+                    .registerTypeAdapter(Date.class, new CustomDateDeserializer())
+                    .registerTypeAdapter(Course.class, new CourseTypeAdapter())
+                    .registerTypeAdapter(Exercise.class, new ExerciseTypeAdapter())
+                    .create();
+
+    private static final Gson EVENTS =
+            new GsonBuilder()
+                    .registerTypeAdapter(LoggableEvent.class, new LoggableEventTypeAdapter())
+                    .create();
+
+    private GsonRegistry() {}
+
+    /**
+     * Gson with default settings.
+     */
+    public static Gson plain() {
+        return PLAIN;
+    }
+
+    /**
+     * Gson for course, exercise and review listings from the server, which use a
+     * custom date format. Courses and exercises are read without reflection.
+     *
+     * <p>Submission results are read by {@link SubmissionResultParser}.
+     */
+    public static Gson serverResponses() {
+        return SERVER_RESPONSES;
+    }
+
+    /**
+     * Gson for {@link LoggableEvent}s, both when storing them and sending them to the
+     * snapshot server.
+     */
+    public static Gson events() {
+        return EVENTS;
+    }
+}
@@ -0,0 +1,97 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the value types shared by the hand-written type adapters the same
+ * way Gson's built-in adapters do, so that a JSON null reads as null.
+ */
+final class JsonValues {
+
+    private JsonValues() {}
+
+    static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (in.peek() == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    static URI readUri(JsonReader in) throws IOException {
+        String uri = readString(in);
+        try {
+            return uri == null ? null : new URI(uri);
+        } catch (URISyntaxException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+    }
+
+    static List<String> readStrings(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<String> strings = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            strings.add(readString(in));
+        }
+        in.endArray();
+        return strings;
+    }
+
+    static List<URI> readUris(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<URI> uris = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            uris.add(readUri(in));
+        }
+        in.endArray();
+        return uris;
+    }
+
+    static void writeUri(JsonWriter out, URI uri) throws IOException {
+        out.value(uri == null ? null : uri.toASCIIString());
+    }
+
+    static void writeStrings(JsonWriter out, Iterable<String> strings) throws IOException {
+        if (strings == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (String string : strings) {
+            out.value(string);
+        }
+        out.endArray();
+    }
+
+    static void writeUris(JsonWriter out, Iterable<URI> uris) throws IOException {
+        if (uris == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (URI uri : uris) {
+            writeUri(out, uri);
+        }
+        out.endArray();
+    }
+}
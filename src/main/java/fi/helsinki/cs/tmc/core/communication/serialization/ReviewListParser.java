@@ -2,14 +2,10 @@ package fi.helsinki.cs.tmc.core.communication.serialization;
 
 import fi.helsinki.cs.tmc.core.domain.Review;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
 
 public class ReviewListParser {
@@ -26,12 +22,7 @@ public class ReviewListParser {
             throw new IllegalArgumentException("Empty input");
         }
         try {
-            Gson gson =
-                    new GsonBuilder()
-                            .registerTypeAdapter(Date.class, new CustomDateDeserializer())
-                            .create();
-
-            Review[] reviews = gson.fromJson(json, Review[].class);
+            Review[] reviews = GsonRegistry.serverResponses().fromJson(json, Review[].class);
             return Arrays.asList(reviews);
         } catch (RuntimeException ex) {
             logger.warn("Failed to parse review list", ex);
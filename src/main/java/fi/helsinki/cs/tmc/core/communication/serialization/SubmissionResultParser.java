@@ -1,39 +1,109 @@
 package fi.helsinki.cs.tmc.core.communication.serialization;
 
+import fi.helsinki.cs.tmc.core.domain.submission.FeedbackQuestion;
 import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
 import fi.helsinki.cs.tmc.core.domain.submission.ValidationErrorImpl;
+import fi.helsinki.cs.tmc.core.domain.submission.ValidationResultImpl;
 import fi.helsinki.cs.tmc.langs.abstraction.ValidationError;
-import fi.helsinki.cs.tmc.stylerunner.validation.CheckstyleResult;
+import fi.helsinki.cs.tmc.langs.abstraction.ValidationResult;
+import fi.helsinki.cs.tmc.langs.domain.TestResult;
 import fi.helsinki.cs.tmc.testrunner.CaughtException;
 import fi.helsinki.cs.tmc.testrunner.StackTraceSerializer;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.reflect.TypeParameter;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.InstanceCreator;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
-import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
 public class SubmissionResultParser {
 
     private static final Logger logger = LoggerFactory.getLogger(SubmissionResultParser.class);
 
+    private static final Gson gson =
+            new GsonBuilder()
+                    .registerTypeAdapter(
+                            SubmissionResult.Status.class, new StatusDeserializer())
+                    // TODO: is this needed anymore?
+                    .registerTypeAdapter(
+                            StackTraceElement.class, new StackTraceSerializer())
+                    .registerTypeAdapter(
+                            ImmutableList.class, new ImmutableListJsonDeserializer())
+                    .registerTypeAdapter(
+                            /* Needed because ValidationResultImpl stores filenames in
+                             * Map<File, List<ValidationError>, but Gson doesn't know
+                             * how to deserialize a string into a File */
+                            File.class, new FileDeserializer())
+                    .registerTypeAdapterFactory(
+                            /* Needed because ValidationResultImpl stores errors in
+                             * abstract ValidationErrors which obviously don't have a
+                             * default constructor or fields for Gson to use */
+                            new ValidationErrorAdapterFactory())
+                    .create();
+
+    // TODO: is this needed anymore?
+    private static final Gson caughtExceptionGson =
+            new GsonBuilder()
+                    .registerTypeAdapter(StackTraceElement.class, new StackTraceSerializer())
+                    .create();
+
+    private static final TypeAdapter<List<TestResult>> testCasesAdapter =
+            gson.getAdapter(new com.google.gson.reflect.TypeToken<List<TestResult>>() {});
+    private static final TypeAdapter<List<FeedbackQuestion>> feedbackQuestionsAdapter =
+            gson.getAdapter(new com.google.gson.reflect.TypeToken<List<FeedbackQuestion>>() {});
+    private static final TypeAdapter<List<String>> stringListAdapter =
+            gson.getAdapter(new com.google.gson.reflect.TypeToken<List<String>>() {});
+    private static final TypeAdapter<SubmissionResult.Status> statusAdapter =
+            gson.getAdapter(SubmissionResult.Status.class);
+    private static final TypeAdapter<SubmissionResult.SandboxStatus> sandboxStatusAdapter =
+            gson.getAdapter(SubmissionResult.SandboxStatus.class);
+    private static final TypeAdapter<ValidationResultImpl> validationsAdapter =
+            gson.getAdapter(ValidationResultImpl.class);
+
+    // Like the reflective adapter, an explicit null overrides the default value of
+    // object fields while primitives keep theirs.
+    private static final Set<String> NULLABLE_FIELDS =
+            ImmutableSet.of(
+                    "error",
+                    "course",
+                    "exercise_name",
+                    "status",
+                    "sandbox_status",
+                    "submission_url",
+                    "points",
+                    "message_for_paste",
+                    "missing_review_points",
+                    "test_cases",
+                    "feedback_questions",
+                    "feedback_answer_url",
+                    "solution_url",
+                    "valgrind",
+                    "submitted_at",
+                    "validations");
+
     public SubmissionResult parseFromJson(final String json) {
 
         if (json.trim().isEmpty()) {
@@ -41,51 +111,159 @@ public class SubmissionResultParser {
             throw new IllegalArgumentException("Empty input");
         }
 
+        return parseFromJson(new StringReader(json));
+    }
+
+    /**
+     * Parses a submission result in a single pass over {@code json}, so that large
+     * results can be read straight from a response stream.
+     */
+    public SubmissionResult parseFromJson(final Reader json) {
         try {
+            return read(new JsonReader(json));
+        } catch (RuntimeException | IOException exception) {
+            logger.warn("Failed to parse submission result", exception);
+            throw new RuntimeException(
+                    "Failed to parse submission result: " + exception.getMessage(), exception);
+        }
+    }
 
-            Gson gson =
-                    new GsonBuilder()
-                            .registerTypeAdapter(
-                                    SubmissionResult.Status.class, new StatusDeserializer())
-                            // TODO: is this needed anymore?
-                            .registerTypeAdapter(
-                                    StackTraceElement.class, new StackTraceSerializer())
-                            .registerTypeAdapter(
-                                    ImmutableList.class, new ImmutableListJsonDeserializer())
-                            .registerTypeAdapter(
-                                    /* Needed because ValidationResultImpl stores filenames in
-                                     * Map<File, List<ValidationError>, but Gson doesn't know
-                                     * how to deserialize a string into a File */
-                                    File.class, new FileDeserializer())
-                            .registerTypeAdapter(
-                                    /* Needed because ValidationResultImpl stores errors in
-                                     * abstract ValidationErrors which obviously don't have a
-                                     * default constructor for Gson to use */
-                                    ValidationError.class, new ValidationErrorInstanceCreator())
-                            .create();
-
-            SubmissionResult result = gson.fromJson(json, SubmissionResult.class);
-
-            // Parse validations field from JSON
-            JsonObject output = new JsonParser().parse(json).getAsJsonObject();
-            JsonElement validationElement = output.get("validations");
-
-            if (validationElement != null) {
-                result.setValidationResult(CheckstyleResult.build(validationElement.toString()));
-            } else {
-                result.setValidationResult(CheckstyleResult.build("{}"));
+    /**
+     * Reads only the top-level {@code status} and {@code sandbox_status} fields,
+     * stopping as soon as both are known. Everything else is left at its default.
+     *
+     * <p>Meant for polling a submission that is still being processed; use
+     * {@link #parseFromJson(String)} for the final result.
+     */
+    public SubmissionResult parseStatus(final String json) {
+        SubmissionResult result = new SubmissionResult();
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            boolean statusRead = false;
+            boolean sandboxStatusRead = false;
+            reader.beginObject();
+            while (reader.hasNext() && !(statusRead && sandboxStatusRead)) {
+                String name = reader.nextName();
+                if (name.equals("status") && reader.peek() != JsonToken.NULL) {
+                    result.setStatus(statusAdapter.read(reader));
+                    statusRead = true;
+                } else if (name.equals("sandbox_status") && reader.peek() != JsonToken.NULL) {
+                    result.setSandboxStatus(sandboxStatusAdapter.read(reader));
+                    sandboxStatusRead = true;
+                } else {
+                    reader.skipValue();
+                }
             }
-
             return result;
-
-        } catch (RuntimeException | IOException runtimeException) {
-            logger.warn("Failed to parse submission result", runtimeException);
+        } catch (RuntimeException | IOException exception) {
+            logger.warn("Failed to parse submission status", exception);
             throw new RuntimeException(
-                    "Failed to parse submission result: " + runtimeException.getMessage(),
-                    runtimeException);
+                    "Failed to parse submission status: " + exception.getMessage(), exception);
         }
     }
 
+    private SubmissionResult read(JsonReader reader) throws IOException {
+        SubmissionResult result = new SubmissionResult();
+        ValidationResult validations = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL && !NULLABLE_FIELDS.contains(name)) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "api_version":
+                    result.setApiVersion(reader.nextInt());
+                    break;
+                case "all_tests_passed":
+                    result.setAllTestsPassed(reader.nextBoolean());
+                    break;
+                case "user_id":
+                    result.setUserId(reader.nextInt());
+                    break;
+                case "error":
+                    result.setError(nextString(reader));
+                    break;
+                case "course":
+                    result.setCourse(nextString(reader));
+                    break;
+                case "exercise_name":
+                    result.setExerciseName(nextString(reader));
+                    break;
+                case "status":
+                    result.setStatus(statusAdapter.read(reader));
+                    break;
+                case "sandbox_status":
+                    result.setSandboxStatus(sandboxStatusAdapter.read(reader));
+                    break;
+                case "submission_url":
+                    result.setSubmissionUrl(nextString(reader));
+                    break;
+                case "points":
+                    result.setPoints(stringListAdapter.read(reader));
+                    break;
+                case "processing_time":
+                    result.setProcessingTime(reader.nextInt());
+                    break;
+                case "message_for_paste":
+                    result.setMessageForPaste(nextString(reader));
+                    break;
+                case "missing_review_points":
+                    result.setMissingReviewPoints(stringListAdapter.read(reader));
+                    break;
+                case "test_cases":
+                    result.setTestCases(testCasesAdapter.read(reader));
+                    break;
+                case "feedback_questions":
+                    result.setFeedbackQuestions(feedbackQuestionsAdapter.read(reader));
+                    break;
+                case "feedback_answer_url":
+                    result.setFeedbackAnswerUrl(nextString(reader));
+                    break;
+                case "solution_url":
+                    result.setSolutionUrl(nextString(reader));
+                    break;
+                case "valgrind":
+                    result.setValgrind(nextString(reader));
+                    break;
+                case "reviewed":
+                    result.setReviewed(reader.nextBoolean());
+                    break;
+                case "requests_review":
+                    result.setRequestsReview(reader.nextBoolean());
+                    break;
+                case "submitted_at":
+                    result.setSubmittedAt(nextString(reader));
+                    break;
+                case "validations":
+                    validations = validationsAdapter.read(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        result.setValidationResult(validations != null ? validations : noValidations());
+        return result;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static ValidationResult noValidations() {
+        ValidationResultImpl validations = new ValidationResultImpl();
+        validations.setValidationErrors(new HashMap<File, List<ValidationError>>());
+        return validations;
+    }
+
     private static class StatusDeserializer implements JsonDeserializer<SubmissionResult.Status> {
 
         private static final Logger logger = LoggerFactory.getLogger(StatusDeserializer.class);
@@ -104,11 +282,14 @@ public class SubmissionResultParser {
         }
     }
 
-    private static class ValidationErrorInstanceCreator
-            implements InstanceCreator<ValidationError> {
+    private static class ValidationErrorAdapterFactory implements TypeAdapterFactory {
         @Override
-        public ValidationError createInstance(Type type) {
-            return new ValidationErrorImpl();
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, com.google.gson.reflect.TypeToken<T> type) {
+            if (type.getRawType() != ValidationError.class) {
+                return null;
+            }
+            return (TypeAdapter<T>) gson.getAdapter(ValidationErrorImpl.class);
         }
     }
 
@@ -130,14 +311,7 @@ public class SubmissionResultParser {
                 throws JsonParseException {
             // This might really be a Java Exception / stack trace element list :D but of objects
             if (json.isJsonObject()) {
-                Gson gson =
-                        new GsonBuilder()
-                                // TODO: is this needed anymore?
-                                .registerTypeAdapter(
-                                        StackTraceElement.class, new StackTraceSerializer())
-                                .create();
-
-                CaughtException result = gson.fromJson(json, CaughtException.class);
+                CaughtException result = caughtExceptionGson.fromJson(json, CaughtException.class);
 
 
                 List<String> exception = new ArrayList<>();
@@ -0,0 +1,53 @@
+package fi.helsinki.cs.tmc.core.communication.submission;
+
+import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Polls with a delay that grows with the time the submission has been waiting.
+ *
+ * <p>A submission that is already running on the sandbox is checked often since its
+ * result is about to be ready, while one that is still queued backs off up to
+ * {@code maxDelayMillis}. Each delay is randomized so that clients that submitted at
+ * the same moment don't keep polling the server in lockstep.
+ */
+public class BackoffSubmissionResultWaiter implements SubmissionResultWaiter {
+
+    private static final long DEFAULT_MIN_DELAY = 1000;
+    private static final long DEFAULT_MAX_DELAY = 60 * 1000;
+    private static final long SANDBOX_RUNNING_MAX_DELAY = 2000;
+
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+
+    public BackoffSubmissionResultWaiter() {
+        this(DEFAULT_MIN_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    public BackoffSubmissionResultWaiter(long minDelayMillis, long maxDelayMillis) {
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    @Override
+    public void awaitNextCheck(SubmissionResult latest, long elapsedMillis)
+            throws InterruptedException {
+        Thread.sleep(nextDelay(latest, elapsedMillis));
+    }
+
+    /**
+     * Returns the number of milliseconds to wait before the next check.
+     */
+    protected long nextDelay(SubmissionResult latest, long elapsedMillis) {
+        long delay = Math.max(minDelayMillis, Math.min(maxDelayMillis, elapsedMillis / 4));
+        if (latest != null
+                && latest.getSandboxStatus() == SubmissionResult.SandboxStatus.PROCESSING_ON_SANDBOX) {
+            delay = Math.min(delay, Math.max(minDelayMillis, SANDBOX_RUNNING_MAX_DELAY));
+        }
+
+        // Wait at least half of the delay, spread the rest randomly
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+}
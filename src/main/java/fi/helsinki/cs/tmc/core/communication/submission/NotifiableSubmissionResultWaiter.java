@@ -0,0 +1,48 @@
+package fi.helsinki.cs.tmc.core.communication.submission;
+
+import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
+
+/**
+ * Waits until someone reports that the result is available, for example a client
+ * listening to the course's comet channel ({@code Course.getCometUrl()}).
+ *
+ * <p>Polling continues in the background with a longer backoff in case a
+ * notification is missed.
+ */
+public class NotifiableSubmissionResultWaiter extends BackoffSubmissionResultWaiter {
+
+    private static final long FALLBACK_MIN_DELAY = 5 * 1000;
+    private static final long FALLBACK_MAX_DELAY = 2 * 60 * 1000;
+
+    private final Object lock = new Object();
+    private boolean resultAvailable;
+
+    public NotifiableSubmissionResultWaiter() {
+        super(FALLBACK_MIN_DELAY, FALLBACK_MAX_DELAY);
+    }
+
+    /**
+     * Wakes up the waiting submission so that it fetches its result immediately.
+     * May be called from any thread.
+     */
+    public void resultAvailable() {
+        synchronized (lock) {
+            resultAvailable = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void awaitNextCheck(SubmissionResult latest, long elapsedMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + nextDelay(latest, elapsedMillis);
+        synchronized (lock) {
+            long remaining;
+            while (!resultAvailable
+                    && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                lock.wait(remaining);
+            }
+            resultAvailable = false;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package fi.helsinki.cs.tmc.core.communication.submission;
+
+import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
+
+/**
+ * Decides when {@link fi.helsinki.cs.tmc.core.commands.Submit} checks the server
+ * again for the result of a submission.
+ *
+ * <p>Implementations may simply sleep, or return as soon as they are told that the
+ * result is available, see {@link NotifiableSubmissionResultWaiter}.
+ */
+public interface SubmissionResultWaiter {
+
+    /**
+     * Blocks until the result of the submission should be fetched again.
+     *
+     * @param latest the most recently fetched, still processing, result or null before
+     *     the first fetch
+     * @param elapsedMillis milliseconds since the submission was sent
+     */
+    void awaitNextCheck(SubmissionResult latest, long elapsedMillis) throws InterruptedException;
+}
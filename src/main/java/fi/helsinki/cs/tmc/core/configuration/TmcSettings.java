@@ -10,6 +10,7 @@ import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
 
 import java.nio.file.Path;
 import java.util.Locale;
+import java.util.zip.Deflater;
 
 public interface TmcSettings {
 
@@ -78,4 +79,88 @@ public interface TmcSettings {
     Optional<Organization> getOrganization();
 
     void setOrganization(Optional<Organization> organization);
+
+    /**
+     * Maximum number of pooled HTTP connections kept open to a single server.
+     */
+    default int getHttpMaxConnectionsPerRoute() {
+        return 8;
+    }
+
+    /**
+     * Maximum number of pooled HTTP connections kept open in total.
+     */
+    default int getHttpMaxConnectionsTotal() {
+        return 32;
+    }
+
+    /**
+     * Milliseconds after which an unused pooled HTTP connection is closed.
+     */
+    default long getHttpIdleConnectionTimeout() {
+        return 30 * 1000;
+    }
+
+    /**
+     * Number of exercises downloaded concurrently when downloading or updating exercises.
+     */
+    default int getExerciseDownloadThreads() {
+        return 4;
+    }
+
+    /**
+     * Maximum size in bytes of the exercise zip cache under {@link #getConfigRoot()}.
+     * Zero disables the cache and the manifests of extracted exercises.
+     */
+    default long getExerciseZipCacheMaxBytes() {
+        return 256L * 1024 * 1024;
+    }
+
+    /**
+     * Whether course and organization listings are cached under {@link #getConfigRoot()}
+     * and revalidated with conditional requests instead of downloaded every time.
+     */
+    default boolean getHttpResponseCacheEnabled() {
+        return true;
+    }
+
+    /**
+     * Gzip compression level of snapshot event uploads, from 0 (none) to 9 (best), or -1
+     * for the zlib default. Lower levels use less CPU for larger uploads.
+     */
+    default int getSnapshotCompressionLevel() {
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Whether snapshot events are uploaded in the binary encoding ({@code X-Tmc-Version: 2})
+     * instead of JSON. Only enable this for snapshot servers that accept it: a server that
+     * predates the encoding may store the body without rejecting it.
+     */
+    default boolean getSnapshotBinaryUploadsEnabled() {
+        return false;
+    }
+
+    /**
+     * Number of threads for background work that waits for the network, like sending
+     * snapshot events.
+     */
+    default int getNetworkIoThreads() {
+        return 6;
+    }
+
+    /**
+     * Number of threads for background work that waits for the disk, like saving
+     * snapshot events.
+     */
+    default int getDiskIoThreads() {
+        return 2;
+    }
+
+    /**
+     * Number of threads for short background computations.
+     */
+    default int getCpuThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
 }
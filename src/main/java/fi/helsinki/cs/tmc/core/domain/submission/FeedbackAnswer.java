@@ -1,6 +1,7 @@
 package fi.helsinki.cs.tmc.core.domain.submission;
 
-import com.google.gson.Gson;
+import fi.helsinki.cs.tmc.core.communication.serialization.GsonRegistry;
+
 import com.google.gson.JsonObject;
 
 public class FeedbackAnswer {
@@ -36,6 +37,6 @@ public class FeedbackAnswer {
         JsonObject obj = new JsonObject();
         obj.addProperty("question_id", question.getId());
         obj.addProperty("answer", answer);
-        return new Gson().toJson(obj);
+        return GsonRegistry.plain().toJson(obj);
     }
 }
@@ -1,19 +1,83 @@
 package fi.helsinki.cs.tmc.core.events;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import fi.helsinki.cs.tmc.core.holders.TmcExecutorsHolder;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * Delivers {@link TmcEvent}s to subscribed {@link TmcEventListener}s.
+ *
+ * <p>Listeners subscribed with {@code subscribe*} receive events on the posting thread,
+ * one event at a time. Listeners that may be slow, for example ones doing I/O, should be
+ * subscribed with {@link #subscribeAsync}: they get their own bounded queue that is
+ * drained on a shared executor, so that posting never waits for them. Posting takes no
+ * lock unless there are synchronous listeners for the event.
+ *
+ * <p>An event only goes to the listeners that may want it: ones subscribed to a
+ * supertype of its class and, unless they override {@link TmcEventListener#receive},
+ * that have a {@code receive} method for exactly its class. The matching subscriptions
+ * are worked out once per event class. A subscription may further filter events with
+ * a predicate, for example by course.
+ */
 public class TmcEventBus {
     private static final Logger log = LoggerFactory.getLogger(TmcEventBus.class.getName());
     private static final TmcEventBus instance = new TmcEventBus();
 
+    public static final int DEFAULT_ASYNC_CAPACITY = 1024;
+
+    // Events delivered to an asynchronous listener before giving its thread back
+    private static final int MAX_EVENTS_PER_DRAIN = 64;
+
+    /**
+     * In which order an asynchronous listener receives events.
+     */
+    public enum Ordering {
+        /** One event at a time, in the order they were posted. */
+        ORDERED,
+        /** Possibly several events at a time on different threads. */
+        UNORDERED
+    }
+
+    /**
+     * What posting does when the queue of an asynchronous listener is full.
+     */
+    public enum OverflowPolicy {
+        /** The new event is discarded. */
+        DROP,
+        /**
+         * The posting thread waits for room. Never use with events posted from a UI
+         * thread, or from a thread of the asynchronous executor, for example by another
+         * asynchronous listener: if every thread of the executor waits for room, none
+         * is left to drain the queue and posting deadlocks.
+         */
+        BLOCK,
+        /**
+         * The new event replaces the oldest queued event of the same class, or the oldest
+         * queued event if there is none, so that the latest events win.
+         */
+        COALESCE
+    }
+
     public static TmcEventBus getDefault() {
         return instance;
     }
@@ -23,8 +87,18 @@ public class TmcEventBus {
         return new TmcEventBus();
     }
 
-    private List<TmcEventListener> listeners;
-    private Queue<TmcEvent> eventQueue;
+    // Copy-on-write so that posting iterates over them without a lock
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    // Event class -> matching subscriptions. Replaced whenever subscriptions change.
+    private volatile ConcurrentMap<Class<?>, Routes> routes = new ConcurrentHashMap<>();
+    // Weakly subscribed listeners and dependencies are enqueued here once collected
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    // Null means the disk IO pool of the current TmcExecutors
+    private volatile Executor asyncExecutor;
+
+    // Must only be accessed with a lock on itself. Synchronous listeners are
+    // delivered events with this lock held.
+    private final Queue<TmcEvent> eventQueue = new ArrayDeque<>();
 
     private static interface Wrapper {
         public boolean wraps(TmcEventListener that);
@@ -33,8 +107,8 @@ public class TmcEventBus {
     private static class WeakListener extends TmcEventListener implements Wrapper {
         private WeakReference<TmcEventListener> weakRef;
 
-        public WeakListener(TmcEventListener listener) {
-            this.weakRef = new WeakReference<>(listener);
+        public WeakListener(TmcEventListener listener, ReferenceQueue<Object> collected) {
+            this.weakRef = new WeakReference<TmcEventListener>(listener, collected);
         }
 
         @Override
@@ -60,9 +134,10 @@ public class TmcEventBus {
         private TmcEventListener listener;
         private WeakReference<Object> weakRef;
 
-        public DependentListener(TmcEventListener listener, Object dependency) {
+        public DependentListener(
+                TmcEventListener listener, Object dependency, ReferenceQueue<Object> collected) {
             this.listener = listener;
-            this.weakRef = new WeakReference<>(dependency);
+            this.weakRef = new WeakReference<>(dependency, collected);
         }
 
         @Override
@@ -81,72 +156,390 @@ public class TmcEventBus {
         }
     }
 
+    private static class Subscription {
+        private final Class<?> eventType;
+        private final Predicate<Object> filter;
+        // Event classes the subscribed listener has a receive method for, null for any
+        private final Set<Class<?>> receivedTypes;
+        private final TmcEventListener listener;
+        private final AsyncListener async; // null if delivered on the posting thread
+
+        @SuppressWarnings("unchecked")
+        Subscription(
+                Class<?> eventType,
+                Predicate<?> filter,
+                TmcEventListener subscribed,
+                TmcEventListener listener,
+                AsyncListener async) {
+            this.eventType = eventType;
+            this.filter = (Predicate<Object>) filter;
+            this.receivedTypes = subscribed.getReceivedEventTypes();
+            this.listener = listener;
+            this.async = async;
+        }
+
+        boolean routes(Class<?> eventClass) {
+            return eventType.isAssignableFrom(eventClass)
+                    && (receivedTypes == null || receivedTypes.contains(eventClass));
+        }
+
+        boolean wraps(TmcEventListener that) {
+            return listener == that
+                    || (listener instanceof Wrapper && ((Wrapper) listener).wraps(that));
+        }
+    }
+
+    private static class Routes {
+        private static final Subscription[] NONE = new Subscription[0];
+
+        private final Subscription[] sync;
+        private final Subscription[] async;
+
+        Routes(List<Subscription> subscriptions, Class<?> eventClass) {
+            List<Subscription> sync = new ArrayList<>();
+            List<Subscription> async = new ArrayList<>();
+            for (Subscription subscription : subscriptions) {
+                if (subscription.routes(eventClass)) {
+                    (subscription.async == null ? sync : async).add(subscription);
+                }
+            }
+            this.sync = sync.toArray(NONE);
+            this.async = async.toArray(NONE);
+        }
+    }
+
+    private class AsyncListener implements Wrapper {
+        private final TmcEventListener listener;
+        private final int capacity;
+        private final Ordering ordering;
+        private final OverflowPolicy overflowPolicy;
+
+        // The following variables must only be accessed with a lock on this.
+        private final ArrayDeque<TmcEvent> queue = new ArrayDeque<>();
+        private boolean draining = false;
+
+        private final Runnable drainer =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                };
+
+        AsyncListener(
+                TmcEventListener listener,
+                int capacity,
+                Ordering ordering,
+                OverflowPolicy overflowPolicy) {
+            this.listener = listener;
+            this.capacity = capacity;
+            this.ordering = ordering;
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        @Override
+        public boolean wraps(TmcEventListener that) {
+            return listener == that;
+        }
+
+        void offer(TmcEvent event) {
+            synchronized (this) {
+                if (queue.size() >= capacity && !makeRoom(event)) {
+                    return;
+                }
+                queue.add(event);
+                if (ordering == Ordering.ORDERED) {
+                    if (draining) {
+                        return;
+                    }
+                    draining = true;
+                }
+            }
+            schedule();
+        }
+
+        /**
+         * Applies the overflow policy to a full queue and returns whether {@code event}
+         * should still be queued. Must be called with a lock on this.
+         */
+        private boolean makeRoom(TmcEvent event) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    try {
+                        while (queue.size() >= capacity) {
+                            wait();
+                        }
+                        return true;
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        log.info("Interrupted while waiting to queue event {}", event);
+                        return false;
+                    }
+                case COALESCE:
+                    Iterator<TmcEvent> iter = queue.iterator();
+                    while (iter.hasNext()) {
+                        if (iter.next().getClass() == event.getClass()) {
+                            iter.remove();
+                            return true;
+                        }
+                    }
+                    queue.remove();
+                    return true;
+                default:
+                    log.debug("Event queue of {} full, dropping {}", listener, event);
+                    return false;
+            }
+        }
+
+        private void schedule() {
+            try {
+                getAsyncExecutor().execute(drainer);
+            } catch (RejectedExecutionException ex) {
+                log.warn("Could not deliver events to {}", listener, ex);
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+        }
+
+        private void drain() {
+            if (ordering == Ordering.UNORDERED) {
+                // One task was scheduled for each queued event
+                deliver(listener, poll());
+                return;
+            }
+
+            for (int i = 0; i < MAX_EVENTS_PER_DRAIN; i++) {
+                TmcEvent event;
+                synchronized (this) {
+                    if (queue.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+                    event = poll();
+                }
+                deliver(listener, event);
+            }
+            // Let other listeners have the thread, continue later
+            schedule();
+        }
+
+        private synchronized TmcEvent poll() {
+            TmcEvent event = queue.poll();
+            notifyAll();
+            return event;
+        }
+    }
+
     private TmcEventBus() {
-        this.listeners = new ArrayList<>();
-        this.eventQueue = new ArrayDeque<>();
+    }
+
+    /**
+     * Sets the executor on which asynchronous listeners receive events. Defaults to
+     * the disk IO pool of {@link TmcExecutorsHolder}, since asynchronous listeners are
+     * the ones that do I/O and must not take the threads of short computations.
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    private Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        return executor != null ? executor : TmcExecutorsHolder.get().getDiskIo();
     }
 
     /**
      * Subscribes a listener that is never unsubscribed automatically.
      */
-    public synchronized void subscribeStrongly(TmcEventListener listener) {
-        this.listeners.add(listener);
+    public void subscribeStrongly(TmcEventListener listener) {
+        subscribeStrongly(TmcEvent.class, listener);
+    }
+
+    /**
+     * Subscribes a listener to events of {@code eventType} and its subclasses. The
+     * listener is never unsubscribed automatically.
+     */
+    public void subscribeStrongly(Class<? extends TmcEvent> eventType, TmcEventListener listener) {
+        subscribeStrongly(eventType, Predicates.alwaysTrue(), listener);
+    }
+
+    /**
+     * Subscribes a listener to the events of {@code eventType} and its subclasses that
+     * {@code filter} accepts. The listener is never unsubscribed automatically.
+     */
+    public <T extends TmcEvent> void subscribeStrongly(
+            Class<T> eventType, Predicate<? super T> filter, TmcEventListener listener) {
+        subscribe(new Subscription(eventType, filter, listener, listener, null));
+    }
+
+    /**
+     * Subscribes a listener that receives events on the asynchronous executor in the
+     * order they were posted, dropping events if more than
+     * {@link #DEFAULT_ASYNC_CAPACITY} are waiting.
+     */
+    public void subscribeAsync(TmcEventListener listener) {
+        subscribeAsync(listener, DEFAULT_ASYNC_CAPACITY, Ordering.ORDERED, OverflowPolicy.DROP);
+    }
+
+    /**
+     * Subscribes a listener that receives events on the asynchronous executor. At most
+     * {@code capacity} events wait for it; what happens to more depends on
+     * {@code overflowPolicy}. The listener is never unsubscribed automatically.
+     */
+    public void subscribeAsync(
+            TmcEventListener listener,
+            int capacity,
+            Ordering ordering,
+            OverflowPolicy overflowPolicy) {
+        subscribeAsync(
+                TmcEvent.class, Predicates.alwaysTrue(), listener, capacity, ordering,
+                overflowPolicy);
+    }
+
+    /**
+     * Like {@link #subscribeAsync(TmcEventListener, int, Ordering, OverflowPolicy)} but
+     * only for the events of {@code eventType} and its subclasses that {@code filter}
+     * accepts. Filtered events do not take room in the queue.
+     */
+    public <T extends TmcEvent> void subscribeAsync(
+            Class<T> eventType,
+            Predicate<? super T> filter,
+            TmcEventListener listener,
+            int capacity,
+            Ordering ordering,
+            OverflowPolicy overflowPolicy) {
+        checkArgument(capacity > 0);
+        AsyncListener async = new AsyncListener(listener, capacity, ordering, overflowPolicy);
+        subscribe(new Subscription(eventType, filter, listener, listener, async));
     }
 
     /**
      * Subscribes a weak reference to a listener.
      * After all normal references to the listener disappear, it will eventually be unsubscribed.
      */
-    public synchronized void subscribeWeakly(TmcEventListener listener) {
-        this.listeners.add(new WeakListener(listener));
+    public void subscribeWeakly(TmcEventListener listener) {
+        subscribeWeakly(TmcEvent.class, Predicates.alwaysTrue(), listener);
+    }
+
+    /**
+     * Like {@link #subscribeWeakly(TmcEventListener)} but only for the events of
+     * {@code eventType} and its subclasses that {@code filter} accepts.
+     */
+    public <T extends TmcEvent> void subscribeWeakly(
+            Class<T> eventType, Predicate<? super T> filter, TmcEventListener listener) {
+        subscribe(
+                new Subscription(
+                        eventType, filter, listener, new WeakListener(listener, collected), null));
     }
 
     /**
      * Subscribes a listener that is eventually removed after a given dependency
      * is garbage-collected.
      */
-    public synchronized void subscribeDependent(TmcEventListener listener, Object dependency) {
-        this.listeners.add(new DependentListener(listener, dependency));
-    }
-
-    public synchronized void unsubscribe(TmcEventListener toRemove) {
-        Iterator<TmcEventListener> iter = listeners.iterator();
-        while (iter.hasNext()) {
-            TmcEventListener listener = iter.next();
-            boolean remove =
-                    (listener == toRemove)
-                            || (listener instanceof Wrapper
-                                    && ((Wrapper) listener).wraps(toRemove));
-            if (remove) {
-                iter.remove();
-                break;
+    public void subscribeDependent(TmcEventListener listener, Object dependency) {
+        subscribe(
+                new Subscription(
+                        TmcEvent.class,
+                        Predicates.alwaysTrue(),
+                        listener,
+                        new DependentListener(listener, dependency, collected),
+                        null));
+    }
+
+    private void subscribe(Subscription subscription) {
+        removeCollected();
+        subscriptions.add(subscription);
+        routes = new ConcurrentHashMap<>();
+    }
+
+    public void unsubscribe(TmcEventListener toRemove) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.wraps(toRemove) && subscriptions.remove(subscription)) {
+                routes = new ConcurrentHashMap<>();
+                return;
             }
         }
     }
 
-    public synchronized void post(TmcEvent event) {
-        eventQueue.add(event);
-        processEventQueue();
+    /**
+     * Removes the subscriptions of listeners or dependencies that have been garbage
+     * collected. Cheap unless something was collected since the last call.
+     */
+    private void removeCollected() {
+        if (collected.poll() == null) {
+            return;
+        }
+        while (collected.poll() != null) {
+            // Drain, the listeners themselves know whether they are gone
+        }
+
+        List<Subscription> unsubscribed = new ArrayList<>();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener.mayBeUnsubscribed()) {
+                unsubscribed.add(subscription);
+            }
+        }
+        if (!unsubscribed.isEmpty()) {
+            subscriptions.removeAll(unsubscribed);
+            routes = new ConcurrentHashMap<>();
+        }
+    }
+
+    private Routes routesFor(Class<?> eventClass) {
+        // Read routes before subscriptions, so that routes computed from outdated
+        // subscriptions end up in an outdated map
+        ConcurrentMap<Class<?>, Routes> currentRoutes = routes;
+        Routes eventRoutes = currentRoutes.get(eventClass);
+        if (eventRoutes == null) {
+            eventRoutes = new Routes(subscriptions, eventClass);
+            currentRoutes.putIfAbsent(eventClass, eventRoutes);
+        }
+        return eventRoutes;
+    }
+
+    public void post(TmcEvent event) {
+        removeCollected();
+        Routes eventRoutes = routesFor(event.getClass());
+        for (Subscription subscription : eventRoutes.async) {
+            if (subscription.filter.apply(event)) {
+                subscription.async.offer(event);
+            }
+        }
+
+        if (eventRoutes.sync.length == 0) {
+            return;
+        }
+        synchronized (eventQueue) {
+            eventQueue.add(event);
+            processEventQueue();
+        }
     }
 
     private void processEventQueue() {
-        // This handles post() during post()
-        // but not yet subscribe*() during post().
+        // This handles post() during post(). Listeners subscribed during post()
+        // receive the events posted after they were subscribed.
         while (!eventQueue.isEmpty()) {
             TmcEvent event = eventQueue.remove();
-            Iterator<TmcEventListener> iter = listeners.iterator();
-            while (iter.hasNext()) {
-                TmcEventListener listener = iter.next();
-                if (listener.mayBeUnsubscribed()) {
-                    iter.remove();
-                } else {
-                    try {
-                        listener.receive(event);
-                    } catch (Throwable ex) {
-                        log.warn(ex.getMessage(), ex);
-                    }
+            for (Subscription subscription : routesFor(event.getClass()).sync) {
+                // Custom listeners may still decide to go away
+                if (subscription.listener.mayBeUnsubscribed()) {
+                    subscriptions.remove(subscription);
+                    routes = new ConcurrentHashMap<>();
+                } else if (subscription.filter.apply(event)) {
+                    deliver(subscription.listener, event);
                 }
             }
         }
     }
+
+    private static void deliver(TmcEventListener listener, TmcEvent event) {
+        if (event == null) {
+            return;
+        }
+        try {
+            listener.receive(event);
+        } catch (Throwable ex) {
+            log.warn(ex.getMessage(), ex);
+        }
+    }
 }
@@ -2,7 +2,10 @@ package fi.helsinki.cs.tmc.core.events;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Receives events related to the TMC plugin.
@@ -11,6 +14,7 @@ import java.util.HashMap;
  */
 public abstract class TmcEventListener {
     private HashMap<Class<?>, Method> receiverMethods;
+    private Set<Class<?>> receivedEventTypes;
 
     public TmcEventListener() {
         receiverMethods = new HashMap<>();
@@ -21,6 +25,21 @@ public abstract class TmcEventListener {
                 receiverMethods.put(m.getParameterTypes()[0], m);
             }
         }
+
+        Method receive = receiverMethods.get(TmcEvent.class);
+        if (receive == null || receive.getDeclaringClass() == TmcEventListener.class) {
+            Set<Class<?>> types = new HashSet<>(receiverMethods.keySet());
+            types.remove(TmcEvent.class);
+            receivedEventTypes = Collections.unmodifiableSet(types);
+        }
+    }
+
+    /**
+     * Returns the event classes this listener has a {@code receive} method for, or null
+     * if it overrides {@link #receive(TmcEvent)} and may want any event.
+     */
+    Set<Class<?>> getReceivedEventTypes() {
+        return receivedEventTypes;
     }
 
     public void receive(TmcEvent event) throws Throwable {
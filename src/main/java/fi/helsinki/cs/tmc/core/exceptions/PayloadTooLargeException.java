@@ -0,0 +1,18 @@
+package fi.helsinki.cs.tmc.core.exceptions;
+
+/**
+ * Thrown when the server rejects a request body as too large (HTTP 413).
+ */
+public class PayloadTooLargeException extends TmcCoreException {
+
+    private final long payloadSize;
+
+    public PayloadTooLargeException(long payloadSize) {
+        super("Request body of " + payloadSize + " bytes was too large for the server");
+        this.payloadSize = payloadSize;
+    }
+
+    public long getPayloadSize() {
+        return payloadSize;
+    }
+}
@@ -0,0 +1,34 @@
+package fi.helsinki.cs.tmc.core.holders;
+
+import fi.helsinki.cs.tmc.core.communication.http.HttpClientPool;
+
+/**
+ * Holds the {@link HttpClientPool} shared by all HTTP requests.
+ *
+ * <p>Unlike the other holders this one initializes itself lazily from
+ * {@link TmcSettingsHolder} so that HTTP tasks keep working even when no
+ * pool was explicitly installed.
+ */
+public final class HttpClientPoolHolder {
+
+    private static HttpClientPool pool;
+
+    private HttpClientPoolHolder() {}
+
+    public static synchronized HttpClientPool get() {
+        if (pool == null) {
+            pool = new HttpClientPool(TmcSettingsHolder.get());
+        }
+        return pool;
+    }
+
+    /**
+     * Replaces the current pool. The previous pool, if any, is closed.
+     */
+    public static synchronized void set(HttpClientPool pool) {
+        if (HttpClientPoolHolder.pool != null && HttpClientPoolHolder.pool != pool) {
+            HttpClientPoolHolder.pool.close();
+        }
+        HttpClientPoolHolder.pool = pool;
+    }
+}
@@ -0,0 +1,29 @@
+package fi.helsinki.cs.tmc.core.holders;
+
+import fi.helsinki.cs.tmc.core.communication.http.HttpResponseCache;
+
+import java.nio.file.Path;
+
+/**
+ * Holds the {@link HttpResponseCache} shared by all cached requests.
+ *
+ * <p>The cache lives under the config root of the settings, so it is created lazily
+ * for a directory and replaced if a different directory is asked for.
+ */
+public final class HttpResponseCacheHolder {
+
+    private static HttpResponseCache cache;
+
+    private HttpResponseCacheHolder() {}
+
+    public static synchronized HttpResponseCache get(Path directory) {
+        if (cache == null || !cache.getDirectory().equals(directory)) {
+            cache = new HttpResponseCache(directory);
+        }
+        return cache;
+    }
+
+    public static synchronized void set(HttpResponseCache cache) {
+        HttpResponseCacheHolder.cache = cache;
+    }
+}
@@ -0,0 +1,28 @@
+package fi.helsinki.cs.tmc.core.holders;
+
+import fi.helsinki.cs.tmc.core.metrics.InMemoryMetricsRegistry;
+import fi.helsinki.cs.tmc.core.metrics.MetricsRegistry;
+
+/**
+ * Holds the {@link MetricsRegistry} that tmc-core records its metrics in.
+ *
+ * <p>Like {@link HttpClientPoolHolder} this one initializes itself lazily, with an
+ * {@link InMemoryMetricsRegistry}, so that recording metrics never fails.
+ */
+public final class MetricsHolder {
+
+    private static MetricsRegistry registry;
+
+    private MetricsHolder() {}
+
+    public static synchronized MetricsRegistry get() {
+        if (registry == null) {
+            registry = new InMemoryMetricsRegistry();
+        }
+        return registry;
+    }
+
+    public static synchronized void set(MetricsRegistry registry) {
+        MetricsHolder.registry = registry;
+    }
+}
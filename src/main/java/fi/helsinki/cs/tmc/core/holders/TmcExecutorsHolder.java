@@ -0,0 +1,38 @@
+package fi.helsinki.cs.tmc.core.holders;
+
+import fi.helsinki.cs.tmc.core.utilities.TmcExecutors;
+
+/**
+ * Holds the {@link TmcExecutors} that background work runs on.
+ *
+ * <p>Like {@link HttpClientPoolHolder} this one initializes itself lazily from
+ * {@link TmcSettingsHolder} when no executors were explicitly installed. Executors
+ * that have been shut down are not replaced: their pools reject new tasks with a
+ * {@link java.util.concurrent.RejectedExecutionException} until new executors are
+ * installed with {@link #set}.
+ */
+public final class TmcExecutorsHolder {
+
+    private static TmcExecutors executors;
+
+    private TmcExecutorsHolder() {}
+
+    public static synchronized TmcExecutors get() {
+        if (executors == null) {
+            executors = new TmcExecutors(TmcSettingsHolder.get());
+        }
+        return executors;
+    }
+
+    /**
+     * Replaces the current executors. Tasks already given to the previous executors
+     * still run, but they accept no new ones, so look the executors up here when
+     * submitting instead of keeping a reference to them.
+     */
+    public static synchronized void set(TmcExecutors executors) {
+        if (TmcExecutorsHolder.executors != null && TmcExecutorsHolder.executors != executors) {
+            TmcExecutorsHolder.executors.shutdown();
+        }
+        TmcExecutorsHolder.executors = executors;
+    }
+}
@@ -0,0 +1,13 @@
+package fi.helsinki.cs.tmc.core.metrics;
+
+/**
+ * Counts how many times something happened.
+ */
+public interface Counter {
+
+    void increment();
+
+    void increment(long amount);
+
+    long getCount();
+}
@@ -0,0 +1,23 @@
+package fi.helsinki.cs.tmc.core.metrics;
+
+/**
+ * Summarizes recorded values, like the sizes of request bodies.
+ */
+public interface Histogram {
+
+    void record(long value);
+
+    long getCount();
+
+    long getSum();
+
+    /**
+     * Returns the smallest recorded value, or 0 if nothing was recorded.
+     */
+    long getMin();
+
+    /**
+     * Returns the largest recorded value, or 0 if nothing was recorded.
+     */
+    long getMax();
+}
@@ -0,0 +1,351 @@
+package fi.helsinki.cs.tmc.core.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps metrics in memory so that they can be read back, for example from
+ * {@link fi.helsinki.cs.tmc.core.TmcCore#getMetrics()}.
+ *
+ * <p>Metrics are listed under keys like {@code http.request{endpoint=/api/v8/org.json,
+ * status=200}}, or just the name when a metric has no tags.
+ *
+ * <p>Tracing is off by default. When enabled with {@link #setTracedSpans}, the most
+ * recently ended spans are kept with their tags, start time and error.
+ */
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+
+    /**
+     * A span that has ended.
+     */
+    public static class FinishedSpan {
+        private final String name;
+        private final Map<String, String> tags;
+        private final long startTimeMillis;
+        private final long durationNanos;
+        private final String threadName;
+        private final Throwable error;
+
+        private FinishedSpan(
+                String name,
+                Map<String, String> tags,
+                long startTimeMillis,
+                long durationNanos,
+                String threadName,
+                Throwable error) {
+            this.name = name;
+            this.tags = Collections.unmodifiableMap(tags);
+            this.startTimeMillis = startTimeMillis;
+            this.durationNanos = durationNanos;
+            this.threadName = threadName;
+            this.error = error;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Map<String, String> getTags() {
+            return tags;
+        }
+
+        public long getStartTimeMillis() {
+            return startTimeMillis;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        /**
+         * Returns what the span failed with, or null if it succeeded.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return key(name, flatten(tags)) + " " + TimeUnit.NANOSECONDS.toMillis(durationNanos) + " ms"
+                    + (error != null ? " failed: " + error : "");
+        }
+    }
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    // Must only be accessed with a lock on itself
+    private final Deque<FinishedSpan> recentSpans = new ArrayDeque<>();
+    private volatile int tracedSpans = 0;
+
+    @Override
+    public Counter counter(String name, String... tags) {
+        String key = key(name, tags);
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            Counter created = new AdderCounter();
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    @Override
+    public Timer timer(String name, String... tags) {
+        String key = key(name, tags);
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            Timer created = new Distribution();
+            timer = timers.putIfAbsent(key, created);
+            if (timer == null) {
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    @Override
+    public Histogram histogram(String name, String... tags) {
+        String key = key(name, tags);
+        Histogram histogram = histograms.get(key);
+        if (histogram == null) {
+            Histogram created = new Distribution();
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    @Override
+    public Span startSpan(String name, String... tags) {
+        return new TimedSpan(name, tags);
+    }
+
+    /**
+     * Sets how many of the most recently ended spans are kept. 0 turns tracing off and
+     * forgets the kept spans.
+     */
+    public void setTracedSpans(int tracedSpans) {
+        checkArgument(tracedSpans >= 0);
+        this.tracedSpans = tracedSpans;
+        synchronized (recentSpans) {
+            while (recentSpans.size() > tracedSpans) {
+                recentSpans.removeFirst();
+            }
+        }
+    }
+
+    public SortedMap<String, Counter> getCounters() {
+        return new TreeMap<>(counters);
+    }
+
+    public SortedMap<String, Timer> getTimers() {
+        return new TreeMap<>(timers);
+    }
+
+    public SortedMap<String, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Returns the kept spans, oldest first.
+     */
+    public List<FinishedSpan> getRecentSpans() {
+        synchronized (recentSpans) {
+            return new ArrayList<>(recentSpans);
+        }
+    }
+
+    private void trace(FinishedSpan span) {
+        int max = tracedSpans;
+        if (max == 0) {
+            return;
+        }
+        synchronized (recentSpans) {
+            recentSpans.addLast(span);
+            while (recentSpans.size() > max) {
+                recentSpans.removeFirst();
+            }
+        }
+    }
+
+    private static String key(String name, String... tags) {
+        checkArgument(tags.length % 2 == 0, "Tags must be key-value pairs: %s", Arrays.toString(tags));
+        if (tags.length == 0) {
+            return name;
+        }
+        StringBuilder key = new StringBuilder(name).append('{');
+        for (int i = 0; i < tags.length; i += 2) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(tags[i]).append('=').append(tags[i + 1]);
+        }
+        return key.append('}').toString();
+    }
+
+    private static String[] flatten(Map<String, String> tags) {
+        String[] flat = new String[tags.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            flat[i++] = tag.getKey();
+            flat[i++] = tag.getValue();
+        }
+        return flat;
+    }
+
+    private static class AdderCounter implements Counter {
+        private final LongAdder count = new LongAdder();
+
+        @Override
+        public void increment() {
+            count.increment();
+        }
+
+        @Override
+        public void increment(long amount) {
+            count.add(amount);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount();
+        }
+    }
+
+    private static class Distribution implements Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        @Override
+        public void record(long value) {
+            count.increment();
+            sum.add(value);
+            long current;
+            while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+                // Retry until no other thread recorded a smaller value in between
+            }
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // Retry until no other thread recorded a larger value in between
+            }
+        }
+
+        @Override
+        public void record(long duration, TimeUnit unit) {
+            record(unit.toNanos(duration));
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getSum() {
+            return sum.sum();
+        }
+
+        @Override
+        public long getMin() {
+            return getCount() > 0 ? min.get() : 0;
+        }
+
+        @Override
+        public long getMax() {
+            return getCount() > 0 ? max.get() : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", sum=" + getSum()
+                    + ", min=" + getMin() + ", max=" + getMax();
+        }
+    }
+
+    private class TimedSpan implements Span {
+        private final String name;
+        private final Map<String, String> tags = new LinkedHashMap<>();
+        private final long startTimeMillis = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private volatile Throwable error;
+
+        private TimedSpan(String name, String... tags) {
+            checkArgument(tags.length % 2 == 0, "Tags must be key-value pairs: %s", Arrays.toString(tags));
+            this.name = name;
+            for (int i = 0; i < tags.length; i += 2) {
+                this.tags.put(tags[i], tags[i + 1]);
+            }
+        }
+
+        @Override
+        public synchronized Span tag(String key, String value) {
+            tags.put(key, value);
+            return this;
+        }
+
+        @Override
+        public void fail(Throwable cause) {
+            this.error = cause;
+        }
+
+        @Override
+        public void end() {
+            if (!ended.compareAndSet(false, true)) {
+                return;
+            }
+            long duration = System.nanoTime() - startNanos;
+            Map<String, String> finalTags;
+            synchronized (this) {
+                finalTags = new LinkedHashMap<>(tags);
+            }
+            finalTags.put("outcome", error == null ? "success" : "failure");
+
+            timer(name, flatten(finalTags)).record(duration);
+            trace(new FinishedSpan(
+                    name,
+                    finalTags,
+                    startTimeMillis,
+                    duration,
+                    Thread.currentThread().getName(),
+                    error));
+        }
+
+        @Override
+        public void close() {
+            end();
+        }
+    }
+}
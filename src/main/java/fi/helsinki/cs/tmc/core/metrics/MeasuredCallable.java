@@ -0,0 +1,36 @@
+package fi.helsinki.cs.tmc.core.metrics;
+
+import fi.helsinki.cs.tmc.core.holders.MetricsHolder;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Records each call of a command as a {@code command} span tagged with the name of
+ * the command.
+ */
+public class MeasuredCallable<T> implements Callable<T> {
+
+    private final Callable<T> command;
+    private final String name;
+
+    public MeasuredCallable(Callable<T> command) {
+        this(command, command.getClass().getSimpleName());
+    }
+
+    public MeasuredCallable(Callable<T> command, String name) {
+        this.command = command;
+        this.name = name;
+    }
+
+    @Override
+    public T call() throws Exception {
+        try (Span span = MetricsHolder.get().startSpan("command", "command", name)) {
+            try {
+                return command.call();
+            } catch (Exception ex) {
+                span.fail(ex);
+                throw ex;
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package fi.helsinki.cs.tmc.core.metrics;
+
+/**
+ * Where tmc-core records what it is doing: how often, how long and how much.
+ *
+ * <p>Metrics are identified by a name and tags, given as alternating keys and values,
+ * for example {@code timer("http.request", "endpoint", "/api/v8/courses/{id}",
+ * "status", "200")}. The same name and tags always return the same metric. Tags
+ * should only take a few distinct values; never put ids or user input in them.
+ *
+ * <p>Implementations must be thread-safe. The default one is
+ * {@link InMemoryMetricsRegistry}; others can be installed with
+ * {@link fi.helsinki.cs.tmc.core.holders.MetricsHolder#set} to forward the metrics to
+ * a monitoring system.
+ */
+public interface MetricsRegistry {
+
+    Counter counter(String name, String... tags);
+
+    Timer timer(String name, String... tags);
+
+    Histogram histogram(String name, String... tags);
+
+    /**
+     * Starts timing an operation. Ending the span records its duration in the timer
+     * of the same name and tags, with an {@code outcome} tag added.
+     */
+    Span startSpan(String name, String... tags);
+}
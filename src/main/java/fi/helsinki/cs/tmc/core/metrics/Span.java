@@ -0,0 +1,25 @@
+package fi.helsinki.cs.tmc.core.metrics;
+
+/**
+ * One timed operation, started with {@link MetricsRegistry#startSpan}.
+ *
+ * <p>A span succeeds unless {@link #fail} is called before it ends. Ending it again
+ * does nothing, so it can be used in a try-with-resources statement.
+ */
+public interface Span extends AutoCloseable {
+
+    /**
+     * Adds a tag that is known only once the operation is under way.
+     */
+    Span tag(String key, String value);
+
+    void fail(Throwable cause);
+
+    void end();
+
+    /**
+     * Same as {@link #end()}.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,11 @@
+package fi.helsinki.cs.tmc.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summarizes how long something took. The values are in nanoseconds.
+ */
+public interface Timer extends Histogram {
+
+    void record(long duration, TimeUnit unit);
+}
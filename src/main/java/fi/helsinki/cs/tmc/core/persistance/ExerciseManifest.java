@@ -0,0 +1,176 @@
+package fi.helsinki.cs.tmc.core.persistance;
+
+import fi.helsinki.cs.tmc.core.communication.serialization.GsonRegistry;
+
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Per-file hashes of an exercise zip.
+ *
+ * <p>The hashes are the CRC32 and size stored in the zip's central directory, so
+ * building a manifest does not decompress anything. Comparing the manifest of an
+ * extracted zip with the one of an update tells which files the update changes.
+ *
+ * <p>A manifest also remembers the checksum of the exercise it was built from and,
+ * once the zip is extracted, the directory inside the zip that was extracted as the
+ * exercise. See {@link ExerciseUpdate}.
+ */
+public class ExerciseManifest {
+
+    private static final Gson gson = GsonRegistry.plain();
+
+    private final String checksum;
+    private String root;
+    private final TreeMap<String, String> files;
+
+    private ExerciseManifest(String checksum, TreeMap<String, String> files) {
+        this.checksum = checksum;
+        this.files = files;
+    }
+
+    public static ExerciseManifest of(Path zip) throws IOException {
+        return of(zip, null);
+    }
+
+    public static ExerciseManifest of(Path zip, String checksum) throws IOException {
+        TreeMap<String, String> files = new TreeMap<>();
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    files.put(entry.getName(), hash(entry.getCrc(), entry.getSize()));
+                }
+            }
+        }
+        return new ExerciseManifest(checksum, files);
+    }
+
+    /**
+     * Returns the hash of a file on disk in the same form as the hashes of zip entries.
+     */
+    public static String hashOf(Path file) throws IOException {
+        long crc = com.google.common.io.Files.asByteSource(file.toFile())
+                .hash(Hashing.crc32())
+                .padToLong();
+        return hash(crc, Files.size(file));
+    }
+
+    private static String hash(long crc, long size) {
+        return Long.toHexString(crc) + ":" + size;
+    }
+
+    /**
+     * Reads a manifest written with {@link #write}, or returns null if there is none.
+     */
+    public static ExerciseManifest read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            ExerciseManifest manifest = gson.fromJson(reader, ExerciseManifest.class);
+            return manifest == null || manifest.files == null ? null : manifest;
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (JsonParseException ex) {
+            throw new IOException("Corrupted exercise manifest " + file, ex);
+        }
+    }
+
+    public void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            gson.toJson(this, writer);
+        }
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Returns the directory of the zip that was extracted as the exercise, as a prefix
+     * of entry names ("" for the root of the zip), or null if it is not known.
+     */
+    public String getRoot() {
+        return root;
+    }
+
+    public void setRoot(String root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the hash of the entry {@code name}, or null if the zip has no such entry.
+     */
+    public String hashOf(String name) {
+        return files.get(name);
+    }
+
+    /**
+     * Finds the directory of the zip that was extracted into {@code target}: the
+     * shortest prefix of the entry names that leaves a path that exists under
+     * {@code target} for every entry. Returns null if there is none.
+     *
+     * <p>Only checks that the files exist, it doesn't read them.
+     */
+    public String findRoot(Path target) {
+        if (files.isEmpty()) {
+            return null;
+        }
+        String first = files.firstKey();
+        int end = 0;
+        while (true) {
+            String prefix = first.substring(0, end);
+            if (isExtractedAt(prefix, target)) {
+                return prefix;
+            }
+            end = first.indexOf('/', end) + 1;
+            if (end == 0) {
+                return null;
+            }
+        }
+    }
+
+    private boolean isExtractedAt(String prefix, Path target) {
+        for (String name : files.keySet()) {
+            if (!name.startsWith(prefix)
+                    || !Files.isRegularFile(target.resolve(name.substring(prefix.length())))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the files that were added, modified or removed compared to {@code previous}.
+     */
+    public Set<String> changedFiles(ExerciseManifest previous) {
+        Set<String> changed = new TreeSet<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            if (!file.getValue().equals(previous.files.get(file.getKey()))) {
+                changed.add(file.getKey());
+            }
+        }
+        for (String file : previous.files.keySet()) {
+            if (!files.containsKey(file)) {
+                changed.add(file);
+            }
+        }
+        return changed;
+    }
+}
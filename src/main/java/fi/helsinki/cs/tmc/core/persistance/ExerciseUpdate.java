@@ -0,0 +1,138 @@
+package fi.helsinki.cs.tmc.core.persistance;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Updates an extracted exercise to a new version of its zip by only writing the files
+ * the new version changes.
+ *
+ * <p>The files extracted from the previous zip are described by its manifest, so the
+ * previous zip itself is not needed. Files added or modified by the update are written
+ * from the new zip and files it removes are deleted. A file the user has edited since
+ * it was extracted is left alone, like a full extraction leaves student files alone.
+ * Only the changed files are read from disk.
+ */
+public class ExerciseUpdate {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExerciseUpdate.class);
+
+    private final Path zip;
+    private final ExerciseManifest previous;
+    private final ExerciseManifest updated;
+    private final Path target;
+
+    private int written;
+    private int deleted;
+    private int kept;
+
+    public ExerciseUpdate(
+            Path zip, ExerciseManifest previous, ExerciseManifest updated, Path target) {
+        this.zip = zip;
+        this.previous = previous;
+        this.updated = updated;
+        this.target = target;
+    }
+
+    /**
+     * Returns whether the update can be applied instead of extracting the whole zip:
+     * the previous zip must have been extracted from a known directory of the zip.
+     */
+    public static boolean isApplicable(ExerciseManifest previous, ExerciseManifest updated) {
+        return previous != null && previous.getRoot() != null && updated.getChecksum() != null;
+    }
+
+    public void apply() throws IOException {
+        String root = previous.getRoot();
+        Set<String> changed = updated.changedFiles(previous);
+        logger.info("Updating {} changed files in {}", changed.size(), target);
+
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            for (String name : changed) {
+                Path file = resolve(root, name);
+                if (file == null) {
+                    logger.debug("Not updating {}, it is not part of the exercise", name);
+                    continue;
+                }
+                if (isEditedByUser(name, file)) {
+                    logger.debug("Not updating {}, it was edited", file);
+                    kept++;
+                    continue;
+                }
+
+                ZipEntry entry = zipFile.getEntry(name);
+                if (entry == null) {
+                    Files.deleteIfExists(file);
+                    deleted++;
+                } else {
+                    write(zipFile, entry, file);
+                    written++;
+                }
+            }
+        }
+        updated.setRoot(root);
+
+        logger.info("Wrote {}, deleted {} and kept {} edited files in {}",
+                written, deleted, kept, target);
+    }
+
+    public int getWrittenFiles() {
+        return written;
+    }
+
+    public int getDeletedFiles() {
+        return deleted;
+    }
+
+    public int getKeptFiles() {
+        return kept;
+    }
+
+    /**
+     * Returns whether {@code file} differs from what was extracted from the previous zip.
+     * A file that wasn't in the previous zip but exists is the user's own.
+     */
+    private boolean isEditedByUser(String name, Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        String extracted = previous.hashOf(name);
+        return extracted == null || !extracted.equals(ExerciseManifest.hashOf(file));
+    }
+
+    private void write(ZipFile zipFile, ZipEntry entry, Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), ".tmc-update", ".tmp");
+        try {
+            try (InputStream in = zipFile.getInputStream(entry)) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Returns the path of the entry under the target, or null if the entry is outside
+     * the extracted directory of the zip.
+     */
+    private Path resolve(String root, String name) {
+        if (!name.startsWith(root)) {
+            return null;
+        }
+        Path file = target.resolve(name.substring(root.length())).normalize();
+        return file.startsWith(target.normalize()) && !file.equals(target.normalize())
+                ? file
+                : null;
+    }
+}
@@ -0,0 +1,163 @@
+package fi.helsinki.cs.tmc.core.persistance;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An on-disk cache of downloaded exercise zips keyed by their checksum.
+ *
+ * <p>Since a checksum identifies the exact content of an exercise, a cached zip
+ * never goes stale and can be reused when the same exercise is downloaded again.
+ * The total size of the cache is bounded, least recently used zips are evicted
+ * first.
+ *
+ * <p>The cache is only an optimization: failures are logged and reported as cache
+ * misses instead of being thrown.
+ */
+public class ExerciseZipCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExerciseZipCache.class);
+
+    private static final String ZIP_SUFFIX = ".zip";
+    private static final Pattern VALID_KEY = Pattern.compile("[0-9A-Za-z_-]+");
+
+    private final Path directory;
+    private final long maxBytes;
+
+    public ExerciseZipCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Copies the zip cached with {@code key} to {@code target}.
+     *
+     * @return true if the zip was in the cache
+     */
+    public boolean copyTo(String key, Path target) {
+        if (!isEnabled() || !isValidKey(key)) {
+            return false;
+        }
+
+        Path entry = entryFor(key);
+        try {
+            Files.copy(entry, target, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            logger.debug("Exercise zip cache hit for {}", key);
+            return true;
+        } catch (NoSuchFileException ex) {
+            logger.debug("Exercise zip cache miss for {}", key);
+            return false;
+        } catch (IOException ex) {
+            logger.warn("Failed to read exercise zip cache entry " + entry, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Stores a copy of {@code zip} with the given key and evicts old entries if the cache
+     * grew too large.
+     */
+    public void put(String key, Path zip) {
+        if (!isEnabled() || !isValidKey(key)) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(directory);
+            // Copy under a temporary name first so that readers never see a partial zip
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try {
+                Files.copy(zip, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, entryFor(key),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            evictLeastRecentlyUsed();
+        } catch (IOException ex) {
+            logger.warn("Failed to store exercise zip " + key + " in cache", ex);
+        }
+    }
+
+    /**
+     * Removes the zip cached with {@code key}, for example after it failed to extract.
+     */
+    public void remove(String key) {
+        if (!isEnabled() || !isValidKey(key)) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(entryFor(key));
+        } catch (IOException ex) {
+            logger.warn("Failed to remove exercise zip " + key + " from cache", ex);
+        }
+    }
+
+    private void evictLeastRecentlyUsed() throws IOException {
+        final List<Path> entries = new ArrayList<>();
+        long totalBytes = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ZIP_SUFFIX)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+                totalBytes += Files.size(entry);
+            }
+        }
+
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+
+        final List<FileTime> accessTimes = new ArrayList<>(entries.size());
+        for (Path entry : entries) {
+            accessTimes.add(Files.getLastModifiedTime(entry));
+        }
+        List<Integer> order = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return accessTimes.get(first).compareTo(accessTimes.get(second));
+            }
+        });
+
+        for (int i : order) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            Path entry = entries.get(i);
+            long size = Files.size(entry);
+            Files.deleteIfExists(entry);
+            totalBytes -= size;
+            logger.debug("Evicted {} from exercise zip cache", entry.getFileName());
+        }
+    }
+
+    private Path entryFor(String key) {
+        return directory.resolve(key + ZIP_SUFFIX);
+    }
+
+    private boolean isValidKey(String key) {
+        return key != null && VALID_KEY.matcher(key).matches();
+    }
+}
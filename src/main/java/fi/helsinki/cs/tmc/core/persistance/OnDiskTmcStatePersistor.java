@@ -1,5 +1,7 @@
 package fi.helsinki.cs.tmc.core.persistance;
 
+import fi.helsinki.cs.tmc.core.communication.serialization.GsonRegistry;
+
 import com.google.gson.Gson;
 
 import java.io.IOException;
@@ -18,14 +20,14 @@ public class OnDiskTmcStatePersistor implements TmcStatePersistor {
 
     @Override
     public void save(TmcState tmcState) throws IOException {
-        Gson gson = new Gson();
+        Gson gson = GsonRegistry.plain();
         byte[] json = gson.toJson(tmcState).getBytes();
         Files.write(location, json);
     }
 
     @Override
     public TmcState load() throws IOException {
-        Gson gson = new Gson();
+        Gson gson = GsonRegistry.plain();
         Reader reader = Files.newBufferedReader(location, Charset.forName("UTF-8"));
         return gson.fromJson(reader, TmcState.class);
     }
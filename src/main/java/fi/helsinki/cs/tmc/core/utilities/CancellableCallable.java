@@ -0,0 +1,17 @@
+package fi.helsinki.cs.tmc.core.utilities;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A {@link Callable} that can be stopped from another thread while it is running.
+ */
+public interface CancellableCallable<T> extends Callable<T> {
+
+    /**
+     * Stops the task. A running {@link #call()} fails with an {@link InterruptedException}
+     * as soon as possible.
+     *
+     * @return true if the task will stop
+     */
+    boolean cancel();
+}
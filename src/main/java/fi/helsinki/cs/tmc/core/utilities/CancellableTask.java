@@ -0,0 +1,30 @@
+package fi.helsinki.cs.tmc.core.utilities;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Makes any task cancellable by running it in its own {@link CancellationScope}.
+ *
+ * <p>Cancelling the task aborts whatever it is blocked on that has registered with the
+ * scope, for example HTTP requests.
+ */
+public class CancellableTask<T> implements CancellableCallable<T> {
+
+    private final Callable<T> task;
+    private final CancellationScope scope = new CancellationScope();
+
+    public CancellableTask(Callable<T> task) {
+        this.task = task;
+    }
+
+    @Override
+    public T call() throws Exception {
+        return scope.call(task);
+    }
+
+    @Override
+    public boolean cancel() {
+        scope.cancel();
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package fi.helsinki.cs.tmc.core.utilities;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Lets blocking operations deep inside a command react when the command is cancelled.
+ *
+ * <p>A scope is entered for the duration of a command with {@link #call}. Code that
+ * blocks in a way {@link Thread#interrupt()} can't wake up, such as a socket read,
+ * registers a hook with {@link #current()} that unblocks it.
+ *
+ * <p>Scopes nest: a scope entered while another one is current is cancelled along
+ * with it.
+ */
+public final class CancellationScope {
+
+    private static final ThreadLocal<CancellationScope> current = new ThreadLocal<>();
+
+    private final Set<Runnable> hooks = new LinkedHashSet<>();
+    private boolean cancelled;
+
+    /**
+     * Returns the scope of the command running in this thread, or null if there is none.
+     */
+    public static CancellationScope current() {
+        return current.get();
+    }
+
+    /**
+     * Runs {@code command} in this scope on the calling thread.
+     */
+    public <T> T call(Callable<T> command) throws Exception {
+        final CancellationScope parent = current.get();
+        Runnable cancelWithParent = null;
+        if (parent != null && parent != this) {
+            cancelWithParent = new Runnable() {
+                @Override
+                public void run() {
+                    cancel();
+                }
+            };
+            parent.onCancel(cancelWithParent);
+        }
+
+        current.set(this);
+        try {
+            return command.call();
+        } finally {
+            current.set(parent);
+            if (cancelWithParent != null) {
+                parent.removeOnCancel(cancelWithParent);
+            }
+        }
+    }
+
+    /**
+     * Registers a hook that is run when the scope is cancelled. If the scope is already
+     * cancelled the hook is run immediately.
+     */
+    public void onCancel(Runnable hook) {
+        synchronized (hooks) {
+            if (!cancelled) {
+                hooks.add(hook);
+                return;
+            }
+        }
+        hook.run();
+    }
+
+    public void removeOnCancel(Runnable hook) {
+        synchronized (hooks) {
+            hooks.remove(hook);
+        }
+    }
+
+    public boolean isCancelled() {
+        synchronized (hooks) {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Cancels the scope and runs every registered hook.
+     */
+    public void cancel() {
+        Runnable[] toRun;
+        synchronized (hooks) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = hooks.toArray(new Runnable[hooks.size()]);
+            hooks.clear();
+        }
+        for (Runnable hook : toRun) {
+            hook.run();
+        }
+    }
+}
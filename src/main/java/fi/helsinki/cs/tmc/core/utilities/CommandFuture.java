@@ -0,0 +1,60 @@
+package fi.helsinki.cs.tmc.core.utilities;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link CompletableFuture} of a command that really stops the command when cancelled.
+ *
+ * <p>Cancelling interrupts the thread running the command and runs the hooks of its
+ * {@link CancellationScope}, so that for example in-flight HTTP requests are aborted
+ * instead of running to completion in the background.
+ */
+public class CommandFuture<T> extends CompletableFuture<T> implements Runnable {
+
+    private final Callable<T> command;
+    private final CancellationScope scope = new CancellationScope();
+
+    private Thread runner;
+
+    public CommandFuture(Callable<T> command) {
+        this.command = command;
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (isDone()) {
+                return;
+            }
+            runner = Thread.currentThread();
+        }
+        try {
+            complete(scope.call(command));
+        } catch (Throwable ex) {
+            completeExceptionally(ex);
+        } finally {
+            synchronized (this) {
+                runner = null;
+            }
+            // Don't leave a pooled thread interrupted by a late cancel
+            Thread.interrupted();
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            scope.cancel();
+            if (mayInterruptIfRunning) {
+                synchronized (this) {
+                    if (runner != null) {
+                        runner.interrupt();
+                    }
+                }
+            }
+        }
+        return cancelled;
+    }
+}
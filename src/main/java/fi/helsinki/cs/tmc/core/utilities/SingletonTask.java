@@ -1,5 +1,7 @@
 package fi.helsinki.cs.tmc.core.utilities;
 
+import fi.helsinki.cs.tmc.core.holders.TmcExecutorsHolder;
+
 import com.google.common.util.concurrent.Futures;
 
 import java.util.concurrent.ExecutionException;
@@ -11,32 +13,58 @@ import java.util.concurrent.TimeoutException;
 
 /**
  * A task that can be started repeatedly, but ensures only one instance is running at a time.
+ *
+ * <p>Unless given an executor of its own, the task runs on a pool of
+ * {@link TmcExecutorsHolder} that is looked up every time it starts, so it keeps
+ * working after the executors are replaced.
  */
 public class SingletonTask {
-    private ScheduledThreadPoolExecutor requestProcessor;
+    private final ScheduledThreadPoolExecutor requestProcessor;
+    private final TmcExecutors.Pool pool;
     private Runnable runnable;
     private Future<?> task;
     private ScheduledFuture<?> autostartTask = null;
+    private ScheduledThreadPoolExecutor autostartExecutor;
+    private long interval;
 
     public SingletonTask(Runnable runnable) {
-        this(runnable, TmcRequestProcessor.instance);
+        this(runnable, TmcExecutors.Pool.CPU);
+    }
+
+    public SingletonTask(Runnable runnable, TmcExecutors.Pool pool) {
+        this(runnable, null, pool);
     }
 
     public SingletonTask(Runnable runnable, ScheduledThreadPoolExecutor requestProcessor) {
+        this(runnable, requestProcessor, null);
+    }
+
+    private SingletonTask(
+            Runnable runnable,
+            ScheduledThreadPoolExecutor requestProcessor,
+            TmcExecutors.Pool pool) {
         this.requestProcessor = requestProcessor;
+        this.pool = pool;
         this.runnable = runnable;
         this.task = Futures.immediateFuture(null);
     }
 
+    private ScheduledThreadPoolExecutor getExecutor() {
+        return requestProcessor != null ? requestProcessor : TmcExecutorsHolder.get().get(pool);
+    }
+
     public synchronized void setInterval(long delay) {
         unsetInterval();
 
+        interval = delay;
+        autostartExecutor = getExecutor();
         autostartTask =
-                requestProcessor.scheduleWithFixedDelay(
+                autostartExecutor.scheduleWithFixedDelay(
                         autostartRunnable, delay, delay, TimeUnit.MILLISECONDS);
     }
 
     public synchronized void unsetInterval() {
+        interval = 0;
         if (autostartTask != null) {
             autostartTask.cancel(true);
             autostartTask = null;
@@ -55,8 +83,12 @@ public class SingletonTask {
      * Starts the task unless it's already running.
      */
     public synchronized void start() {
+        if (interval > 0 && autostartExecutor.isShutdown()) {
+            // The executors were replaced, which dropped the scheduled autostart
+            setInterval(interval);
+        }
         if (task.isDone()) {
-            task = requestProcessor.submit(runnable);
+            task = getExecutor().submit(runnable);
         }
     }
 
@@ -0,0 +1,179 @@
+package fi.helsinki.cs.tmc.core.utilities;
+
+import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The thread pools that background work runs on, one for each kind of work so that for
+ * example slow uploads cannot starve saving events to disk.
+ *
+ * <p>All threads are daemon threads. Use {@link #shutdown(long)} to stop them cleanly.
+ */
+public class TmcExecutors {
+
+    /**
+     * The kinds of work there is a pool for.
+     */
+    public enum Pool {
+        NETWORK_IO,
+        DISK_IO,
+        CPU
+    }
+
+    /**
+     * What a pool is doing at one moment.
+     */
+    public static class Stats {
+        private final String name;
+        private final int poolSize;
+        private final int activeTasks;
+        private final int queuedTasks;
+        private final long completedTasks;
+
+        private Stats(String name, ScheduledThreadPoolExecutor pool) {
+            this.name = name;
+            this.poolSize = pool.getPoolSize();
+            this.activeTasks = pool.getActiveCount();
+            this.queuedTasks = pool.getQueue().size();
+            this.completedTasks = pool.getCompletedTaskCount();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public int getActiveTasks() {
+            return activeTasks;
+        }
+
+        /**
+         * Tasks waiting for a thread, including scheduled tasks that are not due yet.
+         */
+        public int getQueuedTasks() {
+            return queuedTasks;
+        }
+
+        public long getCompletedTasks() {
+            return completedTasks;
+        }
+
+        @Override
+        public String toString() {
+            return name + "[threads=" + poolSize + ", active=" + activeTasks
+                    + ", queued=" + queuedTasks + ", completed=" + completedTasks + "]";
+        }
+    }
+
+    private final ScheduledThreadPoolExecutor networkIo;
+    private final ScheduledThreadPoolExecutor diskIo;
+    private final ScheduledThreadPoolExecutor cpu;
+
+    /**
+     * Creates pools of the sizes in {@code settings}.
+     */
+    public TmcExecutors(TmcSettings settings) {
+        this(settings.getNetworkIoThreads(), settings.getDiskIoThreads(), settings.getCpuThreads());
+    }
+
+    public TmcExecutors(int networkIoThreads, int diskIoThreads, int cpuThreads) {
+        this.networkIo = newPool("tmc-network-%d", networkIoThreads);
+        this.diskIo = newPool("tmc-disk-%d", diskIoThreads);
+        this.cpu = newPool("tmc-cpu-%d", cpuThreads);
+    }
+
+    private static ScheduledThreadPoolExecutor newPool(String nameFormat, int threads) {
+        ScheduledThreadPoolExecutor pool =
+                new ScheduledThreadPoolExecutor(
+                        Math.max(1, threads),
+                        new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+        pool.setRemoveOnCancelPolicy(true);
+        pool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return pool;
+    }
+
+    /**
+     * For work that mostly waits for the network, like sending events.
+     */
+    public ScheduledThreadPoolExecutor getNetworkIo() {
+        return networkIo;
+    }
+
+    /**
+     * For work that mostly waits for the disk, like saving events, and for delivering
+     * events to asynchronous listeners.
+     */
+    public ScheduledThreadPoolExecutor getDiskIo() {
+        return diskIo;
+    }
+
+    /**
+     * For short computations.
+     */
+    public ScheduledThreadPoolExecutor getCpu() {
+        return cpu;
+    }
+
+    public ScheduledThreadPoolExecutor get(Pool pool) {
+        switch (pool) {
+            case NETWORK_IO:
+                return networkIo;
+            case DISK_IO:
+                return diskIo;
+            default:
+                return cpu;
+        }
+    }
+
+    public List<Stats> getStats() {
+        return Arrays.asList(
+                new Stats("network-io", networkIo),
+                new Stats("disk-io", diskIo),
+                new Stats("cpu", cpu));
+    }
+
+    /**
+     * Stops accepting new tasks without waiting for running and queued ones. Scheduled
+     * tasks that are not yet due never run.
+     */
+    public void shutdown() {
+        networkIo.shutdown();
+        diskIo.shutdown();
+        cpu.shutdown();
+    }
+
+    /**
+     * Stops accepting new tasks and waits up to {@code timeoutMillis} for running and
+     * queued tasks to finish. Tasks still running after that are interrupted. Scheduled
+     * tasks that are not yet due never run.
+     *
+     * @return whether all tasks finished in time
+     */
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        shutdown();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean terminated = true;
+        for (ScheduledThreadPoolExecutor pool : Arrays.asList(networkIo, diskIo, cpu)) {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            if (!pool.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                pool.shutdownNow();
+                terminated = false;
+            }
+        }
+        return terminated;
+    }
+
+    public boolean isShutdown() {
+        return networkIo.isShutdown();
+    }
+}
@@ -2,8 +2,13 @@ package fi.helsinki.cs.tmc.core.utilities;
 
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
-/** Holds TMC's default RequestProcessor. */
+/**
+ * Holds TMC's default RequestProcessor.
+ *
+ * @deprecated Nothing in tmc-core runs on this anymore. Use the pools of
+ *     {@link fi.helsinki.cs.tmc.core.holders.TmcExecutorsHolder} instead.
+ */
+@Deprecated
 public class TmcRequestProcessor {
-    // TODO: make it to a holder pattern...
     public static final ScheduledThreadPoolExecutor instance = new ScheduledThreadPoolExecutor(5);
 }
@@ -0,0 +1,105 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Decides how many bytes of events to put in one upload to a snapshot server.
+ *
+ * <p>Batches are limited by their estimated compressed size. The estimate is the
+ * raw size of the events times the compression ratio observed in earlier uploads.
+ * The byte budget starts small, doubles while full batches are sent quickly and
+ * shrinks when sending takes longer than {@link #TARGET_SEND_MILLIS}. A server
+ * rejecting a batch as too large caps the budget at half of that batch's size.
+ */
+public class EventBatchSizer {
+
+    public static final int DEFAULT_MAX_BYTES_PER_SEND = 512 * 1024;
+    public static final int INITIAL_BYTES_PER_SEND = 64 * 1024;
+    public static final int MIN_BYTES_PER_SEND = 8 * 1024;
+    public static final long TARGET_SEND_MILLIS = 10 * 1000;
+
+    // Roughly what the binary encoding spends on an event besides its metadata and data
+    private static final int EVENT_OVERHEAD = 16;
+    private static final double SMOOTHING = 0.3;
+
+    private int maxBytes = DEFAULT_MAX_BYTES_PER_SEND;
+    private int rejectedLimit = Integer.MAX_VALUE;
+    private int budget = INITIAL_BYTES_PER_SEND;
+    private double compressionRatio = 1.0;
+
+    /**
+     * Returns the size of {@code event} before compression, as counted against
+     * {@link #getRawBudget()}.
+     */
+    public static long rawSize(LoggableEvent event) {
+        long size = EVENT_OVERHEAD;
+        String metadata = event.getMetadata();
+        if (metadata != null) {
+            size += metadata.length();
+        }
+        if (event.getData() != null) {
+            size += event.getData().length;
+        }
+        return size;
+    }
+
+    public synchronized void setMaxBytes(int maxBytes) {
+        checkArgument(maxBytes >= MIN_BYTES_PER_SEND);
+        this.maxBytes = maxBytes;
+        budget = Math.min(budget, limit());
+    }
+
+    /**
+     * Returns the current budget for the compressed size of a batch.
+     */
+    public synchronized int getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns how many raw bytes of events are expected to compress to the budget.
+     */
+    public synchronized long getRawBudget() {
+        return (long) (budget / compressionRatio);
+    }
+
+    /**
+     * Records that events of {@code rawBytes} were sent as {@code sentBytes} in
+     * {@code millis}. {@code sentBytes} is 0 if the size of the upload is unknown.
+     */
+    public synchronized void recordSent(long rawBytes, long sentBytes, long millis) {
+        long compressedBytes = estimateCompressed(rawBytes, sentBytes);
+
+        if (millis > TARGET_SEND_MILLIS) {
+            long fitting = compressedBytes * TARGET_SEND_MILLIS / millis;
+            budget = (int) Math.max(MIN_BYTES_PER_SEND, Math.min(budget, fitting));
+        } else if (millis < TARGET_SEND_MILLIS / 2 && compressedBytes >= budget / 2) {
+            // Only batches that were limited by the budget tell whether it is too small
+            budget = (int) Math.min((long) budget * 2, limit());
+        }
+    }
+
+    /**
+     * Records that a server rejected events of {@code rawBytes} sent as
+     * {@code sentBytes} because the request was too large.
+     */
+    public synchronized void recordTooLarge(long rawBytes, long sentBytes) {
+        long compressedBytes = estimateCompressed(rawBytes, sentBytes);
+        rejectedLimit =
+                (int) Math.max(MIN_BYTES_PER_SEND, Math.min(rejectedLimit, compressedBytes / 2));
+        budget = Math.min(budget, limit());
+    }
+
+    private long estimateCompressed(long rawBytes, long sentBytes) {
+        if (rawBytes > 0 && sentBytes > 0) {
+            double ratio = Math.max(0.01, Math.min(2.0, (double) sentBytes / rawBytes));
+            compressionRatio += SMOOTHING * (ratio - compressionRatio);
+            return sentBytes;
+        }
+        return (long) (rawBytes * compressionRatio);
+    }
+
+    private int limit() {
+        return Math.max(MIN_BYTES_PER_SEND, Math.min(maxBytes, rejectedLimit));
+    }
+}
@@ -1,45 +1,88 @@
 package fi.helsinki.cs.tmc.snapshots;
 
-import fi.helsinki.cs.tmc.core.utilities.ExceptionUtils;
+import static com.google.common.base.Preconditions.checkArgument;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
-import java.util.HashMap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * Forwards events to another receiver but discards consecutive events with the same key and data.
  * Only applied to certain event sources.
+ *
+ * <p>Data is compared by the first 64 bits of its Murmur3 hash. The keys are split over
+ * stripes with their own locks, so events with different keys rarely wait for each
+ * other. The locks are only held while deciding whether to forward an event, not while
+ * forwarding it. The least recently seen keys are forgotten once there are more than
+ * {@code maxKeys}; the next event with a forgotten key is always forwarded.
  */
 public class EventDeduplicater implements EventReceiver {
-    private EventReceiver nextReceiver;
 
-    private Map<String, byte[]> lastHashByKey = new HashMap<>();
+    public static final int DEFAULT_MAX_KEYS = 4096;
+
+    private static final int STRIPES = 16;
+    private static final HashFunction DATA_HASH = Hashing.murmur3_128();
+
+    private final EventReceiver nextReceiver;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private static class LastHash {
+        private long hash;
+
+        private LastHash(long hash) {
+            this.hash = hash;
+        }
+    }
+
+    // Must only be accessed with a lock on itself.
+    private static class Stripe extends LinkedHashMap<String, LastHash> {
+        private final int maxKeys;
+
+        private Stripe(int maxKeys) {
+            super(16, 0.75f, true);
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LastHash> eldest) {
+            return size() > maxKeys;
+        }
+    }
 
     public EventDeduplicater(EventReceiver nextReceiver) {
-        this.nextReceiver = nextReceiver;
+        this(nextReceiver, DEFAULT_MAX_KEYS);
     }
 
-    @Override
-    public synchronized void receiveEvent(LoggableEvent event) {
-        byte[] prevHash = lastHashByKey.get(event.getKey());
-        byte[] newHash = hash(event.getData());
-        boolean changed = (prevHash == null || !Arrays.equals(prevHash, newHash));
-        if (changed) {
-            nextReceiver.receiveEvent(event);
-            lastHashByKey.put(event.getKey(), newHash);
+    public EventDeduplicater(EventReceiver nextReceiver, int maxKeys) {
+        checkArgument(maxKeys > 0);
+        this.nextReceiver = nextReceiver;
+        int maxKeysPerStripe = Math.max(1, (maxKeys + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxKeysPerStripe);
         }
     }
 
-    private byte[] hash(byte[] data) {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException ex) {
-            throw ExceptionUtils.toRuntimeException(ex);
+    @Override
+    public void receiveEvent(LoggableEvent event) {
+        String key = event.getKey();
+        long newHash = event.getData() != null ? DATA_HASH.hashBytes(event.getData()).asLong() : 0;
+
+        int keyHash = key != null ? key.hashCode() : 0;
+        Stripe stripe = stripes[(keyHash & 0x7fffffff) % STRIPES];
+        synchronized (stripe) {
+            LastHash prevHash = stripe.get(key);
+            if (prevHash != null && prevHash.hash == newHash) {
+                return;
+            }
+            if (prevHash == null) {
+                stripe.put(key, new LastHash(newHash));
+            } else {
+                prevHash.hash = newHash;
+            }
         }
-        return md.digest(data);
+        nextReceiver.receiveEvent(event);
     }
 
     @Override
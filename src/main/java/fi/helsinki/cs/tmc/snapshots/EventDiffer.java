@@ -0,0 +1,180 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import name.fraser.neil.plaintext.DiffMatchPatch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Forwards events to another receiver, replacing the full document contents of
+ * selected event types with patches against the previous contents.
+ *
+ * <p>An event of one of the given types is expected to carry the whole document as
+ * UTF-8 text. Documents are identified by the event key and the {@code "file"}
+ * field of the metadata, if any. The forwarded event instead carries
+ * {@code {"file": ..., "patches": ..., "full_document": ...}}, where the patches
+ * are in {@link DiffMatchPatch#patch_toText} format. The first event of a document
+ * and every {@code keyframeInterval}th event after it are full documents, which
+ * are patches against the empty string. Use {@link EventPatchReconstructor} to
+ * get the documents back.
+ *
+ * <p>Only the {@code maxDocuments} most recently seen documents are remembered. The
+ * next event of a document that was forgotten is sent as a full document.
+ *
+ * <p>Events whose document did not change are discarded. Events of other types,
+ * and events whose data is not text, are forwarded as they are.
+ */
+public class EventDiffer implements EventReceiver {
+
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 50;
+    public static final int DEFAULT_MAX_DOCUMENTS = 200;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final EventReceiver nextReceiver;
+    private final Set<String> eventTypes;
+    private final int keyframeInterval;
+    private final DiffMatchPatch diffMatchPatch = new DiffMatchPatch();
+
+    private final Map<String, Document> documents;
+
+    private static class Document {
+        private final String text;
+        private final int patchesSinceKeyframe;
+
+        private Document(String text, int patchesSinceKeyframe) {
+            this.text = text;
+            this.patchesSinceKeyframe = patchesSinceKeyframe;
+        }
+    }
+
+    public EventDiffer(EventReceiver nextReceiver, Set<String> eventTypes) {
+        this(nextReceiver, eventTypes, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    public EventDiffer(EventReceiver nextReceiver, Set<String> eventTypes, int keyframeInterval) {
+        this(nextReceiver, eventTypes, keyframeInterval, DEFAULT_MAX_DOCUMENTS);
+    }
+
+    public EventDiffer(
+            EventReceiver nextReceiver,
+            Set<String> eventTypes,
+            int keyframeInterval,
+            final int maxDocuments) {
+        checkArgument(keyframeInterval > 0);
+        checkArgument(maxDocuments > 0);
+        this.nextReceiver = nextReceiver;
+        this.eventTypes = ImmutableSet.copyOf(eventTypes);
+        this.keyframeInterval = keyframeInterval;
+        // Access ordered, so the least recently edited document is forgotten first
+        this.documents =
+                new LinkedHashMap<String, Document>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Document> eldest) {
+                        return size() > maxDocuments;
+                    }
+                };
+    }
+
+    @Override
+    public synchronized void receiveEvent(LoggableEvent event) {
+        if (!eventTypes.contains(event.getEventType())) {
+            nextReceiver.receiveEvent(event);
+            return;
+        }
+
+        JsonObject metadata = parseMetadata(event);
+        JsonElement fileElement = metadata.get("file");
+        String file =
+                fileElement != null && fileElement.isJsonPrimitive()
+                        ? fileElement.getAsString()
+                        : "";
+        String documentKey = event.getKey() + "|" + file;
+
+        String text = decode(event.getData());
+        if (text == null) {
+            documents.remove(documentKey);
+            nextReceiver.receiveEvent(event);
+            return;
+        }
+
+        Document previous = documents.get(documentKey);
+        if (previous != null && previous.text.equals(text)) {
+            return;
+        }
+
+        boolean fullDocument =
+                previous == null || previous.patchesSinceKeyframe + 1 >= keyframeInterval;
+        String patches;
+        if (fullDocument) {
+            patches = diffMatchPatch.patch_toText(diffMatchPatch.patch_make("", text));
+            documents.put(documentKey, new Document(text, 0));
+        } else {
+            patches = diffMatchPatch.patch_toText(diffMatchPatch.patch_make(previous.text, text));
+            documents.put(documentKey, new Document(text, previous.patchesSinceKeyframe + 1));
+        }
+
+        String data =
+                JsonMaker.create()
+                        .add("file", file)
+                        .add("patches", patches)
+                        .add("full_document", fullDocument)
+                        .toString();
+
+        LoggableEvent patched =
+                new LoggableEvent(
+                        event.getCourseName(),
+                        event.getExerciseName(),
+                        event.getEventType(),
+                        data.getBytes(UTF8),
+                        new JsonMaker(metadata));
+        patched.setHappenedAt(event.getHappenedAt());
+        patched.setSystemNanotime(event.getSystemNanotime());
+        nextReceiver.receiveEvent(patched);
+    }
+
+    private static JsonObject parseMetadata(LoggableEvent event) {
+        try {
+            JsonElement metadata = new JsonParser().parse(event.getMetadata());
+            if (metadata.isJsonObject()) {
+                return metadata.getAsJsonObject();
+            }
+        } catch (JsonParseException ex) {
+            // Fall through to empty metadata
+        }
+        return new JsonObject();
+    }
+
+    private static String decode(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            return UTF8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(data))
+                    .toString();
+        } catch (CharacterCodingException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {}
+}
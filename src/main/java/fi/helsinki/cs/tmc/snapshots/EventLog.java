@@ -0,0 +1,297 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records split into segment files.
+ *
+ * <p>Each record is stored as its length, its CRC32 and its bytes. Records are
+ * removed from the front of the log by acknowledging them, which only moves a
+ * checkpoint; segments whose records are all acknowledged are deleted. A record
+ * that was only partially written when the process died fails its length or
+ * checksum check and is truncated away the next time the log is opened.
+ *
+ * <p>Segments are named by the index of their first record, so the index of
+ * every record can be recovered from the file names and the checkpoint alone.
+ */
+public class EventLog {
+
+    private static final Logger log = LoggerFactory.getLogger(EventLog.class);
+
+    public static final long DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private final Path directory;
+    private final long segmentSize;
+
+    private boolean opened;
+    // Index of the first unacknowledged record and of the next record to append.
+    private long acknowledged;
+    private long next;
+    // First record index -> segment file.
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+
+    public EventLog(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public EventLog(Path directory, long segmentSize) {
+        checkArgument(segmentSize > 0);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Returns all records that have not been acknowledged yet, oldest first.
+     */
+    public synchronized List<byte[]> readUnacknowledged() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        open(records);
+        return records;
+    }
+
+    /**
+     * Appends {@code records} to the end of the log and forces them to disk.
+     */
+    public synchronized void append(List<byte[]> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        open(null);
+
+        int written = 0;
+        while (written < records.size()) {
+            Path segment = segmentForAppend();
+            try (FileChannel channel =
+                    FileChannel.open(
+                            segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND)) {
+                long size = channel.size();
+                do {
+                    byte[] record = records.get(written);
+                    checkArgument(record.length <= MAX_RECORD_SIZE, "Record too large");
+                    size += writeRecord(channel, record);
+                    written++;
+                    next++;
+                } while (written < records.size() && size < segmentSize);
+                channel.force(false);
+            }
+        }
+    }
+
+    /**
+     * Acknowledges the {@code count} oldest unacknowledged records so that they are
+     * no longer returned by {@link #readUnacknowledged()}.
+     */
+    public synchronized void acknowledge(long count) throws IOException {
+        checkArgument(count >= 0);
+        if (count == 0) {
+            return;
+        }
+        open(null);
+        checkArgument(count <= next - acknowledged, "Acknowledging unwritten records");
+
+        acknowledged += count;
+        writeCheckpoint();
+        deleteAcknowledgedSegments();
+    }
+
+    /**
+     * Returns the number of unacknowledged records.
+     */
+    public synchronized long size() throws IOException {
+        open(null);
+        return next - acknowledged;
+    }
+
+    /**
+     * Acknowledges every record in the log.
+     */
+    public synchronized void clear() throws IOException {
+        open(null);
+        acknowledge(next - acknowledged);
+    }
+
+    private void open(List<byte[]> unacknowledged) throws IOException {
+        if (opened && unacknowledged == null) {
+            return;
+        }
+
+        Files.createDirectories(directory);
+        acknowledged = readCheckpoint();
+        next = acknowledged;
+        segments.clear();
+
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long first =
+                            Long.parseLong(
+                                    name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(first, file);
+                } catch (NumberFormatException ex) {
+                    log.warn("Ignoring unexpected file {} in event log", file);
+                }
+            }
+        }
+
+        for (Long first : segments.keySet()) {
+            boolean last = first.equals(segments.lastKey());
+            long count = readSegment(first, segments.get(first), last, unacknowledged);
+            next = Math.max(next, first + count);
+        }
+
+        opened = true;
+        deleteAcknowledgedSegments();
+    }
+
+    /**
+     * Reads the valid records of a segment and returns their count. A corrupted
+     * record ends the segment; in the last segment it is also truncated away so
+     * that new records can be appended after the valid ones.
+     */
+    private long readSegment(long first, Path segment, boolean last, List<byte[]> unacknowledged)
+            throws IOException {
+        long count = 0;
+        long validLength = 0;
+        boolean corrupted = false;
+        try (InputStream file = Files.newInputStream(segment);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                try {
+                    long checksum = in.readInt() & 0xffffffffL;
+                    if (length < 0 || length > MAX_RECORD_SIZE) {
+                        corrupted = true;
+                        break;
+                    }
+                    byte[] record = new byte[length];
+                    in.readFully(record);
+                    if (checksum(record) != checksum) {
+                        corrupted = true;
+                        break;
+                    }
+                    if (unacknowledged != null && first + count >= acknowledged) {
+                        unacknowledged.add(record);
+                    }
+                } catch (EOFException ex) {
+                    corrupted = true;
+                    break;
+                }
+                count++;
+                validLength += RECORD_HEADER_SIZE + length;
+            }
+        }
+
+        if (!corrupted && Files.size(segment) != validLength) {
+            // A record header that was only partially written
+            corrupted = true;
+        }
+        if (corrupted) {
+            log.warn("Event log segment {} is corrupted after {} records", segment, count);
+            if (last) {
+                try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                }
+            }
+        }
+        return count;
+    }
+
+    private Path segmentForAppend() throws IOException {
+        if (!segments.isEmpty()) {
+            Path last = segments.lastEntry().getValue();
+            if (Files.exists(last) && Files.size(last) < segmentSize) {
+                return last;
+            }
+        }
+        Path segment = directory.resolve(String.format("%020d", next) + SEGMENT_SUFFIX);
+        segments.put(next, segment);
+        return segment;
+    }
+
+    private void deleteAcknowledgedSegments() throws IOException {
+        while (!segments.isEmpty()) {
+            Long first = segments.firstKey();
+            Long following = segments.higherKey(first);
+            long end = following != null ? following : next;
+            if (end > acknowledged) {
+                return;
+            }
+            Files.deleteIfExists(segments.remove(first));
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(checkpoint);
+        if (bytes.length != 8) {
+            log.warn("Ignoring corrupted event log checkpoint");
+            return 0;
+        }
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path temp = Files.createTempFile(directory, CHECKPOINT_FILE, ".tmp");
+        try {
+            Files.write(temp, ByteBuffer.allocate(8).putLong(acknowledged).array());
+            Files.move(
+                    temp,
+                    directory.resolve(CHECKPOINT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static int writeRecord(FileChannel channel, byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + record.length);
+        buffer.putInt(record.length).putInt((int) checksum(record)).put(record).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return RECORD_HEADER_SIZE + record.length;
+    }
+
+    private static long checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,68 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import name.fraser.neil.plaintext.DiffMatchPatch;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Rebuilds documents from events produced by {@link EventDiffer}, in the same way
+ * the snapshot server does.
+ *
+ * <p>Events must be given in the order they happened. A full document event
+ * replaces the document; any other event is patched onto the previous contents
+ * of the same document.
+ */
+public class EventPatchReconstructor {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final DiffMatchPatch diffMatchPatch = new DiffMatchPatch();
+    private final Map<String, String> documents = new HashMap<>();
+
+    /**
+     * Applies {@code event} and returns the resulting document contents.
+     *
+     * @throws IllegalArgumentException if the event is not a patch event, or
+     *     if it cannot be applied because an earlier event of the document is missing
+     */
+    public String apply(LoggableEvent event) {
+        JsonObject data;
+        try {
+            JsonElement json = new JsonParser().parse(new String(event.getData(), UTF8));
+            data = json.getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException ex) {
+            throw new IllegalArgumentException("Not a patch event: " + event, ex);
+        }
+
+        String file = data.has("file") ? data.get("file").getAsString() : "";
+        String documentKey = event.getKey() + "|" + file;
+        boolean fullDocument =
+                data.has("full_document") && data.get("full_document").getAsBoolean();
+
+        String previous = fullDocument ? "" : documents.get(documentKey);
+        if (previous == null) {
+            throw new IllegalArgumentException("No full document before patch for " + file);
+        }
+
+        LinkedList<DiffMatchPatch.Patch> patches =
+                new LinkedList<>(diffMatchPatch.patch_fromText(data.get("patches").getAsString()));
+        Object[] result = diffMatchPatch.patch_apply(patches, previous);
+        for (boolean applied : (boolean[]) result[1]) {
+            if (!applied) {
+                throw new IllegalArgumentException("Patch does not apply to " + file);
+            }
+        }
+
+        String text = (String) result[0];
+        documents.put(documentKey, text);
+        return text;
+    }
+}
@@ -4,10 +4,15 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
 import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.exceptions.PayloadTooLargeException;
+import fi.helsinki.cs.tmc.core.holders.MetricsHolder;
+import fi.helsinki.cs.tmc.core.holders.TmcExecutorsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.metrics.MetricsRegistry;
+import fi.helsinki.cs.tmc.core.metrics.Span;
 import fi.helsinki.cs.tmc.core.utilities.Cooldown;
 import fi.helsinki.cs.tmc.core.utilities.SingletonTask;
-import fi.helsinki.cs.tmc.core.utilities.TmcRequestProcessor;
+import fi.helsinki.cs.tmc.core.utilities.TmcExecutors;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Iterables;
@@ -24,7 +29,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Buffers {@link LoggableEvent}s and sends them to the server and/or syncs them to the disk
@@ -39,18 +49,35 @@ public class EventSendBuffer implements EventReceiver {
     public static final int DEFAULT_AUTOSEND_THREHSOLD = DEFAULT_MAX_EVENTS / 2;
     public static final int DEFAULT_AUTOSEND_COOLDOWN = 30 * 1000;
     public static final int DEFAULT_MAX_EVENTS_PER_SEND = 500;
+    public static final int DEFAULT_MAX_CONCURRENT_SENDS = 4;
 
     private Random random = new Random();
     private TmcServerCommunicationTaskFactory serverAccess;
     private EventStore eventStore;
+    private SnapshotEndpointHealth endpointHealth = SnapshotEndpointHealth.getDefault();
+    private final EventBatchSizer batchSizer = new EventBatchSizer(); // Servers have POST size limits
+
+    // The following variables must only be accessed from the sending task.
+    // The number of batches sent concurrently grows while sending succeeds
+    // and drops back to one after a failure.
+    private int sendWindow = 1;
+    private volatile int maxConcurrentSends = DEFAULT_MAX_CONCURRENT_SENDS;
+
+    // Received events wait here until the sender or the saver drains them into
+    // sendQueue, so that receiving an event never waits for the lock on sendQueue.
+    private final ConcurrentLinkedQueue<LoggableEvent> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger incomingCount = new AtomicInteger();
+    private volatile int queuedCount = 0; // sendQueue.size() as of the last drain
 
     // The following variables must only be accessed with a lock on sendQueue.
     private final ArrayDeque<LoggableEvent> sendQueue = new ArrayDeque<>();
     private int eventsToRemoveAfterSend = 0;
-    private int maxEvents = DEFAULT_MAX_EVENTS;
-    private int autosendThreshold = DEFAULT_AUTOSEND_THREHSOLD;
-    private int maxEventsPerSend = DEFAULT_MAX_EVENTS_PER_SEND; // Servers have POST size limits
-    private Cooldown autosendCooldown;
+    private volatile int maxEvents = DEFAULT_MAX_EVENTS;
+    private volatile int autosendThreshold = DEFAULT_AUTOSEND_THREHSOLD;
+    private int maxEventsPerSend = DEFAULT_MAX_EVENTS_PER_SEND;
+
+    // Must only be accessed with a lock on itself.
+    private final Cooldown autosendCooldown;
 
     public EventSendBuffer(EventStore eventStore) {
         this(new TmcServerCommunicationTaskFactory(), eventStore);
@@ -67,6 +94,7 @@ public class EventSendBuffer implements EventReceiver {
             List<LoggableEvent> initialEvents = Arrays.asList(eventStore.load());
             initialEvents = initialEvents.subList(0, Math.min(maxEvents, initialEvents.size()));
             this.sendQueue.addAll(initialEvents);
+            this.queuedCount = sendQueue.size();
         } catch (IOException | RuntimeException ex) {
             log.warn("Failed to read events from event store", ex);
         }
@@ -89,6 +117,7 @@ public class EventSendBuffer implements EventReceiver {
         checkArgument(newMaxEvents > 0);
 
         synchronized (sendQueue) {
+            drainIncoming();
             if (newMaxEvents < maxEvents) {
                 int diff = newMaxEvents - maxEvents;
                 for (int i = 0; i < diff; ++i) {
@@ -102,19 +131,17 @@ public class EventSendBuffer implements EventReceiver {
     }
 
     public void setAutosendThreshold(int autosendThreshold) {
-        synchronized (sendQueue) {
-            if (autosendThreshold <= 0) {
-                throw new IllegalArgumentException();
-            }
-            this.autosendThreshold = autosendThreshold;
-
-            maybeAutosend();
+        if (autosendThreshold <= 0) {
+            throw new IllegalArgumentException();
         }
+        this.autosendThreshold = autosendThreshold;
+
+        maybeAutosend();
     }
 
     public void setAutosendCooldown(long durationMillis) {
         checkArgument(durationMillis > 0);
-        synchronized (sendQueue) {
+        synchronized (autosendCooldown) {
             this.autosendCooldown.setDurationMillis(durationMillis);
         }
     }
@@ -126,6 +153,19 @@ public class EventSendBuffer implements EventReceiver {
         }
     }
 
+    /**
+     * Sets the most bytes of compressed events sent at a time. Batches start smaller
+     * and grow towards this while the server keeps up.
+     */
+    public void setMaxBytesPerSend(int maxBytesPerSend) {
+        batchSizer.setMaxBytes(maxBytesPerSend);
+    }
+
+    public void setMaxConcurrentSends(int maxConcurrentSends) {
+        checkArgument(maxConcurrentSends > 0);
+        this.maxConcurrentSends = maxConcurrentSends;
+    }
+
     public void sendNow() {
         sendingTask.start();
     }
@@ -142,22 +182,45 @@ public class EventSendBuffer implements EventReceiver {
 
     @Override
     public void receiveEvent(LoggableEvent event) {
-        synchronized (sendQueue) {
-            if (sendQueue.size() >= maxEvents) {
-                sendQueue.pop();
-                eventsToRemoveAfterSend--;
+        incoming.add(event);
+        if (incomingCount.incrementAndGet() > maxEvents) {
+            // Everything older would be discarded when draining anyway
+            if (incoming.poll() != null) {
+                incomingCount.decrementAndGet();
             }
-            sendQueue.add(event);
-
-            maybeAutosend();
         }
+
+        maybeAutosend();
     }
 
     private void maybeAutosend() {
-        if (sendQueue.size() >= autosendThreshold && autosendCooldown.isExpired()) {
+        if (queuedCount + incomingCount.get() < autosendThreshold) {
+            return;
+        }
+        synchronized (autosendCooldown) {
+            if (!autosendCooldown.isExpired()) {
+                return;
+            }
             autosendCooldown.start();
-            sendNow();
         }
+        sendNow();
+    }
+
+    /**
+     * Moves received events to the end of sendQueue, discarding the oldest events
+     * if there are too many. Must be called with a lock on sendQueue.
+     */
+    private void drainIncoming() {
+        LoggableEvent event;
+        while ((event = incoming.poll()) != null) {
+            incomingCount.decrementAndGet();
+            if (sendQueue.size() >= maxEvents) {
+                sendQueue.pop();
+                eventsToRemoveAfterSend--;
+            }
+            sendQueue.add(event);
+        }
+        queuedCount = sendQueue.size();
     }
 
     /**
@@ -186,7 +249,7 @@ public class EventSendBuffer implements EventReceiver {
     }
 
     private SingletonTask sendingTask =
-            new SingletonTask(getSendingTaskRunnable(), TmcRequestProcessor.instance);
+            new SingletonTask(getSendingTaskRunnable(), TmcExecutors.Pool.NETWORK_IO);
 
     private Runnable getSendingTaskRunnable() {
         return new Runnable() {
@@ -195,46 +258,87 @@ public class EventSendBuffer implements EventReceiver {
                 boolean shouldSendMore;
 
                 do {
-                    ArrayList<LoggableEvent> eventsToSend = copyEventsToSendFromQueue();
-                    if (eventsToSend.isEmpty()) {
+                    List<List<LoggableEvent>> batches = copyBatchesToSendFromQueue();
+                    if (batches.isEmpty()) {
                         return;
                     }
+                    int eventsToSend = 0;
+                    for (List<LoggableEvent> batch : batches) {
+                        eventsToSend += batch.size();
+                    }
 
                     synchronized (sendQueue) {
-                        shouldSendMore = sendQueue.size() > eventsToSend.size();
+                        drainIncoming();
+                        shouldSendMore = sendQueue.size() > eventsToSend;
                     }
 
-                    URI url = pickDestinationUrl();
-                    if (url == null) {
+                    List<URI> urls = getDestinationUrls();
+                    if (urls == null) {
                         return;
                     }
 
-                    log.warn(
-                            "Sending {0} events to {1}",
-                            new Object[] {eventsToSend.size(), url});
+                    boolean[] sent = sendBatches(batches, urls);
 
-                        if (!tryToSend(eventsToSend, url)) {
-                            shouldSendMore = false;
-                        }
+                    boolean allSent = true;
+                    boolean anySent = false;
+                    for (boolean batchSent : sent) {
+                        allSent &= batchSent;
+                        anySent |= batchSent;
+                    }
+
+                    removeSentEventsFromQueue(batches, sent);
+
+                    if (allSent) {
+                        sendWindow = Math.min(sendWindow * 2, maxConcurrentSends);
+                    } else {
+                        sendWindow = 1;
+                        shouldSendMore = false;
+                    }
+
+                    if (anySent) {
+                        // If saving fails now (or is already running and fails later)
+                        // then we may end up sending duplicate events later.
+                        // This will hopefully be very rare.
+                        savingTask.start();
+                    }
                 } while (shouldSendMore);
             }
 
-            private ArrayList<LoggableEvent> copyEventsToSendFromQueue() {
+            /**
+             * Copies up to one batch per concurrent send from the front of the queue.
+             * A batch ends when its estimated compressed size reaches the byte budget
+             * or it has {@code maxEventsPerSend} events, but always has at least one.
+             */
+            private List<List<LoggableEvent>> copyBatchesToSendFromQueue() {
+                long rawBudget = batchSizer.getRawBudget();
                 synchronized (sendQueue) {
-                    ArrayList<LoggableEvent> eventsToSend = new ArrayList<>(sendQueue.size());
+                    drainIncoming();
+                    sendWindow = Math.min(sendWindow, maxConcurrentSends);
+                    List<List<LoggableEvent>> batches = new ArrayList<>(sendWindow);
 
+                    int eventsToSend = 0;
                     Iterator<LoggableEvent> iterator = sendQueue.iterator();
-                    while (iterator.hasNext() && eventsToSend.size() < maxEventsPerSend) {
-                        eventsToSend.add(iterator.next());
+                    while (iterator.hasNext() && batches.size() < sendWindow) {
+                        List<LoggableEvent> batch = new ArrayList<>();
+                        long batchBytes = 0;
+                        while (iterator.hasNext()
+                                && batch.size() < maxEventsPerSend
+                                && batchBytes < rawBudget) {
+                            LoggableEvent event = iterator.next();
+                            batch.add(event);
+                            batchBytes += EventBatchSizer.rawSize(event);
+                        }
+                        batches.add(batch);
+                        eventsToSend += batch.size();
                     }
 
-                    eventsToRemoveAfterSend = eventsToSend.size();
+                    eventsToRemoveAfterSend = eventsToSend;
 
-                    return eventsToSend;
+                    return batches;
                 }
             }
 
-            private URI pickDestinationUrl() {
+            private List<URI> getDestinationUrls() {
                 Optional<Course> course = TmcSettingsHolder.get().getCurrentCourse();
                 if (!course.isPresent()) {
                     log.debug("Not sending events because no course selected");
@@ -247,40 +351,157 @@ public class EventSendBuffer implements EventReceiver {
                     return null;
                 }
 
-                return urls.get(random.nextInt(urls.size()));
+                return urls;
             }
 
-            private boolean tryToSend(final ArrayList<LoggableEvent> eventsToSend, final URI url) {
-                // TODO: Should we still wrap this into bg task (future)
+            /**
+             * Sends the batches concurrently, spread over the servers in the order of
+             * their health, and returns which of them were sent.
+             *
+             * <p>This runs on the network pool itself, so it never just waits for a batch
+             * that the pool hasn't started: it sends that batch itself instead. Otherwise
+             * a single-threaded or saturated pool would deadlock.
+             */
+            private boolean[] sendBatches(List<List<LoggableEvent>> batches, List<URI> urls) {
+                final List<URI> orderedUrls = endpointHealth.order(urls, random);
+                int healthyUrls = 1;
+                while (healthyUrls < orderedUrls.size()
+                        && !endpointHealth.isBackedOff(orderedUrls.get(healthyUrls))) {
+                    healthyUrls++;
+                }
 
-                try {
-                    Callable<Object> task = serverAccess.getSendEventLogJob(url, eventsToSend);
-                    task.call();
-                } catch (Exception ex) {
-                    log.info("Sending failed", ex);
-                    return false;
+                List<FutureTask<Boolean>> pending = new ArrayList<>();
+                for (int i = 1; i < batches.size(); i++) {
+                    final List<LoggableEvent> batch = batches.get(i);
+                    final int first = i % healthyUrls;
+                    FutureTask<Boolean> send = new FutureTask<>(
+                            new Callable<Boolean>() {
+                                @Override
+                                public Boolean call() {
+                                    return tryToSend(batch, orderedUrls, first);
+                                }
+                            });
+                    pending.add(send);
+                    try {
+                        TmcExecutorsHolder.get().getNetworkIo().execute(send);
+                    } catch (RejectedExecutionException ex) {
+                        log.debug("Network pool rejected a batch, sending it inline", ex);
+                    }
                 }
 
-                log.info(
-                        "Sent {0} events successfully to {1}",
-                        new Object[] {eventsToSend.size(), url});
+                boolean[] sent = new boolean[batches.size()];
+                sent[0] = tryToSend(batches.get(0), orderedUrls, 0);
+                for (int i = 1; i < batches.size(); i++) {
+                    FutureTask<Boolean> send = pending.get(i - 1);
+                    // Does nothing if a pool thread already started the send
+                    send.run();
+                    try {
+                        sent[i] = send.get();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        log.info("Interrupted while sending events", ex);
+                    } catch (ExecutionException ex) {
+                        log.info("Sending failed", ex);
+                    }
+                }
+                return sent;
+            }
+
+            /**
+             * Sends a batch to the server at {@code first} in {@code urls}, or once more
+             * to the next server if that fails and there is another one.
+             */
+            private boolean tryToSend(List<LoggableEvent> batch, List<URI> urls, int first) {
+                long rawBytes = 0;
+                for (LoggableEvent event : batch) {
+                    rawBytes += EventBatchSizer.rawSize(event);
+                }
 
-                removeSentEventsFromQueue();
+                MetricsRegistry metrics = MetricsHolder.get();
+                metrics.histogram("snapshot.batch.events").record(batch.size());
+                metrics.histogram("snapshot.batch.raw_bytes").record(rawBytes);
 
-                // If saving fails now (or is already running and fails later)
-                // then we may end up sending duplicate events later.
-                // This will hopefully be very rare.
-                savingTask.start();
-                return true;
+                int attempts = Math.min(2, urls.size());
+                for (int attempt = 0; attempt < attempts; attempt++) {
+                    URI url = urls.get((first + attempt) % urls.size());
+                    log.info("Sending {} events to {}", batch.size(), url);
+
+                    long startTime = System.currentTimeMillis();
+                    Object sentBytes;
+                    Span span = metrics.startSpan(
+                            "snapshot.batch", "failover", String.valueOf(attempt > 0));
+                    try {
+                        Callable<Object> task =
+                                serverAccess.getSendEventLogJob(url, new ArrayList<>(batch));
+                        sentBytes = task.call();
+                    } catch (PayloadTooLargeException ex) {
+                        span.fail(ex);
+                        span.end();
+                        batchSizer.recordTooLarge(rawBytes, ex.getPayloadSize());
+                        if (batch.size() == 1) {
+                            // No smaller batch would get this event through
+                            log.warn("Discarding event too large to send", ex);
+                            return true;
+                        }
+                        log.info("Sending failed, will send smaller batches", ex);
+                        return false;
+                    } catch (Exception ex) {
+                        span.fail(ex);
+                        span.end();
+                        log.info("Sending failed", ex);
+                        endpointHealth.recordFailure(url);
+                        continue;
+                    }
+                    span.end();
+                    long duration = System.currentTimeMillis() - startTime;
+                    endpointHealth.recordSuccess(url, duration);
+                    long compressedBytes =
+                            sentBytes instanceof Number ? ((Number) sentBytes).longValue() : 0;
+                    batchSizer.recordSent(rawBytes, compressedBytes, duration);
+                    metrics.histogram("snapshot.batch.sent_bytes").record(compressedBytes);
+
+                    log.info("Sent {} events successfully to {}", batch.size(), url);
+                    return true;
+                }
+                return false;
             }
 
-            private void removeSentEventsFromQueue() {
+            /**
+             * Removes the events of sent batches from the front of the queue, keeping
+             * the events of batches that failed.
+             */
+            private void removeSentEventsFromQueue(
+                    List<List<LoggableEvent>> batches, boolean[] sent) {
                 synchronized (sendQueue) {
+                    drainIncoming();
                     assert (eventsToRemoveAfterSend <= sendQueue.size());
-                    while (eventsToRemoveAfterSend > 0) {
-                        sendQueue.pop();
-                        eventsToRemoveAfterSend--;
+
+                    int eventsSent = 0;
+                    for (List<LoggableEvent> batch : batches) {
+                        eventsSent += batch.size();
                     }
+
+                    // Events that overflowed during sending were already removed
+                    int discarded = eventsSent - Math.max(eventsToRemoveAfterSend, 0);
+                    ArrayList<LoggableEvent> failed = new ArrayList<>();
+                    int index = 0;
+                    for (int i = 0; i < batches.size(); i++) {
+                        for (int j = 0; j < batches.get(i).size(); j++, index++) {
+                            if (index < discarded) {
+                                continue;
+                            }
+                            LoggableEvent event = sendQueue.pop();
+                            if (!sent[i]) {
+                                failed.add(event);
+                            }
+                        }
+                    }
+                    for (int i = failed.size() - 1; i >= 0; i--) {
+                        sendQueue.addFirst(failed.get(i));
+                    }
+
+                    eventsToRemoveAfterSend = 0;
+                    queuedCount = sendQueue.size();
                 }
             }
         };
@@ -293,6 +514,7 @@ public class EventSendBuffer implements EventReceiver {
                     try {
                         LoggableEvent[] eventsToSave;
                         synchronized (sendQueue) {
+                            drainIncoming();
                             eventsToSave = Iterables.toArray(sendQueue, LoggableEvent.class);
                         }
                         eventStore.save(eventsToSave);
@@ -303,5 +525,5 @@ public class EventSendBuffer implements EventReceiver {
             };
 
     private SingletonTask savingTask =
-            new SingletonTask(eventsToSaveRunnable, TmcRequestProcessor.instance);
+            new SingletonTask(eventsToSaveRunnable, TmcExecutors.Pool.DISK_IO);
 }
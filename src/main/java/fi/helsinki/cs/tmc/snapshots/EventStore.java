@@ -1,49 +1,179 @@
 package fi.helsinki.cs.tmc.snapshots;
 
-import fi.helsinki.cs.tmc.core.persistance.ConfigFileIo;
-import fi.helsinki.cs.tmc.core.utilities.ByteArrayGsonSerializer;
+import fi.helsinki.cs.tmc.core.communication.serialization.GsonRegistry;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * Persists the events of an {@link EventSendBuffer} in an append-only {@link EventLog}.
+ *
+ * <p>The buffer saves its whole queue every time, but events only ever leave the
+ * queue from the front and enter it from the back. The store remembers which
+ * events it has already written, so saving only acknowledges the events that
+ * left the queue and appends the ones that entered it.
+ */
 public class EventStore {
     private static final Logger log = LoggerFactory.getLogger(EventStore.class.getName());
 
-    private ConfigFileIo configFile;
+    private static final String DIRECTORY_NAME = "events";
+    private static final String LEGACY_FILE_NAME = "Events.json";
+
+    private Path directory;
+    private EventLog eventLog;
+    private boolean loaded;
+
+    // Events in the log that have not been acknowledged, oldest first.
+    private final List<LoggableEvent> stored = new ArrayList<>();
 
-    // TODO: where the config file goes?
     public EventStore() {
-        this.configFile = new ConfigFileIo("Events.json");
     }
 
-    public void save(LoggableEvent[] events) throws IOException {
-        String text = getGson().toJson(events);
-        configFile.writeContents(text);
-        log.info("Saved {0} events", events.length);
+    /**
+     * Creates a store that keeps its log in {@code directory}. Events saved by older
+     * versions to {@code Events.json} next to the directory are migrated on load.
+     */
+    public EventStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public synchronized void save(LoggableEvent[] events) throws IOException {
+        EventLog eventLog = getEventLog();
+        if (!loaded) {
+            // Like a full rewrite, the saved events replace whatever was stored before
+            eventLog.clear();
+            loaded = true;
+        }
+
+        int removed = removedFromFront(events);
+        if (removed < 0) {
+            log.info("Saved events do not continue the stored ones, rewriting event log");
+            removed = stored.size();
+        }
+        eventLog.acknowledge(removed);
+        stored.subList(0, removed).clear();
+
+        List<LoggableEvent> added =
+                Arrays.asList(events).subList(stored.size(), events.length);
+        eventLog.append(encode(added));
+        stored.addAll(added);
+
+        log.info("Saved {} events, {} new", events.length, added.size());
     }
 
-    public LoggableEvent[] load() throws IOException {
-        String text = configFile.readContents();
-        LoggableEvent[] result = getGson().fromJson(text, LoggableEvent[].class);
-        if (result == null) {
-            result = new LoggableEvent[0];
+    public synchronized LoggableEvent[] load() throws IOException {
+        EventLog eventLog = getEventLog();
+        stored.clear();
+        loaded = true;
+
+        for (byte[] record : eventLog.readUnacknowledged()) {
+            try {
+                stored.add(decode(record));
+            } catch (IOException | JsonParseException | IndexOutOfBoundsException ex) {
+                log.warn("Skipping unreadable event", ex);
+            }
+        }
+        if (stored.size() != eventLog.size()) {
+            // Keep the log and the stored events in step
+            eventLog.clear();
+            eventLog.append(encode(stored));
         }
-        log.info("Loaded {0} events", result.length);
-        return result;
+
+        if (stored.isEmpty()) {
+            migrateLegacyFile();
+        }
+
+        log.info("Loaded {} events", stored.size());
+        return stored.toArray(new LoggableEvent[stored.size()]);
     }
 
-    private Gson getGson() {
-        return new GsonBuilder()
-                .registerTypeAdapter(byte[].class, new ByteArrayGsonSerializer())
-                .create();
+    public synchronized void clear() throws IOException {
+        getEventLog().clear();
+        stored.clear();
+        loaded = true;
     }
 
-    public void clear() throws IOException {
-        configFile.writeContents("");
+    /**
+     * Returns how many stored events are no longer at the front of {@code events},
+     * or -1 if {@code events} does not continue the stored events.
+     */
+    private int removedFromFront(LoggableEvent[] events) {
+        if (events.length == 0) {
+            return stored.size();
+        }
+
+        int removed = 0;
+        while (removed < stored.size() && stored.get(removed) != events[0]) {
+            removed++;
+        }
+
+        int kept = stored.size() - removed;
+        if (kept > events.length) {
+            return -1;
+        }
+        for (int i = 0; i < kept; i++) {
+            if (stored.get(removed + i) != events[i]) {
+                return -1;
+            }
+        }
+        return removed;
+    }
+
+    private void migrateLegacyFile() throws IOException {
+        Path legacyFile = directory.resolveSibling(LEGACY_FILE_NAME);
+        if (!Files.exists(legacyFile)) {
+            return;
+        }
+
+        String text = new String(Files.readAllBytes(legacyFile), StandardCharsets.UTF_8);
+        LoggableEvent[] events = GsonRegistry.events().fromJson(text, LoggableEvent[].class);
+        if (events != null) {
+            eventLog.append(encode(Arrays.asList(events)));
+            stored.addAll(Arrays.asList(events));
+            log.info("Migrated {} events from {}", events.length, legacyFile);
+        }
+        Files.delete(legacyFile);
+    }
+
+    private EventLog getEventLog() {
+        if (eventLog == null) {
+            if (directory == null) {
+                directory = TmcSettingsHolder.get().getConfigRoot().resolve(DIRECTORY_NAME);
+            }
+            eventLog = new EventLog(directory);
+        }
+        return eventLog;
+    }
+
+    private static List<byte[]> encode(List<LoggableEvent> events) {
+        List<byte[]> records = new ArrayList<>(events.size());
+        for (LoggableEvent event : events) {
+            records.add(LoggableEventBinaryCodec.encodeEvent(event));
+        }
+        return records;
+    }
+
+    private static LoggableEvent decode(byte[] record) throws IOException {
+        if (LoggableEventBinaryCodec.isEncodedEvent(record)) {
+            return LoggableEventBinaryCodec.decodeEvent(record);
+        }
+        // Records written as one-event lists before single event records
+        if (LoggableEventBinaryCodec.isEncoded(record)) {
+            return LoggableEventBinaryCodec.decode(record).get(0);
+        }
+        // Records written before the binary encoding
+        return GsonRegistry.events()
+                .fromJson(new String(record, StandardCharsets.UTF_8), LoggableEvent.class);
     }
 }
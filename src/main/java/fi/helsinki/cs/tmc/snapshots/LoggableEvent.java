@@ -126,6 +126,10 @@ public class LoggableEvent implements TmcEvent {
         return systemNanotime;
     }
 
+    void setSystemNanotime(long systemNanotime) {
+        this.systemNanotime = systemNanotime;
+    }
+
     @Override
     public String toString() {
         return "LoggableEvent{"
@@ -0,0 +1,302 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding for lists of {@link LoggableEvent}s.
+ *
+ * <p>The encoding starts with {@link #MAGIC} and a format version. Then come the
+ * number of events and the events themselves:
+ * <ul>
+ * <li>course name, exercise name, event type and metadata as string references</li>
+ * <li>happenedAt and systemNanotime as zig-zag varint deltas from the previous event</li>
+ * <li>the data as a varint length followed by the raw bytes</li>
+ * </ul>
+ *
+ * <p>A string reference is a varint: 0 for null, {@code n} for the {@code n}th string
+ * seen so far, or one past the last seen string followed by a new string (varint
+ * length and UTF-8 bytes). Consecutive events almost always share their course,
+ * exercise and event type, so those cost a byte or two each.
+ *
+ * <p>A single event can also be encoded on its own with {@link #encodeEvent}, for
+ * stores that keep one event per record. Such a record is {@link #EVENT_RECORD}
+ * followed by the event in the layout above, with its own string table and its times
+ * relative to zero.
+ */
+public final class LoggableEventBinaryCodec {
+
+    public static final byte[] MAGIC = {'T', 'M', 'C', 'E'};
+    public static final int VERSION = 1;
+
+    /**
+     * The first byte of a single event record. Neither a list encoding nor JSON starts
+     * with it.
+     */
+    public static final byte EVENT_RECORD = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_LENGTH = 64 * 1024 * 1024;
+
+    private LoggableEventBinaryCodec() {
+    }
+
+    public static byte[] encode(List<LoggableEvent> events) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(events, out);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    public static List<LoggableEvent> decode(byte[] bytes) throws IOException {
+        return read(new ByteArrayInputStream(bytes));
+    }
+
+    public static byte[] encodeEvent(LoggableEvent event) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(EVENT_RECORD);
+        try {
+            writeEvent(out, new HashMap<String, Integer>(), event, 0, 0);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    public static LoggableEvent decodeEvent(byte[] bytes) throws IOException {
+        if (!isEncodedEvent(bytes)) {
+            throw new IOException("Not a binary event record");
+        }
+        InputStream in = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+        return readEvent(in, new ArrayList<String>(), 0, 0);
+    }
+
+    /**
+     * Returns whether {@code bytes} is a single event record written by
+     * {@link #encodeEvent}.
+     */
+    public static boolean isEncodedEvent(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == EVENT_RECORD;
+    }
+
+    /**
+     * Returns whether {@code bytes} starts like a list encoding written by this codec.
+     */
+    public static boolean isEncoded(byte[] bytes) {
+        if (bytes.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void write(List<LoggableEvent> events, OutputStream out) throws IOException {
+        out.write(MAGIC);
+        writeVarint(out, VERSION);
+        writeVarint(out, events.size());
+
+        Map<String, Integer> strings = new HashMap<>();
+        long previousHappenedAt = 0;
+        long previousNanotime = 0;
+        for (LoggableEvent event : events) {
+            writeEvent(out, strings, event, previousHappenedAt, previousNanotime);
+            previousHappenedAt = event.getHappenedAt();
+            previousNanotime = event.getSystemNanotime();
+        }
+    }
+
+    public static List<LoggableEvent> read(InputStream in) throws IOException {
+        for (byte expected : MAGIC) {
+            if (in.read() != (expected & 0xff)) {
+                throw new IOException("Not a binary event encoding");
+            }
+        }
+        long version = readVarint(in);
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary event encoding version " + version);
+        }
+
+        int count = readLength(in);
+        List<LoggableEvent> events = new ArrayList<>(Math.min(count, 1024));
+        List<String> strings = new ArrayList<>();
+        long happenedAt = 0;
+        long systemNanotime = 0;
+        for (int i = 0; i < count; i++) {
+            LoggableEvent event = readEvent(in, strings, happenedAt, systemNanotime);
+            happenedAt = event.getHappenedAt();
+            systemNanotime = event.getSystemNanotime();
+            events.add(event);
+        }
+        return events;
+    }
+
+    private static void writeEvent(
+            OutputStream out,
+            Map<String, Integer> strings,
+            LoggableEvent event,
+            long previousHappenedAt,
+            long previousNanotime)
+            throws IOException {
+        writeString(out, strings, event.getCourseName());
+        writeString(out, strings, event.getExerciseName());
+        writeString(out, strings, event.getEventType());
+        writeString(out, strings, event.getMetadata());
+        writeVarint(out, zigZag(event.getHappenedAt() - previousHappenedAt));
+        writeVarint(out, zigZag(event.getSystemNanotime() - previousNanotime));
+
+        byte[] data = event.getData();
+        if (data == null) {
+            writeVarint(out, 0);
+        } else {
+            writeVarint(out, data.length + 1L);
+            out.write(data);
+        }
+    }
+
+    private static LoggableEvent readEvent(
+            InputStream in, List<String> strings, long previousHappenedAt, long previousNanotime)
+            throws IOException {
+        String courseName = readString(in, strings);
+        String exerciseName = readString(in, strings);
+        String eventType = readString(in, strings);
+        String metadata = readString(in, strings);
+        long happenedAt = previousHappenedAt + unZigZag(readVarint(in));
+        long systemNanotime = previousNanotime + unZigZag(readVarint(in));
+
+        byte[] data = null;
+        int dataLength = readLength(in);
+        if (dataLength > 0) {
+            data = readFully(in, dataLength - 1);
+        }
+
+        LoggableEvent event =
+                new LoggableEvent(
+                        courseName, exerciseName, eventType, data, parseMetadata(metadata));
+        event.setHappenedAt(happenedAt);
+        event.setSystemNanotime(systemNanotime);
+        return event;
+    }
+
+    private static JsonMaker parseMetadata(String metadata) throws IOException {
+        if (metadata == null) {
+            return null;
+        }
+        try {
+            JsonElement json = new JsonParser().parse(metadata);
+            return json.isJsonObject() ? new JsonMaker((JsonObject) json) : null;
+        } catch (JsonParseException ex) {
+            throw new IOException("Corrupted event metadata", ex);
+        }
+    }
+
+    private static void writeString(OutputStream out, Map<String, Integer> strings, String value)
+            throws IOException {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeVarint(out, index + 1L);
+            return;
+        }
+
+        strings.put(value, strings.size());
+        writeVarint(out, strings.size());
+        byte[] bytes = value.getBytes(UTF8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(InputStream in, List<String> strings) throws IOException {
+        long reference = readVarint(in);
+        if (reference == 0) {
+            return null;
+        }
+        if (reference <= strings.size()) {
+            return strings.get((int) reference - 1);
+        }
+        if (reference != strings.size() + 1L) {
+            throw new IOException("Invalid string reference " + reference);
+        }
+
+        String value = new String(readFully(in, readLength(in)), UTF8);
+        strings.add(value);
+        return value;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readLength(InputStream in) throws IOException {
+        long length = readVarint(in);
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new IOException("Invalid length " + length);
+        }
+        return (int) length;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            read += n;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,123 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Reads and writes {@link LoggableEvent}s without reflection.
+ *
+ * <p>The data and the metadata are written as base64 strings, which is the format the
+ * snapshot server expects. Events stored by older versions, where the metadata is a
+ * nested object, can still be read.
+ */
+public class LoggableEventTypeAdapter extends TypeAdapter<LoggableEvent> {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Override
+    public void write(JsonWriter out, LoggableEvent event) throws IOException {
+        if (event == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("courseName").value(event.getCourseName());
+        out.name("exerciseName").value(event.getExerciseName());
+        out.name("eventType").value(event.getEventType());
+        out.name("data").value(encode(event.getData()));
+        out.name("metadata").value(encode(event.getMetadata().getBytes(UTF8)));
+        out.name("happenedAt").value(event.getHappenedAt());
+        out.name("systemNanotime").value(event.getSystemNanotime());
+        out.endObject();
+    }
+
+    @Override
+    public LoggableEvent read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        String courseName = null;
+        String exerciseName = null;
+        String eventType = null;
+        byte[] data = null;
+        JsonMaker metadata = null;
+        long happenedAt = 0;
+        long systemNanotime = 0;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "courseName":
+                    courseName = in.nextString();
+                    break;
+                case "exerciseName":
+                    exerciseName = in.nextString();
+                    break;
+                case "eventType":
+                    eventType = in.nextString();
+                    break;
+                case "data":
+                    data = Base64.decodeBase64(in.nextString());
+                    break;
+                case "metadata":
+                    metadata = readMetadata(in);
+                    break;
+                case "happenedAt":
+                    happenedAt = in.nextLong();
+                    break;
+                case "systemNanotime":
+                    systemNanotime = in.nextLong();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        LoggableEvent event =
+                new LoggableEvent(courseName, exerciseName, eventType, data, metadata);
+        event.setHappenedAt(happenedAt);
+        event.setSystemNanotime(systemNanotime);
+        return event;
+    }
+
+    private JsonMaker readMetadata(JsonReader in) throws IOException {
+        JsonElement metadata;
+        if (in.peek() == JsonToken.STRING) {
+            String json = new String(Base64.decodeBase64(in.nextString()), UTF8);
+            metadata = new JsonParser().parse(json);
+        } else {
+            // Older event stores serialized JsonMaker field by field
+            JsonElement legacy = new JsonParser().parse(in);
+            metadata = legacy.isJsonObject() ? legacy.getAsJsonObject().get("toplevel") : null;
+        }
+        if (metadata == null || !metadata.isJsonObject()) {
+            return null;
+        }
+        return new JsonMaker((JsonObject) metadata);
+    }
+
+    private String encode(byte[] bytes) {
+        return bytes == null ? null : Base64.encodeBase64String(bytes);
+    }
+}
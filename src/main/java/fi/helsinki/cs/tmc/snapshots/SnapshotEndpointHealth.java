@@ -0,0 +1,136 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tracks how well each snapshot server has been doing, so that uploads can
+ * prefer fast and working servers and leave failing ones alone for a while.
+ *
+ * <p>Latency and error rate are exponentially weighted moving averages. Each
+ * consecutive failure doubles the time a server is backed off, up to
+ * {@link #MAX_BACKOFF_MILLIS}.
+ */
+public class SnapshotEndpointHealth {
+
+    public static final long INITIAL_BACKOFF_MILLIS = 1000;
+    public static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    private static final double SMOOTHING = 0.3;
+    private static final SnapshotEndpointHealth DEFAULT = new SnapshotEndpointHealth();
+
+    private final Map<URI, Stats> stats = new HashMap<>();
+
+    private static class Stats {
+        private int latencySamples = 0;
+        private double latencyMillis = 0;
+        private double errorRate = 0;
+        private int consecutiveFailures = 0;
+        private long backedOffUntil = 0;
+    }
+
+    /**
+     * Returns the instance shared by all snapshot uploads.
+     */
+    public static SnapshotEndpointHealth getDefault() {
+        return DEFAULT;
+    }
+
+    public synchronized void recordSuccess(URI endpoint, long latencyMillis) {
+        Stats endpointStats = statsFor(endpoint);
+        endpointStats.latencyMillis =
+                endpointStats.latencySamples++ == 0
+                        ? latencyMillis
+                        : average(endpointStats.latencyMillis, latencyMillis);
+        endpointStats.errorRate = average(endpointStats.errorRate, 0);
+        endpointStats.consecutiveFailures = 0;
+        endpointStats.backedOffUntil = 0;
+    }
+
+    public synchronized void recordFailure(URI endpoint) {
+        Stats endpointStats = statsFor(endpoint);
+        endpointStats.errorRate = average(endpointStats.errorRate, 1);
+        endpointStats.consecutiveFailures++;
+        long backoff =
+                INITIAL_BACKOFF_MILLIS
+                        << Math.min(endpointStats.consecutiveFailures - 1, 20);
+        endpointStats.backedOffUntil =
+                System.currentTimeMillis() + Math.min(backoff, MAX_BACKOFF_MILLIS);
+    }
+
+    public synchronized boolean isBackedOff(URI endpoint) {
+        Stats endpointStats = stats.get(endpoint);
+        return endpointStats != null
+                && endpointStats.backedOffUntil > System.currentTimeMillis();
+    }
+
+    /**
+     * Returns {@code endpoints} in the order they should be tried.
+     *
+     * <p>Servers that are not backed off come first, in a random order weighted
+     * towards low latency and error rate so that load is still spread over all of
+     * them. Backed off servers come last, the one whose backoff ends first leading.
+     */
+    public synchronized List<URI> order(List<URI> endpoints, Random random) {
+        List<URI> healthy = new ArrayList<>();
+        List<URI> backedOff = new ArrayList<>();
+        for (URI endpoint : endpoints) {
+            if (isBackedOff(endpoint)) {
+                backedOff.add(endpoint);
+            } else {
+                healthy.add(endpoint);
+            }
+        }
+
+        List<URI> ordered = new ArrayList<>(endpoints.size());
+        while (!healthy.isEmpty()) {
+            double totalWeight = 0;
+            for (URI endpoint : healthy) {
+                totalWeight += weight(endpoint);
+            }
+            double pick = random.nextDouble() * totalWeight;
+            int index = 0;
+            while (index < healthy.size() - 1) {
+                pick -= weight(healthy.get(index));
+                if (pick < 0) {
+                    break;
+                }
+                index++;
+            }
+            ordered.add(healthy.remove(index));
+        }
+
+        Collections.sort(backedOff, new Comparator<URI>() {
+            @Override
+            public int compare(URI a, URI b) {
+                return Long.compare(statsFor(a).backedOffUntil, statsFor(b).backedOffUntil);
+            }
+        });
+        ordered.addAll(backedOff);
+        return ordered;
+    }
+
+    private double weight(URI endpoint) {
+        Stats endpointStats = statsFor(endpoint);
+        return 1.0 / ((endpointStats.latencyMillis + 100) * (1 + 4 * endpointStats.errorRate));
+    }
+
+    private Stats statsFor(URI endpoint) {
+        Stats endpointStats = stats.get(endpoint);
+        if (endpointStats == null) {
+            endpointStats = new Stats();
+            stats.put(endpoint, endpointStats);
+        }
+        return endpointStats;
+    }
+
+    private static double average(double previous, double sample) {
+        return previous + SMOOTHING * (sample - previous);
+    }
+}
@@ -4,7 +4,13 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -12,32 +18,45 @@ import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.communication.http.DownloadProgressListener;
 import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.holders.TmcLangsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utilities.CancellationScope;
+import fi.helsinki.cs.tmc.core.utilities.CommandFuture;
 import fi.helsinki.cs.tmc.core.utils.MockSettings;
 import fi.helsinki.cs.tmc.core.utils.TestUtils;
 import fi.helsinki.cs.tmc.langs.util.TaskExecutor;
 import fi.helsinki.cs.tmc.langs.util.TaskExecutorImpl;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class DownloadOrUpdateExercisesTest {
 
@@ -76,19 +95,31 @@ public class DownloadOrUpdateExercisesTest {
         when(mockExerciseOne.getExtractionTarget(any(Path.class))).thenReturn(arithFuncsTempDir);
         when(settings.getTmcProjectDirectory()).thenReturn(testFolder.getRoot().toPath());
 
-        when(factory.getDownloadingExerciseZipTask(mockExerciseOne))
-                .thenReturn(
-                        new Callable<byte[]>() {
+        when(factory.getDownloadingExerciseZipTask(
+                        eq(mockExerciseOne),
+                        any(Path.class),
+                        any(DownloadProgressListener.class)))
+                .thenAnswer(
+                        new Answer<Callable<Path>>() {
                             @Override
-                            public byte[] call() throws Exception {
-                                return Files.readAllBytes(
-                                        TestUtils.getZip(this.getClass(), "arith_funcs.zip"));
+                            public Callable<Path> answer(InvocationOnMock invocation) {
+                                final Path target = (Path) invocation.getArguments()[1];
+                                return new Callable<Path>() {
+                                    @Override
+                                    public Path call() throws Exception {
+                                        return Files.copy(
+                                                TestUtils.getZip(this.getClass(), "arith_funcs.zip"),
+                                                target,
+                                                StandardCopyOption.REPLACE_EXISTING);
+                                    }
+                                };
                             }
                         });
 
         List<Exercise> exercises = command.call();
 
-        verify(factory).getDownloadingExerciseZipTask(mockExerciseOne);
+        verify(factory).getDownloadingExerciseZipTask(
+                eq(mockExerciseOne), any(Path.class), any(DownloadProgressListener.class));
         verifyNoMoreInteractions(factory);
 
         assertThat(exercises).contains(mockExerciseOne);
@@ -100,15 +131,166 @@ public class DownloadOrUpdateExercisesTest {
     @Test
     public void testNoFileIsWrittenWhenDownloadFails() throws Exception {
         verifyZeroInteractions(langs);
-        when(factory.getDownloadingExerciseZipTask(mockExerciseOne))
+        when(factory.getDownloadingExerciseZipTask(
+                        eq(mockExerciseOne),
+                        any(Path.class),
+                        any(DownloadProgressListener.class)))
                 .thenThrow(new RuntimeException("fail"));
 
         List<Exercise> exercises = command.call();
 
-        verify(factory).getDownloadingExerciseZipTask(mockExerciseOne);
+        verify(factory).getDownloadingExerciseZipTask(
+                eq(mockExerciseOne), any(Path.class), any(DownloadProgressListener.class));
         verifyNoMoreInteractions(factory);
 
         assertThat(exercises).isEmpty();
         assertFalse(Files.exists(arithFuncsTempDir));
     }
+
+    @Test
+    public void extractsConcurrentDownloadsInRequestOrderAndCleansUpFailures() throws Exception {
+        TaskExecutor mockLangs = mock(TaskExecutor.class);
+        TmcLangsHolder.set(mockLangs);
+        when(settings.getTmcProjectDirectory()).thenReturn(testFolder.getRoot().toPath());
+
+        Exercise first = exercise("first");
+        Exercise second = exercise("second");
+        Exercise third = exercise("third");
+        final List<Path> zips = new CopyOnWriteArrayList<>();
+        // Later exercises finish downloading first
+        stubDownload(first, 300, zips);
+        stubDownload(second, 150, zips);
+        stubDownload(third, 0, zips);
+        Path secondTarget = testFolder.getRoot().toPath().resolve("second");
+        doThrow(new IOException("broken zip"))
+                .when(mockLangs)
+                .extractProject(any(Path.class), eq(secondTarget));
+
+        List<Exercise> exercises =
+                new DownloadOrUpdateExercises(
+                                mockObserver, Arrays.asList(first, second, third), factory)
+                        .call();
+
+        assertThat(exercises).containsExactly(first, third).inOrder();
+        verify(mockObserver)
+                .progress(anyLong(), anyDouble(), eq("Failed to extract exercise second"));
+        verify(mockObserver).progress(anyLong(), anyDouble(), eq("Downloaded exercise first"));
+        verify(mockObserver).progress(anyLong(), anyDouble(), eq("Downloaded exercise third"));
+        ArgumentCaptor<Double> percentages = ArgumentCaptor.forClass(Double.class);
+        verify(mockObserver, atLeast(9))
+                .progress(anyLong(), percentages.capture(), any(String.class));
+        assertThat(percentages.getAllValues()).contains(1.0);
+
+        assertThat(zips).hasSize(3);
+        for (Path zip : zips) {
+            assertFalse("Temporary zip left behind: " + zip, Files.exists(zip));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void cancellingCommandAbortsDownloadsOnWorkerThreads() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        when(factory.getDownloadingExerciseZipTask(
+                        eq(mockExerciseOne),
+                        any(Path.class),
+                        any(DownloadProgressListener.class)))
+                .thenReturn(
+                        new Callable<Path>() {
+                            @Override
+                            public Path call() throws Exception {
+                                // Like a socket read: only aborting the request wakes this up
+                                CancellationScope.current().onCancel(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        aborted.countDown();
+                                    }
+                                });
+                                started.countDown();
+                                Uninterruptibles.awaitUninterruptibly(aborted);
+                                throw new IOException("aborted");
+                            }
+                        });
+
+        CommandFuture<List<Exercise>> future = new CommandFuture<>(command);
+        Thread runner = new Thread(future);
+        runner.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(future.cancel(true));
+
+        assertTrue(aborted.await(5, TimeUnit.SECONDS));
+        runner.join(5000);
+        assertFalse(runner.isAlive());
+    }
+
+    @Test(timeout = 10000)
+    public void cancellingOnlyTheScopeEndsTheCommand() throws Exception {
+        when(settings.getExerciseDownloadThreads()).thenReturn(1);
+        Exercise first = exercise("first");
+        Exercise second = exercise("second");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        when(factory.getDownloadingExerciseZipTask(
+                        any(Exercise.class),
+                        any(Path.class),
+                        any(DownloadProgressListener.class)))
+                .thenReturn(
+                        new Callable<Path>() {
+                            @Override
+                            public Path call() throws Exception {
+                                CancellationScope.current().onCancel(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        aborted.countDown();
+                                    }
+                                });
+                                started.countDown();
+                                Uninterruptibles.awaitUninterruptibly(aborted);
+                                throw new IOException("aborted");
+                            }
+                        });
+        command = new DownloadOrUpdateExercises(
+                mockObserver, Arrays.asList(first, second), factory);
+
+        CommandFuture<List<Exercise>> future = new CommandFuture<>(command);
+        Thread runner = new Thread(future);
+        runner.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Doesn't interrupt the command thread, only cancels the scope
+        assertTrue(future.cancel(false));
+
+        runner.join(5000);
+        assertFalse(runner.isAlive());
+    }
+
+    private Exercise exercise(String name) {
+        Exercise exercise = mock(Exercise.class);
+        when(exercise.getName()).thenReturn(name);
+        when(exercise.getExtractionTarget(any(Path.class)))
+                .thenReturn(testFolder.getRoot().toPath().resolve(name));
+        return exercise;
+    }
+
+    private void stubDownload(Exercise exercise, final long delayMillis, final List<Path> zips)
+            throws Exception {
+        when(factory.getDownloadingExerciseZipTask(
+                        eq(exercise), any(Path.class), any(DownloadProgressListener.class)))
+                .thenAnswer(
+                        new Answer<Callable<Path>>() {
+                            @Override
+                            public Callable<Path> answer(InvocationOnMock invocation) {
+                                final Path target = (Path) invocation.getArguments()[1];
+                                zips.add(target);
+                                return new Callable<Path>() {
+                                    @Override
+                                    public Path call() throws Exception {
+                                        Thread.sleep(delayMillis);
+                                        return target;
+                                    }
+                                };
+                            }
+                        });
+    }
 }
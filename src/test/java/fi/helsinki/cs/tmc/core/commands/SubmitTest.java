@@ -1,6 +1,8 @@
 package fi.helsinki.cs.tmc.core.commands;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
@@ -16,6 +18,8 @@ import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
 import fi.helsinki.cs.tmc.core.holders.TmcLangsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utilities.CancellationScope;
+import fi.helsinki.cs.tmc.core.utilities.CommandFuture;
 import fi.helsinki.cs.tmc.core.utils.MockSettings;
 import fi.helsinki.cs.tmc.core.utils.TestUtils;
 import fi.helsinki.cs.tmc.langs.util.TaskExecutor;
@@ -35,6 +39,8 @@ import java.nio.file.Path;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class SubmitTest {
 
@@ -92,4 +98,35 @@ public class SubmitTest {
         SubmissionResult result = command.call();
         assertEquals(SubmissionResult.Status.OK, result.getStatus());
     }
+
+    @Test(timeout = 10000)
+    public void cancellingOnlyTheScopeEndsTheCommand() throws Exception {
+        doReturn(new byte[0]).when(langs).compressProject(any(Path.class));
+        when(
+                        factory.getSubmittingExerciseTask(
+                                any(Exercise.class), any(byte[].class), any(Map.class)))
+                .thenReturn(
+                    (Callable<SubmissionResponse>) () -> STUB_RESPONSE);
+        final CountDownLatch fetching = new CountDownLatch(1);
+        when(factory.getSubmissionFetchTask(any(URI.class)))
+                .thenReturn(
+                    () -> {
+                        // Like HttpRequestExecutor when the scope aborts its request
+                        final CountDownLatch aborted = new CountDownLatch(1);
+                        CancellationScope.current().onCancel(aborted::countDown);
+                        fetching.countDown();
+                        aborted.await();
+                        throw new InterruptedException();
+                    });
+
+        CommandFuture<SubmissionResult> future = new CommandFuture<>(command);
+        Thread runner = new Thread(future);
+        runner.start();
+        assertTrue(fetching.await(5, TimeUnit.SECONDS));
+
+        assertTrue(future.cancel(false));
+
+        runner.join(5000);
+        assertFalse(runner.isAlive());
+    }
 }
@@ -0,0 +1,104 @@
+package fi.helsinki.cs.tmc.core.communication;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static org.mockito.Mockito.when;
+
+import fi.helsinki.cs.tmc.core.communication.http.HttpClientPool;
+import fi.helsinki.cs.tmc.core.communication.oauth2.Oauth;
+import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
+import fi.helsinki.cs.tmc.core.holders.HttpClientPoolHolder;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utils.MockSettings;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.net.URI;
+import java.util.List;
+
+public class TmcServerCommunicationTaskFactoryTest {
+
+    @Rule public WireMockRule wireMockRule = new WireMockRule(0);
+
+    @Spy TmcSettings settings = new MockSettings();
+    @Mock Oauth oauth;
+
+    private TmcServerCommunicationTaskFactory factory;
+    private URI snapshotServer;
+    private List<LoggableEvent> events;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        TmcSettingsHolder.set(settings);
+        HttpClientPoolHolder.set(new HttpClientPool(settings));
+        when(oauth.getToken()).thenReturn("token");
+        factory = new TmcServerCommunicationTaskFactory(settings, oauth);
+        snapshotServer = URI.create("http://localhost:" + wireMockRule.port() + "/snapshots");
+        events = ImmutableList.of(
+                new LoggableEvent("course", "exercise", "text_insert", new byte[0]));
+    }
+
+    @Test
+    public void eventsAreSentAsJsonByDefault() throws Exception {
+        wireMockRule.stubFor(post(urlPathEqualTo("/snapshots")).willReturn(aResponse()));
+
+        factory.getSendEventLogJob(snapshotServer, events).call();
+
+        wireMockRule.verify(
+                1,
+                postRequestedFor(urlPathEqualTo("/snapshots"))
+                        .withHeader("X-Tmc-Version", equalTo("1")));
+    }
+
+    @Test
+    public void eventsAreSentAsBinaryWhenEnabled() throws Exception {
+        when(settings.getSnapshotBinaryUploadsEnabled()).thenReturn(true);
+        wireMockRule.stubFor(post(urlPathEqualTo("/snapshots")).willReturn(aResponse()));
+
+        factory.getSendEventLogJob(snapshotServer, events).call();
+
+        wireMockRule.verify(
+                1,
+                postRequestedFor(urlPathEqualTo("/snapshots"))
+                        .withHeader("X-Tmc-Version", equalTo("2")));
+    }
+
+    @Test
+    public void eventsAreResentAsJsonWhenServerRejectsBinary() throws Exception {
+        when(settings.getSnapshotBinaryUploadsEnabled()).thenReturn(true);
+        wireMockRule.stubFor(
+                post(urlPathEqualTo("/snapshots"))
+                        .withHeader("X-Tmc-Version", equalTo("2"))
+                        .willReturn(aResponse().withStatus(415)));
+        wireMockRule.stubFor(
+                post(urlPathEqualTo("/snapshots"))
+                        .withHeader("X-Tmc-Version", equalTo("1"))
+                        .willReturn(aResponse()));
+
+        factory.getSendEventLogJob(snapshotServer, events).call();
+        factory.getSendEventLogJob(snapshotServer, events).call();
+
+        wireMockRule.verify(
+                1,
+                postRequestedFor(urlPathEqualTo("/snapshots"))
+                        .withHeader("X-Tmc-Version", equalTo("2")));
+        wireMockRule.verify(
+                2,
+                postRequestedFor(urlPathEqualTo("/snapshots"))
+                        .withHeader("X-Tmc-Version", equalTo("1")));
+    }
+}
@@ -1,14 +1,24 @@
 package fi.helsinki.cs.tmc.core.communication.http;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
 import static com.github.tomakehurst.wiremock.client.WireMock.matching;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
 
 import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
+import fi.helsinki.cs.tmc.core.holders.HttpClientPoolHolder;
+import fi.helsinki.cs.tmc.core.holders.MetricsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.metrics.InMemoryMetricsRegistry;
+import fi.helsinki.cs.tmc.core.metrics.Timer;
+import fi.helsinki.cs.tmc.core.utilities.CancellableCallable;
+import fi.helsinki.cs.tmc.core.utilities.CommandFuture;
 import fi.helsinki.cs.tmc.core.utils.MockSettings;
 
 import com.github.tomakehurst.wiremock.client.WireMock;
@@ -16,18 +26,32 @@ import com.github.tomakehurst.wiremock.junit.WireMockRule;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class HttpRequestExecutorTest {
 
@@ -35,10 +59,13 @@ public class HttpRequestExecutorTest {
 
     @Rule public WireMockRule wireMockRule = new WireMockRule(0);
 
+    @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         TmcSettingsHolder.set(settings);
+        HttpClientPoolHolder.set(new HttpClientPool(settings));
 //        TODO uncomment this after removing migration from TmcSettingsHolder
 //        verifyNoMoreInteractions(settings);
         wireMockRule.start();
@@ -47,6 +74,7 @@ public class HttpRequestExecutorTest {
     @After
     public void tearDown() throws Exception {
         wireMockRule.stop();
+        MetricsHolder.set(null);
     }
 
     @Test
@@ -59,6 +87,66 @@ public class HttpRequestExecutorTest {
         assertArrayEquals(new byte[] {1, 2, 3}, EntityUtils.toByteArray(result));
     }
 
+    @Test
+    public void testRequestsAreRecordedByEndpointAndStatus() throws Exception {
+        InMemoryMetricsRegistry metrics = new InMemoryMetricsRegistry();
+        MetricsHolder.set(metrics);
+        wireMockRule.stubFor(
+                get(urlEqualTo("/exercises/12/solution"))
+                        .willReturn(aResponse().withBody(new byte[] {1, 2, 3})));
+
+        new HttpRequestExecutor(getAddressFor("/exercises/12/solution")).call();
+
+        Timer timer =
+                metrics.getTimers()
+                        .get("http.request{method=GET,endpoint=/exercises/{id}/solution,status=200}");
+        assertEquals(1, timer.getCount());
+        assertEquals(
+                3,
+                metrics.getHistograms()
+                        .get("http.response.bytes{method=GET,endpoint=/exercises/{id}/solution}")
+                        .getSum());
+    }
+
+    @Test
+    public void testEndpointsReplaceIdsButKeepExtensions() {
+        assertEquals("/exercises/{id}.zip", HttpRequestExecutor.endpointOf(
+                URI.create("http://localhost/exercises/1228.zip")));
+        assertEquals("/submissions/{id}.json", HttpRequestExecutor.endpointOf(
+                URI.create("http://localhost/submissions/1781.json?access_token=x")));
+        assertEquals("/courses/{id}/reviews/{id}.json", HttpRequestExecutor.endpointOf(
+                URI.create("http://localhost/courses/3/reviews/12.json")));
+        assertEquals("/api/v8/org/hy/courses.json", HttpRequestExecutor.endpointOf(
+                URI.create("http://localhost/api/v8/org/hy/courses.json")));
+        assertEquals("/", HttpRequestExecutor.endpointOf(URI.create("http://localhost")));
+    }
+
+    @Test
+    public void testProxyChangesApplyToTheExistingPool() throws Exception {
+        wireMockRule.stubFor(
+                get(urlEqualTo("/proxied")).willReturn(aResponse().withBody("via proxy")));
+        final Proxy proxy =
+                new Proxy(Proxy.Type.HTTP, new InetSocketAddress("localhost", wireMockRule.port()));
+        when(settings.proxy())
+                .thenReturn(
+                        new SystemDefaultRoutePlanner(
+                                new ProxySelector() {
+                                    @Override
+                                    public List<Proxy> select(URI uri) {
+                                        return Collections.singletonList(proxy);
+                                    }
+
+                                    @Override
+                                    public void connectFailed(
+                                            URI uri, SocketAddress address, IOException ex) {}
+                                }));
+
+        String body =
+                HttpTasks.getForText(URI.create("http://tmc.example.invalid/proxied")).call();
+
+        assertEquals("via proxy", body);
+    }
+
     @Test
     public void testFollowingRedirectsAutomatically() throws Exception {
 
@@ -114,6 +202,104 @@ public class HttpRequestExecutorTest {
         assertEquals("Yay", EntityUtils.toString(result, "UTF-8"));
     }
 
+    @Test
+    public void testDownloadToStreamsBodyIntoFile() throws Exception {
+        byte[] body = new byte[300 * 1024];
+        new Random(0).nextBytes(body);
+        wireMockRule.stubFor(get(urlEqualTo("/zip")).willReturn(aResponse().withBody(body)));
+
+        Path target = tempFolder.newFile().toPath();
+        final AtomicLong reported = new AtomicLong();
+        new HttpRequestExecutor(getAddressFor("/zip"))
+                .downloadTo(
+                        target,
+                        new DownloadProgressListener() {
+                            @Override
+                            public void bytesReceived(long bytesReceived, long totalBytes) {
+                                reported.set(bytesReceived);
+                            }
+                        });
+
+        assertArrayEquals(body, Files.readAllBytes(target));
+        assertEquals(body.length, reported.get());
+    }
+
+    @Test
+    public void testConnectionIsReusedBetweenRequests() throws Exception {
+        wireMockRule.stubFor(
+                get(urlEqualTo("/")).willReturn(aResponse().withBody(new byte[] {1, 2, 3})));
+
+        new HttpRequestExecutor(getAddressFor("/")).call();
+        new HttpRequestExecutor(getAddressFor("/")).call();
+
+        PoolStats stats = HttpClientPoolHolder.get().getTotalStats();
+        assertEquals(0, stats.getLeased());
+        assertEquals(1, stats.getAvailable());
+    }
+
+    @Test
+    public void testConditionalRequestReturnsCachedBodyWhenNotModified() throws Exception {
+        wireMockRule.stubFor(
+                get(urlEqualTo("/courses"))
+                        .willReturn(aResponse().withHeader("ETag", "\"v1\"").withBody("courses")));
+        wireMockRule.stubFor(
+                get(urlEqualTo("/courses"))
+                        .withHeader("If-None-Match", equalTo("\"v1\""))
+                        .willReturn(aResponse().withStatus(304)));
+        HttpResponseCache cache = new HttpResponseCache(tempFolder.getRoot().toPath());
+
+        assertEquals("courses", HttpTasks.getForText(getAddressFor("/courses"), cache).call());
+        assertEquals("courses", HttpTasks.getForText(getAddressFor("/courses"), cache).call());
+
+        wireMockRule.verify(
+                1,
+                WireMock.getRequestedFor(urlEqualTo("/courses"))
+                        .withHeader("If-None-Match", equalTo("\"v1\"")));
+    }
+
+    @Test(timeout = 5000)
+    public void testCancellingCommandFutureAbortsRequest() throws Exception {
+        wireMockRule.stubFor(
+                get(urlEqualTo("/slow"))
+                        .willReturn(aResponse().withFixedDelay(20000).withBody("late")));
+
+        CommandFuture<String> future = new CommandFuture<>(HttpTasks.getForText(getAddressFor("/slow")));
+        Thread runner = new Thread(future);
+        runner.start();
+        Thread.sleep(300);
+
+        assertTrue(future.cancel(true));
+        runner.join(2000);
+        assertFalse(runner.isAlive());
+    }
+
+    @Test(timeout = 5000)
+    public void testCancellingTaskAbortsRequest() throws Exception {
+        wireMockRule.stubFor(
+                get(urlEqualTo("/slow"))
+                        .willReturn(aResponse().withFixedDelay(20000).withBody("late")));
+
+        final CancellableCallable<String> task = HttpTasks.getForText(getAddressFor("/slow"));
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                task.cancel();
+            }
+        }.start();
+
+        try {
+            task.call();
+        } catch (InterruptedException expected) {
+            return;
+        }
+        throw new AssertionError("Cancelled task should have been interrupted");
+    }
+
     private URI getAddressFor(String path) {
         return URI.create("http://127.0.0.1:" + wireMockRule.port() + "/" + path);
     }
@@ -0,0 +1,92 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import fi.helsinki.cs.tmc.core.holders.HttpResponseCacheHolder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+public class HttpResponseCacheTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+    }
+
+    @After
+    public void tearDown() {
+        HttpResponseCacheHolder.set(null);
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedBeyondMaxEntries() throws IOException {
+        HttpResponseCache cache = new HttpResponseCache(directory, 2, TimeUnit.DAYS.toMillis(1));
+        cache.put(url("a"), entry("a"));
+        cache.put(url("b"), entry("b"));
+        backdateEntries(TimeUnit.MINUTES.toMillis(1));
+        cache.get(url("a"));
+
+        cache.put(url("c"), entry("c"));
+
+        assertEquals("a", cache.get(url("a")).getBody());
+        assertNull(cache.get(url("b")));
+        assertNotNull(cache.get(url("c")));
+    }
+
+    @Test
+    public void expiredEntriesAreDropped() throws IOException {
+        new HttpResponseCache(directory, 10, TimeUnit.HOURS.toMillis(1)).put(url("a"), entry("a"));
+        backdateEntries(TimeUnit.HOURS.toMillis(2));
+
+        HttpResponseCache cache = new HttpResponseCache(directory, 10, TimeUnit.HOURS.toMillis(1));
+        cache.put(url("b"), entry("b"));
+
+        assertNull(cache.get(url("a")));
+        assertEquals("b", cache.get(url("b")).getBody());
+    }
+
+    @Test
+    public void holderSharesOneCachePerDirectory() {
+        HttpResponseCache cache = HttpResponseCacheHolder.get(directory);
+
+        assertSame(cache, HttpResponseCacheHolder.get(directory));
+        assertNotSame(cache, HttpResponseCacheHolder.get(directory.resolve("other")));
+    }
+
+    private void backdateEntries(long millis) throws IOException {
+        FileTime time = FileTime.fromMillis(System.currentTimeMillis() - millis);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                Files.setLastModifiedTime(entry, time);
+            }
+        }
+    }
+
+    private URI url(String name) {
+        return URI.create("http://localhost/" + name + ".json");
+    }
+
+    private HttpResponseCache.Entry entry(String body) {
+        return new HttpResponseCache.Entry("\"" + body + "\"", null, body);
+    }
+}
@@ -0,0 +1,81 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+public class StreamingGzipEntityTest {
+
+    private static final byte[] BODY = repeatedText(10000);
+
+    private static byte[] repeatedText(int lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append("line ").append(i % 10).append('\n');
+        }
+        return text.toString().getBytes();
+    }
+
+    private static StreamingGzipEntity entity(int compressionLevel) {
+        return new StreamingGzipEntity(new StreamingGzipEntity.Content() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                // A byte at a time, like the binary event encoding does for varints
+                for (byte b : BODY) {
+                    out.write(b);
+                }
+            }
+        }, compressionLevel);
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        return ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+    }
+
+    @Test
+    public void writesGzippedContent() throws IOException {
+        StreamingGzipEntity entity = entity(Deflater.DEFAULT_COMPRESSION);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+
+        assertArrayEquals(BODY, gunzip(out.toByteArray()));
+        assertEquals(out.size(), entity.getBytesWritten());
+        assertTrue(entity.isChunked());
+    }
+
+    @Test
+    public void canBeWrittenRepeatedly() throws IOException {
+        StreamingGzipEntity entity = entity(Deflater.DEFAULT_COMPRESSION);
+        entity.writeTo(new ByteArrayOutputStream());
+
+        assertTrue(entity.isRepeatable());
+        assertArrayEquals(BODY, gunzip(ByteStreams.toByteArray(entity.getContent())));
+    }
+
+    @Test
+    public void usesCompressionLevel() throws IOException {
+        StreamingGzipEntity stored = entity(Deflater.NO_COMPRESSION);
+        stored.writeTo(new ByteArrayOutputStream());
+        StreamingGzipEntity compressed = entity(Deflater.BEST_COMPRESSION);
+        compressed.writeTo(new ByteArrayOutputStream());
+
+        assertTrue(stored.getBytesWritten() > BODY.length);
+        assertTrue(compressed.getBytesWritten() < BODY.length / 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCompressionLevel() {
+        entity(10);
+    }
+}
@@ -0,0 +1,74 @@
+package fi.helsinki.cs.tmc.core.communication.http.serialization;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import fi.helsinki.cs.tmc.core.communication.serialization.GsonRegistry;
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.utils.TestUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class CourseTypeAdapterTest {
+
+    // Serializes every field, so two courses that print the same have the same state
+    private final Gson reflective = new Gson();
+
+    @Test
+    public void readsCoursesLikeTheReflectiveAdapter() throws IOException {
+        for (String fixture : new String[] {
+                "course.json", "expiredCourse.json", "failingCourse.json",
+                "feedbackCourse.json", "nodeadlinecourse.json"}) {
+            JsonElement course = readFixture(fixture).getAsJsonObject().get("course");
+            assertSameAsReflective(course, Course.class);
+        }
+        assertSameAsReflective(
+                readFixture("courses.json").getAsJsonObject().get("courses"), Course[].class);
+    }
+
+    @Test
+    public void readsNullsAndUnknownFieldsLikeTheReflectiveAdapter() {
+        String json = "{\"id\":null,\"name\":\"c\",\"exercises\":null,\"unlockables\":null,"
+                + "\"something_new\":{\"a\":[1,2]},\"spyware_urls\":[\"http://example.com\"]}";
+        assertSameAsReflective(new JsonParser().parse(json), Course.class);
+
+        json = "{\"id\":1,\"locked\":null,\"valgrind_strategy\":\"\",\"runtime_params\":[\"-x\"],"
+                + "\"code_review_requests_enabled\":null,\"zip_url\":null,\"unknown\":true}";
+        assertSameAsReflective(new JsonParser().parse(json), Exercise.class);
+
+        json = "{\"valgrind_strategy\":\"unknown\"}";
+        assertSameAsReflective(new JsonParser().parse(json), Exercise.class);
+    }
+
+    @Test
+    public void writesCoursesLikeTheReflectiveAdapter() throws IOException {
+        JsonElement json = readFixture("course.json").getAsJsonObject().get("course");
+        Course course = reflective.fromJson(json, Course.class);
+
+        JsonObject expected = reflective.toJsonTree(course).getAsJsonObject();
+        // Filled in by the parsers, not part of the server's format
+        expected.remove("exercisesLoaded");
+        for (JsonElement exercise : expected.getAsJsonArray("exercises")) {
+            exercise.getAsJsonObject().remove("courseName");
+        }
+
+        assertThat(GsonRegistry.serverResponses().toJsonTree(course)).isEqualTo(expected);
+    }
+
+    private void assertSameAsReflective(JsonElement json, Class<?> type) {
+        Object expected = reflective.fromJson(json, type);
+        Object actual = GsonRegistry.serverResponses().fromJson(json, type);
+        assertThat(reflective.toJson(actual)).isEqualTo(reflective.toJson(expected));
+    }
+
+    private JsonElement readFixture(String fixture) throws IOException {
+        return new JsonParser().parse(TestUtils.readJsonFile(getClass(), fixture));
+    }
+}
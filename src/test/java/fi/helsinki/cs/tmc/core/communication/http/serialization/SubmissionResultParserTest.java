@@ -16,6 +16,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.List;
 import java.util.Map;
 
@@ -78,4 +79,43 @@ public class SubmissionResultParserTest {
             assertThat(error.getSourceName()).isNotNull();
         }
     }
+
+    @Test
+    public void parsesFromReader() throws IOException {
+        String json = TestUtils.readJsonFile(this.getClass(), "checkstyleFailed.json");
+        SubmissionResult submissionResult = parser.parseFromJson(new StringReader(json));
+
+        assertThat(submissionResult.getStatus()).isEqualTo(SubmissionResult.Status.FAIL);
+        assertThat(submissionResult.getValidationResult().getStrategy()).isEqualTo(Strategy.FAIL);
+    }
+
+    @Test
+    public void resultWithoutValidationsHasNoValidationErrors() {
+        SubmissionResult submissionResult =
+                parser.parseFromJson(
+                        "{\"status\":\"processing\",\"sandbox_status\":\"created\","
+                                + "\"error\":null,\"unknown\":{\"a\":[1,2]},\"processing_time\":null}");
+
+        assertThat(submissionResult.getStatus()).isEqualTo(SubmissionResult.Status.PROCESSING);
+        assertThat(submissionResult.getSandboxStatus())
+                .isEqualTo(SubmissionResult.SandboxStatus.CREATED);
+        assertThat(submissionResult.getError()).isNull();
+        assertThat(submissionResult.getTestCases()).isEmpty();
+        assertThat(submissionResult.validationsFailed()).isFalse();
+    }
+
+    @Test
+    public void parsesOnlyStatusFields() {
+        SubmissionResult submissionResult =
+                parser.parseStatus(
+                        "{\"test_cases\":[{\"name\":\"a\"}],\"status\":\"processing\","
+                                + "\"sandbox_status\":\"processing_on_sandbox\","
+                                + "\"points\":[\"1.1\"]}");
+
+        assertThat(submissionResult.getStatus()).isEqualTo(SubmissionResult.Status.PROCESSING);
+        assertThat(submissionResult.getSandboxStatus())
+                .isEqualTo(SubmissionResult.SandboxStatus.PROCESSING_ON_SANDBOX);
+        assertThat(submissionResult.getTestCases()).isEmpty();
+        assertThat(submissionResult.getPoints()).isEmpty();
+    }
 }
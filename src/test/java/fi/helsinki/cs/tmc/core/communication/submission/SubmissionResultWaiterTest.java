@@ -0,0 +1,43 @@
+package fi.helsinki.cs.tmc.core.communication.submission;
+
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
+
+import org.junit.Test;
+
+public class SubmissionResultWaiterTest {
+
+    @Test
+    public void backoffDelayStaysWithinBounds() {
+        BackoffSubmissionResultWaiter waiter = new BackoffSubmissionResultWaiter(1000, 60000);
+
+        for (long elapsed = 0; elapsed < 600000; elapsed += 5000) {
+            long delay = waiter.nextDelay(null, elapsed);
+            assertTrue(delay >= 500);
+            assertTrue(delay <= 60000);
+        }
+    }
+
+    @Test
+    public void backoffDelayIsShortWhileRunningOnSandbox() {
+        BackoffSubmissionResultWaiter waiter = new BackoffSubmissionResultWaiter(1000, 60000);
+        SubmissionResult running = new SubmissionResult();
+        running.setSandboxStatus(SubmissionResult.SandboxStatus.PROCESSING_ON_SANDBOX);
+
+        assertTrue(waiter.nextDelay(running, 300000) <= 2000);
+    }
+
+    @Test(timeout = 2000)
+    public void notifiedWaiterReturnsWhenResultIsAvailable() throws InterruptedException {
+        final NotifiableSubmissionResultWaiter waiter = new NotifiableSubmissionResultWaiter();
+        new Thread() {
+            @Override
+            public void run() {
+                waiter.resultAvailable();
+            }
+        }.start();
+
+        waiter.awaitNextCheck(null, 0);
+    }
+}
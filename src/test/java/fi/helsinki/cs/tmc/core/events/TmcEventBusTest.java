@@ -0,0 +1,207 @@
+package fi.helsinki.cs.tmc.core.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Predicate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TmcEventBusTest {
+
+    private TmcEventBus bus;
+    private ExecutorService executor;
+
+    public static class NumberEvent implements TmcEvent {
+        final int number;
+
+        NumberEvent(int number) {
+            this.number = number;
+        }
+    }
+
+    public static class OtherEvent implements TmcEvent {}
+
+    public static class RecordingListener extends TmcEventListener {
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        volatile CountDownLatch gate;
+
+        public void receive(NumberEvent event) throws InterruptedException {
+            started.countDown();
+            if (gate != null) {
+                gate.await();
+            }
+            threads.add(Thread.currentThread());
+            received.add(event.number);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        bus = TmcEventBus.createNewInstance();
+        executor = Executors.newFixedThreadPool(2);
+        bus.setAsyncExecutor(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void waitUntilReceived(RecordingListener listener, int count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.received.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50); // Give extra events a chance to show up
+    }
+
+    @Test
+    public void synchronousListenerReceivesOnPostingThread() {
+        RecordingListener listener = new RecordingListener();
+        bus.subscribeStrongly(listener);
+
+        bus.post(new NumberEvent(1));
+        bus.post(new OtherEvent());
+
+        assertEquals(Arrays.asList(1), listener.received);
+        assertSame(Thread.currentThread(), listener.threads.get(0));
+    }
+
+    @Test
+    public void slowAsyncListenerDoesNotBlockPosting() throws InterruptedException {
+        RecordingListener slow = new RecordingListener();
+        slow.gate = new CountDownLatch(1);
+        RecordingListener fast = new RecordingListener();
+        bus.subscribeAsync(slow);
+        bus.subscribeStrongly(fast);
+
+        for (int i = 0; i < 100; i++) {
+            bus.post(new NumberEvent(i));
+        }
+        assertEquals(100, fast.received.size());
+        assertTrue(slow.received.isEmpty());
+
+        slow.gate.countDown();
+        waitUntilReceived(slow, 100);
+        assertEquals(100, slow.received.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) slow.received.get(i));
+        }
+    }
+
+    @Test
+    public void dropsNewEventsWhenQueueIsFull() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        listener.gate = new CountDownLatch(1);
+        bus.subscribeAsync(
+                listener, 2, TmcEventBus.Ordering.ORDERED, TmcEventBus.OverflowPolicy.DROP);
+
+        bus.post(new NumberEvent(1));
+        listener.started.await(); // The first event has been taken off the queue
+        bus.post(new NumberEvent(2));
+        bus.post(new NumberEvent(3));
+        bus.post(new NumberEvent(4));
+
+        listener.gate.countDown();
+        waitUntilReceived(listener, 3);
+        assertEquals(Arrays.asList(1, 2, 3), listener.received);
+    }
+
+    @Test
+    public void coalescingKeepsLatestEvents() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        listener.gate = new CountDownLatch(1);
+        bus.subscribeAsync(
+                listener, 2, TmcEventBus.Ordering.ORDERED, TmcEventBus.OverflowPolicy.COALESCE);
+
+        bus.post(new NumberEvent(1));
+        listener.started.await();
+        bus.post(new NumberEvent(2));
+        bus.post(new NumberEvent(3));
+        bus.post(new NumberEvent(4));
+
+        listener.gate.countDown();
+        waitUntilReceived(listener, 3);
+        assertEquals(Arrays.asList(1, 3, 4), listener.received);
+    }
+
+    @Test
+    public void unsubscribedAsyncListenerReceivesNothing() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        bus.subscribeAsync(listener);
+        bus.unsubscribe(listener);
+
+        bus.post(new NumberEvent(1));
+
+        // Runs anything that was queued for the listener
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(listener.received.isEmpty());
+    }
+
+    @Test
+    public void routesOnlyEventsOfSubscribedTypeAcceptedByFilter() {
+        RecordingListener listener = new RecordingListener();
+        bus.subscribeStrongly(
+                NumberEvent.class,
+                new Predicate<NumberEvent>() {
+                    @Override
+                    public boolean apply(NumberEvent event) {
+                        return event.number % 2 == 0;
+                    }
+                },
+                listener);
+
+        for (int i = 0; i < 5; i++) {
+            bus.post(new NumberEvent(i));
+        }
+        bus.post(new OtherEvent());
+
+        assertEquals(Arrays.asList(0, 2, 4), listener.received);
+    }
+
+    @Test
+    public void listenerOverridingReceiveGetsEveryEvent() {
+        final List<TmcEvent> received = new ArrayList<>();
+        bus.subscribeStrongly(
+                new TmcEventListener() {
+                    @Override
+                    public void receive(TmcEvent event) {
+                        received.add(event);
+                    }
+                });
+
+        bus.post(new NumberEvent(1));
+        bus.post(new OtherEvent());
+
+        assertEquals(2, received.size());
+    }
+
+    @Test
+    public void unsubscribedListenerReceivesNothingMore() {
+        RecordingListener listener = new RecordingListener();
+        bus.subscribeStrongly(NumberEvent.class, listener);
+        bus.post(new NumberEvent(1));
+
+        bus.unsubscribe(listener);
+        bus.post(new NumberEvent(2));
+
+        assertEquals(Arrays.asList(1), listener.received);
+    }
+}
@@ -0,0 +1,121 @@
+package fi.helsinki.cs.tmc.core.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import fi.helsinki.cs.tmc.core.TmcCore;
+import fi.helsinki.cs.tmc.core.holders.MetricsHolder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+public class InMemoryMetricsRegistryTest {
+
+    private InMemoryMetricsRegistry metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new InMemoryMetricsRegistry();
+    }
+
+    @Test
+    public void sameNameAndTagsGiveSameMetric() {
+        metrics.counter("requests", "status", "200").increment();
+        metrics.counter("requests", "status", "200").increment(2);
+        metrics.counter("requests", "status", "500").increment();
+
+        assertThat(metrics.getCounters().get("requests{status=200}").getCount()).isEqualTo(3);
+        assertThat(metrics.getCounters().get("requests{status=500}").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void histogramSummarizesValues() {
+        Histogram histogram = metrics.histogram("bytes");
+        assertThat(histogram.getMin()).isEqualTo(0);
+
+        histogram.record(10);
+        histogram.record(3);
+        histogram.record(7);
+
+        assertThat(histogram.getCount()).isEqualTo(3);
+        assertThat(histogram.getSum()).isEqualTo(20);
+        assertThat(histogram.getMin()).isEqualTo(3);
+        assertThat(histogram.getMax()).isEqualTo(10);
+    }
+
+    @Test
+    public void timerRecordsNanoseconds() {
+        metrics.timer("wait").record(2, TimeUnit.MILLISECONDS);
+
+        assertThat(metrics.getTimers().get("wait").getSum()).isEqualTo(2000000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnpairedTags() {
+        metrics.counter("requests", "status");
+    }
+
+    @Test
+    public void spanRecordsTimerWithOutcome() {
+        Span span = metrics.startSpan("extract", "kind", "project");
+        span.tag("skipped", "unchanged");
+        span.fail(new RuntimeException());
+        span.end();
+        span.end();
+
+        Timer timer = metrics.getTimers().get("extract{kind=project,skipped=unchanged,outcome=failure}");
+        assertThat(timer.getCount()).isEqualTo(1);
+        assertThat(metrics.getRecentSpans()).isEmpty();
+    }
+
+    @Test
+    public void tracingKeepsMostRecentSpans() {
+        metrics.setTracedSpans(2);
+
+        metrics.startSpan("first").end();
+        metrics.startSpan("second").end();
+        metrics.startSpan("third").end();
+
+        assertThat(metrics.getRecentSpans()).hasSize(2);
+        assertThat(metrics.getRecentSpans().get(0).getName()).isEqualTo("second");
+        assertThat(metrics.getRecentSpans().get(1).getTags()).containsEntry("outcome", "success");
+    }
+
+    @Test
+    public void measuredCallableRecordsCommandSpan() throws Exception {
+        MetricsHolder.set(metrics);
+        Callable<String> command =
+                new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return "done";
+                    }
+                };
+
+        assertThat(new MeasuredCallable<>(command, "Example").call()).isEqualTo("done");
+
+        assertThat(metrics.getTimers().get("command{command=Example,outcome=success}").getCount())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void coreReturnsTheInstalledRegistry() {
+        MetricsHolder.set(metrics);
+        TmcCore core = new TmcCore();
+        try {
+            assertThat(core.getMetrics()).isSameAs(metrics);
+
+            MetricsHolder.set(mock(MetricsRegistry.class));
+            core.getMetrics();
+            fail("Returned a registry that cannot be read");
+        } catch (IllegalStateException expected) {
+            // Expected
+        } finally {
+            MetricsHolder.set(null);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package fi.helsinki.cs.tmc.core.persistance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ExerciseManifestTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void identicalZipsHaveNoChangedFiles() throws IOException {
+        ExerciseManifest first = ExerciseManifest.of(zip("src/A.java", "a", "test/ATest.java", "t"));
+        ExerciseManifest second = ExerciseManifest.of(zip("src/A.java", "a", "test/ATest.java", "t"));
+
+        assertTrue(second.changedFiles(first).isEmpty());
+    }
+
+    @Test
+    public void addedModifiedAndRemovedFilesAreChanged() throws IOException {
+        ExerciseManifest previous =
+                ExerciseManifest.of(zip("src/A.java", "a", "test/ATest.java", "t", "old.txt", "o"));
+        ExerciseManifest updated =
+                ExerciseManifest.of(zip("src/A.java", "a", "test/ATest.java", "t2", "new.txt", "n"));
+
+        assertEquals(
+                ImmutableSet.of("test/ATest.java", "old.txt", "new.txt"),
+                updated.changedFiles(previous));
+    }
+
+    @Test
+    public void manifestSurvivesWriteAndRead() throws IOException {
+        ExerciseManifest manifest = ExerciseManifest.of(zip("src/A.java", "a"));
+        Path file = folder.getRoot().toPath().resolve("manifests/a.json");
+
+        manifest.write(file);
+
+        assertTrue(manifest.changedFiles(ExerciseManifest.read(file)).isEmpty());
+    }
+
+    @Test
+    public void readingMissingManifestReturnsNull() throws IOException {
+        assertNull(ExerciseManifest.read(folder.getRoot().toPath().resolve("missing.json")));
+    }
+
+    @Test
+    public void checksumAndRootSurviveWriteAndRead() throws IOException {
+        ExerciseManifest manifest = ExerciseManifest.of(zip("src/A.java", "a"), "abc123");
+        manifest.setRoot("ex/");
+        Path file = folder.getRoot().toPath().resolve("manifests/a.json");
+
+        manifest.write(file);
+        ExerciseManifest read = ExerciseManifest.read(file);
+
+        assertEquals("abc123", read.getChecksum());
+        assertEquals("ex/", read.getRoot());
+    }
+
+    @Test
+    public void hashOfFileMatchesHashOfZipEntry() throws IOException {
+        ExerciseManifest manifest = ExerciseManifest.of(zip("src/A.java", "class A {}"));
+        Path root = directory("src/A.java", "class A {}");
+
+        assertEquals(
+                manifest.hashOf("src/A.java"),
+                ExerciseManifest.hashOf(root.resolve("src/A.java")));
+    }
+
+    @Test
+    public void findsTheDirectoryOfTheZipThatWasExtracted() throws IOException {
+        ExerciseManifest manifest = ExerciseManifest.of(
+                zip("course/ex/src/A.java", "a", "course/ex/test/ATest.java", "t"));
+
+        assertEquals(
+                "course/ex/",
+                manifest.findRoot(directory("src/A.java", "a", "test/ATest.java", "t")));
+        assertEquals(
+                "",
+                manifest.findRoot(
+                        directory("course/ex/src/A.java", "a", "course/ex/test/ATest.java", "t")));
+        assertNull(manifest.findRoot(directory("src/A.java", "a")));
+    }
+
+    private Path directory(String... namesAndContents) throws IOException {
+        Path root = folder.newFolder().toPath();
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+            Path file = root.resolve(namesAndContents[i]);
+            Files.createDirectories(file.getParent());
+            Files.write(file, namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+        }
+        return root;
+    }
+
+    private Path zip(String... namesAndContents) throws IOException {
+        Path zip = folder.newFile().toPath();
+        try (OutputStream out = Files.newOutputStream(zip);
+                ZipOutputStream zipOut = new ZipOutputStream(out)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zipOut.putNextEntry(new ZipEntry(namesAndContents[i]));
+                zipOut.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                zipOut.closeEntry();
+            }
+        }
+        return zip;
+    }
+}
@@ -0,0 +1,108 @@
+package fi.helsinki.cs.tmc.core.persistance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ExerciseUpdateTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path target;
+    private ExerciseManifest previous;
+
+    @Before
+    public void setUp() throws IOException {
+        target = folder.newFolder("exercise").toPath();
+        write("src/A.java", "a");
+        write("src/B.java", "b");
+        write("test/ATest.java", "t");
+        write("old.txt", "o");
+        previous = ExerciseManifest.of(
+                zip("ex/src/A.java", "a", "ex/src/B.java", "b",
+                        "ex/test/ATest.java", "t", "ex/old.txt", "o"),
+                "v1");
+        previous.setRoot(previous.findRoot(target));
+    }
+
+    @Test
+    public void writesOnlyChangedFilesAndDeletesRemovedOnes() throws Exception {
+        FileTime untouched = FileTime.fromMillis(1000);
+        Files.setLastModifiedTime(target.resolve("src/A.java"), untouched);
+        Path zip = zip("ex/src/A.java", "a", "ex/src/B.java", "b",
+                "ex/test/ATest.java", "t2", "ex/test/BTest.java", "new");
+        ExerciseManifest updated = ExerciseManifest.of(zip, "v2");
+
+        ExerciseUpdate update = new ExerciseUpdate(zip, previous, updated, target);
+        update.apply();
+
+        assertEquals("t2", read("test/ATest.java"));
+        assertEquals("new", read("test/BTest.java"));
+        assertFalse(Files.exists(target.resolve("old.txt")));
+        assertEquals(untouched, Files.getLastModifiedTime(target.resolve("src/A.java")));
+        assertEquals(2, update.getWrittenFiles());
+        assertEquals(1, update.getDeletedFiles());
+        assertEquals("ex/", updated.getRoot());
+    }
+
+    @Test
+    public void keepsFilesEditedByTheUser() throws Exception {
+        write("src/B.java", "edited");
+        write("old.txt", "edited");
+        Path zip = zip("ex/src/A.java", "a", "ex/src/B.java", "b2", "ex/test/ATest.java", "t");
+        ExerciseManifest updated = ExerciseManifest.of(zip, "v2");
+
+        ExerciseUpdate update = new ExerciseUpdate(zip, previous, updated, target);
+        update.apply();
+
+        assertEquals("edited", read("src/B.java"));
+        assertTrue(Files.exists(target.resolve("old.txt")));
+        assertEquals(2, update.getKeptFiles());
+    }
+
+    @Test
+    public void isNotApplicableWithoutAKnownRoot() throws IOException {
+        ExerciseManifest updated = ExerciseManifest.of(zip("ex/src/A.java", "a2"), "v2");
+
+        assertTrue(ExerciseUpdate.isApplicable(previous, updated));
+        previous.setRoot(null);
+        assertFalse(ExerciseUpdate.isApplicable(previous, updated));
+    }
+
+    private void write(String name, String content) throws IOException {
+        Path file = target.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String name) throws IOException {
+        return new String(Files.readAllBytes(target.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    private Path zip(String... namesAndContents) throws IOException {
+        Path zip = folder.newFile().toPath();
+        try (OutputStream out = Files.newOutputStream(zip);
+                ZipOutputStream zipOut = new ZipOutputStream(out)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zipOut.putNextEntry(new ZipEntry(namesAndContents[i]));
+                zipOut.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                zipOut.closeEntry();
+            }
+        }
+        return zip;
+    }
+}
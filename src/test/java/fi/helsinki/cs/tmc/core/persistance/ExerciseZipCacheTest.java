@@ -0,0 +1,88 @@
+package fi.helsinki.cs.tmc.core.persistance;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class ExerciseZipCacheTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path cacheDirectory;
+    private ExerciseZipCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDirectory = folder.getRoot().toPath().resolve("cache");
+        cache = new ExerciseZipCache(cacheDirectory, 100);
+    }
+
+    @Test
+    public void cachedZipIsCopiedToTarget() throws IOException {
+        cache.put("abc123", zipWith(new byte[] {1, 2, 3}));
+
+        Path target = folder.newFile().toPath();
+        assertTrue(cache.copyTo("abc123", target));
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void missingZipIsNotCopied() throws IOException {
+        assertFalse(cache.copyTo("abc123", folder.newFile().toPath()));
+    }
+
+    @Test
+    public void removedZipIsNotCopied() throws IOException {
+        cache.put("abc123", zipWith(new byte[] {1, 2, 3}));
+        cache.remove("abc123");
+
+        assertFalse(cache.copyTo("abc123", folder.newFile().toPath()));
+    }
+
+    @Test
+    public void leastRecentlyUsedZipIsEvictedWhenCacheGrowsTooLarge() throws IOException {
+        cache.put("first", zipWith(new byte[40]));
+        cache.put("second", zipWith(new byte[40]));
+        Files.setLastModifiedTime(cacheDirectory.resolve("first.zip"), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(cacheDirectory.resolve("second.zip"), FileTime.fromMillis(2000));
+
+        cache.put("third", zipWith(new byte[40]));
+
+        assertFalse(Files.exists(cacheDirectory.resolve("first.zip")));
+        assertTrue(Files.exists(cacheDirectory.resolve("second.zip")));
+        assertTrue(Files.exists(cacheDirectory.resolve("third.zip")));
+    }
+
+    @Test
+    public void keysThatAreNotPlainFileNamesAreIgnored() throws IOException {
+        cache.put("../escape", zipWith(new byte[] {1}));
+        cache.put(null, zipWith(new byte[] {1}));
+
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("escape.zip")));
+        assertFalse(cache.copyTo(null, folder.newFile().toPath()));
+    }
+
+    @Test
+    public void disabledCacheStoresNothing() throws IOException {
+        cache = new ExerciseZipCache(cacheDirectory, 0);
+        cache.put("abc123", zipWith(new byte[] {1}));
+
+        assertFalse(Files.exists(cacheDirectory));
+    }
+
+    private Path zipWith(byte[] content) throws IOException {
+        Path zip = folder.newFile().toPath();
+        Files.write(zip, content);
+        return zip;
+    }
+}
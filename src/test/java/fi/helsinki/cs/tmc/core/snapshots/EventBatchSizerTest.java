@@ -0,0 +1,73 @@
+package fi.helsinki.cs.tmc.core.snapshots;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.snapshots.EventBatchSizer;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventBatchSizerTest {
+
+    private EventBatchSizer sizer;
+
+    @Before
+    public void setUp() {
+        sizer = new EventBatchSizer();
+    }
+
+    @Test
+    public void rawSizeCountsDataAndMetadata() {
+        LoggableEvent small = new LoggableEvent("c", "e", "t", new byte[10]);
+        LoggableEvent large = new LoggableEvent("c", "e", "t", new byte[1000]);
+        assertEquals(990, EventBatchSizer.rawSize(large) - EventBatchSizer.rawSize(small));
+    }
+
+    @Test
+    public void budgetGrowsWhileFullBatchesAreSentQuickly() {
+        int initial = sizer.getBudget();
+        sizer.recordSent(initial, initial, 100);
+        assertEquals(initial * 2, sizer.getBudget());
+
+        for (int i = 0; i < 20; i++) {
+            sizer.recordSent(sizer.getBudget(), sizer.getBudget(), 100);
+        }
+        assertEquals(EventBatchSizer.DEFAULT_MAX_BYTES_PER_SEND, sizer.getBudget());
+    }
+
+    @Test
+    public void smallBatchesDoNotGrowBudget() {
+        int initial = sizer.getBudget();
+        sizer.recordSent(100, 100, 10);
+        assertEquals(initial, sizer.getBudget());
+    }
+
+    @Test
+    public void slowSendsShrinkBudget() {
+        int initial = sizer.getBudget();
+        sizer.recordSent(initial, initial, EventBatchSizer.TARGET_SEND_MILLIS * 4);
+        assertEquals(initial / 4, sizer.getBudget());
+    }
+
+    @Test
+    public void rejectedBatchCapsBudget() {
+        sizer.recordTooLarge(100 * 1024, 40 * 1024);
+        assertEquals(20 * 1024, sizer.getBudget());
+
+        for (int i = 0; i < 20; i++) {
+            sizer.recordSent(sizer.getBudget(), sizer.getBudget(), 100);
+        }
+        assertEquals(20 * 1024, sizer.getBudget());
+    }
+
+    @Test
+    public void rawBudgetFollowsObservedCompression() {
+        for (int i = 0; i < 20; i++) {
+            sizer.recordSent(1000, 250, 10);
+        }
+        assertTrue(sizer.getRawBudget() > 3.9 * sizer.getBudget());
+        assertTrue(sizer.getRawBudget() < 4.1 * sizer.getBudget());
+    }
+}
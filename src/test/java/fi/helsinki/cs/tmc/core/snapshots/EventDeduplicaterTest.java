@@ -1,5 +1,7 @@
 package fi.helsinki.cs.tmc.core.snapshots;
 
+import static org.junit.Assert.assertEquals;
+
 import fi.helsinki.cs.tmc.snapshots.EventDeduplicater;
 import fi.helsinki.cs.tmc.snapshots.EventReceiver;
 import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
@@ -8,6 +10,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
 
 public class EventDeduplicaterTest extends EventForwardedTestBase {
     private EventDeduplicater dedup;
@@ -71,4 +74,67 @@ public class EventDeduplicaterTest extends EventForwardedTestBase {
 
         assertReceivedExactly(0, 1, 2);
     }
+
+    @Test
+    public void testForgetsLeastRecentlySeenKeysBeyondLimit() {
+        dedup = new EventDeduplicater(receiver, 1);
+        LoggableEvent ev0 = mkEvent("ex1", "ty1", "data1");
+        LoggableEvent ev1 = mkEvent("ex1", "ty1", "data1");
+        LoggableEvent ev2 = mkEvent("ex2", "ty1", "data1");
+        LoggableEvent ev3 = mkEvent("ex1", "ty1", "data1");
+
+        sendEvent(ev0);
+        sendEvent(ev1);
+        for (int i = 0; i < 64; i++) {
+            dedup.receiveEvent(mkEvent("other" + i, "ty1", "data1"));
+        }
+        eventsReceived.clear();
+        sendEvent(ev2);
+        sendEvent(ev3);
+
+        assertReceivedExactly(2, 3);
+    }
+
+    @Test(timeout = 10000)
+    public void eventsWithTheSameKeyAreNotBlockedWhileForwarding() throws Exception {
+        final CountDownLatch forwarding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final LoggableEvent first = mkEvent("ex1", "ty1", "data1");
+        final EventDeduplicater blocking =
+                new EventDeduplicater(
+                        new EventReceiver() {
+                            @Override
+                            public void receiveEvent(LoggableEvent event) {
+                                if (event == first) {
+                                    forwarding.countDown();
+                                    try {
+                                        release.await();
+                                    } catch (InterruptedException ex) {
+                                        Thread.currentThread().interrupt();
+                                    }
+                                }
+                                eventsReceived.add(event);
+                            }
+
+                            @Override
+                            public void close() {}
+                        });
+        Thread sender =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        blocking.receiveEvent(first);
+                    }
+                };
+        sender.start();
+        try {
+            forwarding.await();
+            blocking.receiveEvent(mkEvent("ex1", "ty1", "data2"));
+            assertEquals(1, eventsReceived.size());
+        } finally {
+            release.countDown();
+            sender.join();
+        }
+        assertEquals(2, eventsReceived.size());
+    }
 }
@@ -0,0 +1,145 @@
+package fi.helsinki.cs.tmc.core.snapshots;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+import fi.helsinki.cs.tmc.snapshots.EventDiffer;
+import fi.helsinki.cs.tmc.snapshots.EventPatchReconstructor;
+import fi.helsinki.cs.tmc.snapshots.EventReceiver;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+public class EventDifferTest extends EventForwardedTestBase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private EventDiffer differ;
+
+    @Before
+    public void setUp() {
+        differ = new EventDiffer(receiver, ImmutableSet.of("text_snapshot"), 3);
+    }
+
+    @Override
+    protected EventReceiver getSystemUnderTest() {
+        return differ;
+    }
+
+    private LoggableEvent mkEvent(String file, String text) {
+        return new LoggableEvent(
+                "course1", "ex1", "text_snapshot", text.getBytes(UTF8),
+                JsonMaker.create().add("file", file));
+    }
+
+    @Test
+    public void documentsCanBeReconstructedFromPatches() {
+        String[] versions = {
+            "class A {\n}\n",
+            "class A {\n    int x;\n}\n",
+            "class A {\n    int x;\n    int y;\n}\n",
+            "class A {\n    int y;\n}\n",
+            "class B {\n    int y;\n}\n"
+        };
+        for (String version : versions) {
+            sendEvent(mkEvent("A.java", version));
+        }
+
+        EventPatchReconstructor reconstructor = new EventPatchReconstructor();
+        assertEquals(versions.length, eventsReceived.size());
+        for (int i = 0; i < versions.length; i++) {
+            assertEquals(versions[i], reconstructor.apply(eventsReceived.get(i)));
+        }
+    }
+
+    @Test
+    public void fullDocumentIsSentPeriodically() {
+        for (int i = 0; i < 7; i++) {
+            sendEvent(mkEvent("A.java", "version " + i));
+        }
+
+        boolean[] expected = {true, false, false, true, false, false, true};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], data(eventsReceived.get(i)).get("full_document").getAsBoolean());
+        }
+    }
+
+    @Test
+    public void filesAreDiffedSeparately() {
+        sendEvent(mkEvent("A.java", "a"));
+        sendEvent(mkEvent("B.java", "b"));
+
+        assertTrue(data(eventsReceived.get(0)).get("full_document").getAsBoolean());
+        assertTrue(data(eventsReceived.get(1)).get("full_document").getAsBoolean());
+        assertEquals("B.java", data(eventsReceived.get(1)).get("file").getAsString());
+    }
+
+    @Test
+    public void forgottenDocumentsAreSentInFull() {
+        differ = new EventDiffer(receiver, ImmutableSet.of("text_snapshot"), 3, 2);
+        sendEvent(mkEvent("A.java", "a"));
+        sendEvent(mkEvent("B.java", "b"));
+        sendEvent(mkEvent("A.java", "a2"));
+        sendEvent(mkEvent("C.java", "c"));
+        sendEvent(mkEvent("A.java", "a3"));
+        sendEvent(mkEvent("B.java", "b2"));
+
+        boolean[] expected = {true, true, false, true, false, true};
+        for (int i = 0; i < expected.length; i++) {
+            JsonObject data = data(eventsReceived.get(i));
+            assertEquals(expected[i], data.get("full_document").getAsBoolean());
+        }
+
+        EventPatchReconstructor reconstructor = new EventPatchReconstructor();
+        String[] documents = {"a", "b", "a2", "c", "a3", "b2"};
+        for (int i = 0; i < documents.length; i++) {
+            assertEquals(documents[i], reconstructor.apply(eventsReceived.get(i)));
+        }
+    }
+
+    @Test
+    public void unchangedDocumentsAreDiscarded() {
+        sendEvent(mkEvent("A.java", "a"));
+        sendEvent(mkEvent("A.java", "a"));
+
+        assertEquals(1, eventsReceived.size());
+    }
+
+    @Test
+    public void patchedEventsKeepTheirFields() {
+        LoggableEvent event = mkEvent("A.java", "a");
+        event.setHappenedAt(1234);
+        sendEvent(event);
+
+        LoggableEvent patched = eventsReceived.get(0);
+        assertEquals(event.getKey(), patched.getKey());
+        assertEquals(1234, patched.getHappenedAt());
+        assertEquals(event.getSystemNanotime(), patched.getSystemNanotime());
+        assertEquals(event.getMetadata(), patched.getMetadata());
+    }
+
+    @Test
+    public void otherEventsArePassedThrough() {
+        LoggableEvent other = new LoggableEvent("course1", "ex1", "other", "a".getBytes(UTF8));
+        LoggableEvent binary =
+                new LoggableEvent("course1", "ex1", "text_snapshot", new byte[] {(byte) 0xff});
+        sendEvent(other);
+        sendEvent(binary);
+
+        assertSame(other, eventsReceived.get(0));
+        assertSame(binary, eventsReceived.get(1));
+    }
+
+    private static JsonObject data(LoggableEvent event) {
+        return new JsonParser().parse(new String(event.getData(), UTF8)).getAsJsonObject();
+    }
+}
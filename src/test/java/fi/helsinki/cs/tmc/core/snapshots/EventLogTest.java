@@ -0,0 +1,125 @@
+package fi.helsinki.cs.tmc.core.snapshots;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import fi.helsinki.cs.tmc.snapshots.EventLog;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+public class EventLogTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath().resolve("events");
+    }
+
+    @Test
+    public void appendedRecordsAreReadBack() throws IOException {
+        new EventLog(directory).append(records("a", "b", "c"));
+
+        assertRecords(new EventLog(directory).readUnacknowledged(), "a", "b", "c");
+    }
+
+    @Test
+    public void acknowledgedRecordsAreNotReadBack() throws IOException {
+        EventLog log = new EventLog(directory);
+        log.append(records("a", "b", "c"));
+        log.acknowledge(2);
+        log.append(records("d"));
+
+        EventLog reopened = new EventLog(directory);
+        assertRecords(reopened.readUnacknowledged(), "c", "d");
+        assertEquals(2, reopened.size());
+    }
+
+    @Test
+    public void fullyAcknowledgedSegmentsAreDeleted() throws IOException {
+        EventLog log = new EventLog(directory, 1);
+        log.append(records("a", "b", "c", "d"));
+        assertEquals(4, segmentCount());
+
+        log.acknowledge(3);
+
+        assertEquals(1, segmentCount());
+        assertRecords(new EventLog(directory, 1).readUnacknowledged(), "d");
+    }
+
+    @Test
+    public void clearedLogContinuesNumberingAfterReopen() throws IOException {
+        EventLog log = new EventLog(directory, 1);
+        log.append(records("a", "b"));
+        log.clear();
+        assertEquals(0, segmentCount());
+
+        EventLog reopened = new EventLog(directory, 1);
+        reopened.append(records("c"));
+        assertRecords(new EventLog(directory, 1).readUnacknowledged(), "c");
+    }
+
+    @Test
+    public void partiallyWrittenRecordIsTruncatedOnOpen() throws IOException {
+        new EventLog(directory).append(records("a", "b"));
+        File segment = directory.toFile().listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        EventLog reopened = new EventLog(directory);
+        assertRecords(reopened.readUnacknowledged(), "a");
+        reopened.append(records("c"));
+
+        assertRecords(new EventLog(directory).readUnacknowledged(), "a", "c");
+    }
+
+    @Test
+    public void corruptedRecordIsNotReadBack() throws IOException {
+        new EventLog(directory).append(records("a", "b"));
+        File segment = directory.toFile().listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(file.length() - 1);
+            file.write('x');
+        }
+
+        assertRecords(new EventLog(directory).readUnacknowledged(), "a");
+    }
+
+    private int segmentCount() {
+        int count = 0;
+        for (String name : directory.toFile().list()) {
+            if (name.endsWith(".log")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<byte[]> records(String... contents) {
+        byte[][] records = new byte[contents.length][];
+        for (int i = 0; i < contents.length; i++) {
+            records[i] = contents[i].getBytes();
+        }
+        return Arrays.asList(records);
+    }
+
+    private static void assertRecords(List<byte[]> actual, String... expected) {
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i].getBytes(), actual.get(i));
+        }
+    }
+}
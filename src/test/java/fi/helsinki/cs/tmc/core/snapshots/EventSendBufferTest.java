@@ -14,6 +14,7 @@ import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
 import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.exceptions.NotLoggedInException;
+import fi.helsinki.cs.tmc.core.holders.TmcExecutorsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 import fi.helsinki.cs.tmc.core.utils.MockSettings;
 import fi.helsinki.cs.tmc.snapshots.EventSendBuffer;
@@ -21,6 +22,7 @@ import fi.helsinki.cs.tmc.snapshots.EventStore;
 import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.junit.After;
 import org.junit.Before;
@@ -39,7 +41,10 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -367,4 +372,107 @@ public class EventSendBufferTest {
         Thread.sleep(100); // Wait for save
         assertEquals(0, savedEvents.getValue().length);
     }
+
+    @Test
+    public void receivesEventsFromManyThreadsConcurrently() throws Exception {
+        final int threads = 8;
+        final int eventsPerThread = 1000;
+        Thread[] producers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            producers[i] =
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            for (int j = 0; j < eventsPerThread; j++) {
+                                sender.receiveEvent(mkEvent(j));
+                            }
+                        }
+                    };
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        sender.saveNow(1000);
+        assertEquals(threads * eventsPerThread, savedEvents.getValue().length);
+    }
+
+    @Test
+    public void sendsBatchesConcurrentlyAfterSuccessfulSends()
+            throws TimeoutException, InterruptedException {
+        sender.setMaxEventsPerSend(2);
+        sender.receiveEvent(ev1);
+        sender.sendNow();
+        sender.waitUntilCurrentSendingFinished(1000);
+        sendStartSemaphore.drainPermits();
+
+        sendDuration = 300;
+        sender.receiveEvent(ev2);
+        sender.receiveEvent(ev3);
+        sender.receiveEvent(ev4);
+        sender.receiveEvent(ev5);
+        sender.sendNow();
+
+        assertTrue(sendStartSemaphore.tryAcquire(2, 250, TimeUnit.MILLISECONDS));
+        sender.waitUntilCurrentSendingFinished(1000);
+        assertEquals(3, sendOperationsFinished.get());
+    }
+
+    @Test
+    public void sendsBatchesWhenNoOtherNetworkThreadIsFree() throws Exception {
+        sender.setMaxEventsPerSend(2);
+        sender.receiveEvent(ev1);
+        sender.sendNow();
+        sender.waitUntilCurrentSendingFinished(1000);
+
+        // Leave the network pool only the thread the sending task itself runs on
+        ScheduledThreadPoolExecutor networkIo = TmcExecutorsHolder.get().getNetworkIo();
+        int blockers = networkIo.getCorePoolSize() - 1;
+        final CountDownLatch blocked = new CountDownLatch(blockers);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < blockers; i++) {
+            networkIo.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            blocked.countDown();
+                            Uninterruptibles.awaitUninterruptibly(release);
+                        }
+                    });
+        }
+        try {
+            assertTrue(blocked.await(1, TimeUnit.SECONDS));
+
+            sender.receiveEvent(ev2);
+            sender.receiveEvent(ev3);
+            sender.receiveEvent(ev4);
+            sender.receiveEvent(ev5);
+            sender.sendNow();
+
+            sender.waitUntilCurrentSendingFinished(2000);
+            assertEquals(3, sendOperationsFinished.get());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void limitsBatchesByEstimatedSize() throws TimeoutException, InterruptedException {
+        LoggableEvent big1 = new LoggableEvent("foo", "bar", "baz", new byte[40 * 1024]);
+        LoggableEvent big2 = new LoggableEvent("foo", "bar", "baz", new byte[40 * 1024]);
+        LoggableEvent big3 = new LoggableEvent("foo", "bar", "baz", new byte[40 * 1024]);
+        sender.setMaxBytesPerSend(64 * 1024);
+        sender.setMaxConcurrentSends(1);
+        sender.receiveEvent(big1);
+        sender.receiveEvent(big2);
+        sender.receiveEvent(big3);
+
+        sender.sendNow();
+        sender.waitUntilCurrentSendingFinished(1000);
+
+        assertEquals(2, sentEvents.getAllValues().size());
+        assertArrayEquals(new Object[] {big1, big2}, sentEvents.getAllValues().get(0).toArray());
+        assertArrayEquals(new Object[] {big3}, sentEvents.getAllValues().get(1).toArray());
+    }
 }
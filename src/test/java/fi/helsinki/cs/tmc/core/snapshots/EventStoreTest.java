@@ -0,0 +1,124 @@
+package fi.helsinki.cs.tmc.core.snapshots;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import fi.helsinki.cs.tmc.snapshots.EventLog;
+import fi.helsinki.cs.tmc.snapshots.EventStore;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+import fi.helsinki.cs.tmc.snapshots.LoggableEventBinaryCodec;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class EventStoreTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private EventStore store;
+
+    private LoggableEvent ev1 = mkEvent(1);
+    private LoggableEvent ev2 = mkEvent(2);
+    private LoggableEvent ev3 = mkEvent(3);
+    private LoggableEvent ev4 = mkEvent(4);
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.getRoot().toPath().resolve("events");
+        store = new EventStore(directory);
+        store.load();
+    }
+
+    @Test
+    public void savedEventsAreLoaded() throws IOException {
+        store.save(new LoggableEvent[] {ev1, ev2});
+
+        assertEventTypes(new EventStore(directory).load(), "baz1", "baz2");
+    }
+
+    @Test
+    public void eventsRemovedFromFrontAndAddedToBackAreSavedIncrementally() throws IOException {
+        store.save(new LoggableEvent[] {ev1, ev2});
+        store.save(new LoggableEvent[] {ev2, ev3});
+        store.save(new LoggableEvent[] {ev3, ev4});
+
+        assertEventTypes(new EventStore(directory).load(), "baz3", "baz4");
+    }
+
+    @Test
+    public void eventsThatDoNotContinueStoredOnesReplaceThem() throws IOException {
+        store.save(new LoggableEvent[] {ev1, ev2});
+        store.save(new LoggableEvent[] {ev2, ev1});
+
+        assertEventTypes(new EventStore(directory).load(), "baz2", "baz1");
+    }
+
+    @Test
+    public void savingNothingClearsStoredEvents() throws IOException {
+        store.save(new LoggableEvent[] {ev1, ev2});
+        store.save(new LoggableEvent[0]);
+
+        assertEventTypes(new EventStore(directory).load());
+    }
+
+    @Test
+    public void loadedEventsKeepTheirFields() throws IOException {
+        ev1.setHappenedAt(1234);
+        store.save(new LoggableEvent[] {ev1});
+
+        LoggableEvent loaded = new EventStore(directory).load()[0];
+        assertEquals("foo1", loaded.getCourseName());
+        assertEquals("bar1", loaded.getExerciseName());
+        assertEquals(1234, loaded.getHappenedAt());
+        assertEquals("data1", new String(loaded.getData(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void eventsFromLegacyFileAreMigrated() throws IOException {
+        Path legacyFile = folder.getRoot().toPath().resolve("Events.json");
+        Files.write(
+                legacyFile,
+                ("[{\"courseName\":\"foo\",\"exerciseName\":\"bar\",\"eventType\":\"legacy\","
+                                + "\"data\":\"aGk=\",\"metadata\":{\"toplevel\":{}},\"happenedAt\":1,"
+                                + "\"systemNanotime\":2}]")
+                        .getBytes(StandardCharsets.UTF_8));
+
+        EventStore migrating = new EventStore(directory);
+        assertEventTypes(migrating.load(), "legacy");
+        assertFalse(Files.exists(legacyFile));
+        assertEventTypes(new EventStore(directory).load(), "legacy");
+    }
+
+    @Test
+    public void eventsStoredAsOneEventListsAreLoaded() throws IOException {
+        new EventLog(directory)
+                .append(
+                        Arrays.asList(
+                                LoggableEventBinaryCodec.encode(Arrays.asList(ev1)),
+                                LoggableEventBinaryCodec.encodeEvent(ev2)));
+
+        assertEventTypes(new EventStore(directory).load(), "baz1", "baz2");
+    }
+
+    private LoggableEvent mkEvent(int num) {
+        return new LoggableEvent(
+                "foo" + num, "bar" + num, "baz" + num,
+                ("data" + num).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertEventTypes(LoggableEvent[] events, String... expected) {
+        assertEquals(expected.length, events.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], events[i].getEventType());
+        }
+    }
+}
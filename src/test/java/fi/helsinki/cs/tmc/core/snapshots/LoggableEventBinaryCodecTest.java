@@ -0,0 +1,130 @@
+package fi.helsinki.cs.tmc.core.snapshots;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.communication.serialization.GsonRegistry;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+import fi.helsinki.cs.tmc.snapshots.LoggableEventBinaryCodec;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LoggableEventBinaryCodecTest {
+
+    @Test
+    public void eventsSurviveRoundTrip() throws IOException {
+        LoggableEvent first = new LoggableEvent("course", "exercise", "code_snapshot", bytes(1, 2));
+        first.addMetadata("cause", "modified");
+        first.setHappenedAt(1000);
+        LoggableEvent second = new LoggableEvent("course", "other", "code_snapshot", null);
+        second.setHappenedAt(500);
+
+        List<LoggableEvent> decoded =
+                LoggableEventBinaryCodec.decode(
+                        LoggableEventBinaryCodec.encode(Arrays.asList(first, second)));
+
+        assertEquals(2, decoded.size());
+        assertSameEvent(first, decoded.get(0));
+        assertSameEvent(second, decoded.get(1));
+        assertNull(decoded.get(1).getData());
+    }
+
+    @Test
+    public void emptyListSurvivesRoundTrip() throws IOException {
+        byte[] encoded = LoggableEventBinaryCodec.encode(new ArrayList<LoggableEvent>());
+
+        assertTrue(LoggableEventBinaryCodec.isEncoded(encoded));
+        assertTrue(LoggableEventBinaryCodec.decode(encoded).isEmpty());
+    }
+
+    @Test
+    public void singleEventSurvivesRoundTrip() throws IOException {
+        LoggableEvent event = new LoggableEvent("course", "exercise", "code_snapshot", bytes(3));
+        event.addMetadata("cause", "modified");
+        event.setHappenedAt(1000);
+
+        byte[] encoded = LoggableEventBinaryCodec.encodeEvent(event);
+
+        assertTrue(LoggableEventBinaryCodec.isEncodedEvent(encoded));
+        assertFalse(LoggableEventBinaryCodec.isEncoded(encoded));
+        assertSameEvent(event, LoggableEventBinaryCodec.decodeEvent(encoded));
+    }
+
+    @Test
+    public void singleEventRecordIsSmallerThanOneEventList() {
+        LoggableEvent event = new LoggableEvent("course", "exercise", "code_snapshot", bytes(3));
+
+        assertTrue(
+                LoggableEventBinaryCodec.encodeEvent(event).length
+                        < LoggableEventBinaryCodec.encode(ImmutableList.of(event)).length);
+    }
+
+    @Test
+    public void listsAndJsonAreNotRecognizedAsSingleEvents() {
+        assertFalse(
+                LoggableEventBinaryCodec.isEncodedEvent(
+                        LoggableEventBinaryCodec.encode(new ArrayList<LoggableEvent>())));
+        assertFalse(
+                LoggableEventBinaryCodec.isEncodedEvent("{}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void jsonIsNotRecognizedAsBinary() {
+        assertFalse(LoggableEventBinaryCodec.isEncoded("[{}]".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedEncodingIsRejected() throws IOException {
+        byte[] encoded =
+                LoggableEventBinaryCodec.encode(
+                        ImmutableList.of(new LoggableEvent("course", "exercise", "type", bytes(1))));
+
+        LoggableEventBinaryCodec.decode(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+
+    @Test
+    public void repeatedEventsAreSmallerThanJson() {
+        List<LoggableEvent> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add(new LoggableEvent("course", "exercise", "code_snapshot", new byte[300]));
+        }
+
+        int binary = LoggableEventBinaryCodec.encode(events).length;
+        int json =
+                GsonRegistry.events()
+                        .toJson(events, new TypeToken<List<LoggableEvent>>() {}.getType())
+                        .length();
+        assertTrue(binary < json * 3 / 4);
+    }
+
+    private static void assertSameEvent(LoggableEvent expected, LoggableEvent actual) {
+        assertEquals(expected.getCourseName(), actual.getCourseName());
+        assertEquals(expected.getExerciseName(), actual.getExerciseName());
+        assertEquals(expected.getEventType(), actual.getEventType());
+        assertEquals(expected.getMetadata(), actual.getMetadata());
+        assertEquals(expected.getHappenedAt(), actual.getHappenedAt());
+        assertEquals(expected.getSystemNanotime(), actual.getSystemNanotime());
+        assertEquals(expected.getKey(), actual.getKey());
+        assertArrayEquals(expected.getData(), actual.getData());
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
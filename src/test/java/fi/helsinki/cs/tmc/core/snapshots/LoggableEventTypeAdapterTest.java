@@ -0,0 +1,76 @@
+package fi.helsinki.cs.tmc.core.snapshots;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import fi.helsinki.cs.tmc.core.communication.serialization.ByteArrayGsonSerializer;
+import fi.helsinki.cs.tmc.core.communication.serialization.GsonRegistry;
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+import fi.helsinki.cs.tmc.core.utilities.JsonMakerGsonSerializer;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoggableEventTypeAdapterTest {
+
+    private LoggableEvent event;
+
+    @Before
+    public void setUp() {
+        event = new LoggableEvent(
+                "course", "exercise", "text_insert", new byte[] {1, 2, 3},
+                JsonMaker.create().add("cause", "typing"));
+    }
+
+    @Test
+    public void writesSameJsonAsReflectiveSerialization() {
+        Gson reflective =
+                new GsonBuilder()
+                        .registerTypeAdapter(byte[].class, new ByteArrayGsonSerializer())
+                        .registerTypeAdapter(JsonMaker.class, new JsonMakerGsonSerializer())
+                        .create();
+
+        assertEquals(
+                new JsonParser().parse(reflective.toJson(event)),
+                new JsonParser().parse(GsonRegistry.events().toJson(event)));
+    }
+
+    @Test
+    public void readsBackWrittenEvent() {
+        String json = GsonRegistry.events().toJson(new LoggableEvent[] {event});
+        LoggableEvent read = GsonRegistry.events().fromJson(json, LoggableEvent[].class)[0];
+
+        assertEvent(read);
+    }
+
+    @Test
+    public void readsEventsStoredByOlderVersions() {
+        Gson legacy =
+                new GsonBuilder()
+                        .registerTypeAdapter(
+                                byte[].class,
+                                new fi.helsinki.cs.tmc.core.utilities.ByteArrayGsonSerializer())
+                        .create();
+        String json = legacy.toJson(new LoggableEvent[] {event});
+
+        LoggableEvent read = GsonRegistry.events().fromJson(json, LoggableEvent[].class)[0];
+
+        assertEvent(read);
+    }
+
+    private void assertEvent(LoggableEvent read) {
+        assertEquals("course", read.getCourseName());
+        assertEquals("exercise", read.getExerciseName());
+        assertEquals("text_insert", read.getEventType());
+        assertEquals("course|exercise|text_insert", read.getKey());
+        assertArrayEquals(new byte[] {1, 2, 3}, read.getData());
+        assertEquals("{\"cause\":\"typing\"}", read.getMetadata());
+        assertEquals(event.getHappenedAt(), read.getHappenedAt());
+        assertEquals(event.getSystemNanotime(), read.getSystemNanotime());
+    }
+}
@@ -0,0 +1,68 @@
+package fi.helsinki.cs.tmc.core.snapshots;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.snapshots.SnapshotEndpointHealth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class SnapshotEndpointHealthTest {
+
+    private static final URI FIRST = URI.create("http://first.example.com/");
+    private static final URI SECOND = URI.create("http://second.example.com/");
+    private static final URI THIRD = URI.create("http://third.example.com/");
+
+    private SnapshotEndpointHealth health;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        health = new SnapshotEndpointHealth();
+        random = new Random(0);
+    }
+
+    @Test
+    public void failingEndpointIsBackedOffUntilItSucceeds() {
+        health.recordFailure(FIRST);
+        assertTrue(health.isBackedOff(FIRST));
+
+        health.recordSuccess(FIRST, 10);
+        assertFalse(health.isBackedOff(FIRST));
+    }
+
+    @Test
+    public void backedOffEndpointsAreTriedLast() {
+        health.recordFailure(FIRST);
+        health.recordFailure(SECOND);
+        health.recordFailure(SECOND);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Arrays.asList(THIRD, FIRST, SECOND),
+                    health.order(Arrays.asList(FIRST, SECOND, THIRD), random));
+        }
+    }
+
+    @Test
+    public void fasterEndpointIsPreferred() {
+        health.recordSuccess(FIRST, 2000);
+        health.recordSuccess(SECOND, 10);
+
+        int secondFirst = 0;
+        for (int i = 0; i < 1000; i++) {
+            List<URI> ordered = health.order(Arrays.asList(FIRST, SECOND), random);
+            if (ordered.get(0).equals(SECOND)) {
+                secondFirst++;
+            }
+        }
+        assertTrue(secondFirst > 800);
+        assertTrue(secondFirst < 1000);
+    }
+}
@@ -0,0 +1,62 @@
+package fi.helsinki.cs.tmc.core.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import fi.helsinki.cs.tmc.core.holders.TmcExecutorsHolder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingletonTaskTest {
+
+    private AtomicInteger runs;
+    private CountDownLatch ranThrice;
+    private SingletonTask task;
+
+    @Before
+    public void setUp() {
+        TmcExecutorsHolder.set(new TmcExecutors(1, 1, 1));
+        runs = new AtomicInteger();
+        ranThrice = new CountDownLatch(3);
+        task = new SingletonTask(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        runs.incrementAndGet();
+                        ranThrice.countDown();
+                    }
+                },
+                TmcExecutors.Pool.DISK_IO);
+    }
+
+    @After
+    public void tearDown() {
+        task.unsetInterval();
+        TmcExecutorsHolder.set(null);
+    }
+
+    @Test
+    public void startsOnExecutorsThatReplacedTheOnesItWasCreatedWith() throws Exception {
+        TmcExecutorsHolder.set(new TmcExecutors(1, 1, 1));
+
+        task.start();
+        task.waitUntilFinished(1000);
+
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void intervalSurvivesReplacingExecutors() throws Exception {
+        task.setInterval(20);
+        TmcExecutorsHolder.set(new TmcExecutors(1, 1, 1));
+
+        task.start();
+
+        assertThat(ranThrice.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,113 @@
+package fi.helsinki.cs.tmc.core.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import fi.helsinki.cs.tmc.core.holders.TmcExecutorsHolder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class TmcExecutorsTest {
+
+    private TmcExecutors executors;
+
+    @Before
+    public void setUp() {
+        executors = new TmcExecutors(2, 1, 1);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executors.shutdown(0);
+    }
+
+    @Test
+    public void statsShowActiveAndQueuedTasks() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                };
+        executors.getDiskIo().submit(blocking);
+        executors.getDiskIo().submit(blocking);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        List<TmcExecutors.Stats> stats = executors.getStats();
+        assertThat(stats).hasSize(3);
+        TmcExecutors.Stats disk = stats.get(1);
+        assertThat(disk.getName()).isEqualTo("disk-io");
+        assertThat(disk.getActiveTasks()).isEqualTo(1);
+        assertThat(disk.getQueuedTasks()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(executors.shutdown(5000)).isTrue();
+        assertThat(executors.getStats().get(1).getCompletedTasks()).isEqualTo(2);
+    }
+
+    @Test
+    public void shutdownInterruptsTasksRunningPastTimeout() throws InterruptedException {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        executors.getNetworkIo()
+                .submit(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    Thread.sleep(60000);
+                                } catch (InterruptedException ex) {
+                                    interrupted.countDown();
+                                }
+                            }
+                        });
+
+        assertThat(executors.shutdown(100)).isFalse();
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(executors.isShutdown()).isTrue();
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectsTasksAfterShutdown() throws InterruptedException {
+        executors.shutdown(0);
+        executors.getCpu().execute(new Runnable() {
+            @Override
+            public void run() {}
+        });
+    }
+
+    @Test
+    public void holderKeepsShutDownExecutorsUntilReplaced() throws InterruptedException {
+        TmcExecutorsHolder.set(executors);
+        executors.shutdown(0);
+        assertThat(TmcExecutorsHolder.get()).isSameAs(executors);
+        try {
+            TmcExecutorsHolder.get().getCpu().execute(new Runnable() {
+                @Override
+                public void run() {}
+            });
+            fail("Shut down executors accepted a task");
+        } catch (RejectedExecutionException expected) {
+            // Expected
+        }
+
+        TmcExecutors replacement = new TmcExecutors(1, 1, 1);
+        TmcExecutorsHolder.set(replacement);
+        assertThat(TmcExecutorsHolder.get()).isSameAs(replacement);
+        TmcExecutorsHolder.set(null);
+    }
+}
@@ -12,6 +12,7 @@ import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
 import java.lang.UnsupportedOperationException;
 import java.nio.file.Path;
 import java.util.Locale;
+import java.util.zip.Deflater;
 
 public class MockSettings implements TmcSettings {
 
@@ -178,4 +179,60 @@ public class MockSettings implements TmcSettings {
         this.org = organization;
     }
 
+    @Override
+    public int getHttpMaxConnectionsPerRoute() {
+        return 8;
+    }
+
+    @Override
+    public int getHttpMaxConnectionsTotal() {
+        return 32;
+    }
+
+    @Override
+    public long getHttpIdleConnectionTimeout() {
+        return 30 * 1000;
+    }
+
+    @Override
+    public int getExerciseDownloadThreads() {
+        return 4;
+    }
+
+    @Override
+    public long getExerciseZipCacheMaxBytes() {
+        // getConfigRoot() is not supported, so keep the cache disabled
+        return 0;
+    }
+
+    @Override
+    public boolean getHttpResponseCacheEnabled() {
+        return false;
+    }
+
+    @Override
+    public int getSnapshotCompressionLevel() {
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    @Override
+    public boolean getSnapshotBinaryUploadsEnabled() {
+        return false;
+    }
+
+    @Override
+    public int getNetworkIoThreads() {
+        return 6;
+    }
+
+    @Override
+    public int getDiskIoThreads() {
+        return 2;
+    }
+
+    @Override
+    public int getCpuThreads() {
+        return 2;
+    }
+
 }